@@ -0,0 +1,190 @@
+package club.virgilin;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * CopyStrategyBenchmark
+ *
+ * @author virgilin
+ * @date 2026/10/18
+ *
+ * TestChannel中四种文件复制方式的JMH基准测试
+ * 1.streamChannel：FileInputStream/FileOutputStream的通道 + 缓冲区（test1）
+ * 2.mapped：内存映射（test2，按窗口映射，否则超过2GB无法运行）
+ * 3.transferFrom：通道之间直接传输（test3）
+ * 4.scatterGather：分散读取 + 聚集写入（test4）
+ *
+ * 参数：文件大小4KB ~ 4GB；缓冲区大小和堆内/直接缓冲区只对1、4有意义，所以放在单独的BufferState中，
+ * 2、3不会按这两个参数重复运行。
+ *
+ * 结果是每秒复制的文件数（乘以fileSize即吞吐量），配合GC profiler的gc.alloc.rate.norm看每次复制的分配量。
+ * 源文件在第一次复制后就在页缓存中，测到的是“热”文件的复制速度；要测冷读需要在每轮之间清理页缓存。
+ *
+ * 运行：与src一起编译并加入JMH依赖（jmh/src单独存放，src只依赖JUnit），java club.virgilin.CopyStrategyBenchmark；
+ * 命令行参数交给JMH解析，例如 -p fileSize=1048576 只测1MB的文件
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CopyStrategyBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class FileState {
+
+        @Param({"4096", "1048576", "67108864", "1073741824", "4294967296"})
+        public long fileSize;
+
+        Path directory;
+        Path source;
+        Path target;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            directory = Files.createTempDirectory("copy-benchmark");
+            source = directory.resolve("source.bin");
+            target = directory.resolve("target.bin");
+            //随机内容，避免文件系统对全零数据做特殊处理
+            byte[] chunk = new byte[1024 * 1024];
+            new Random(fileSize).nextBytes(chunk);
+            try (FileChannel channel = FileChannel.open(source, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+                ByteBuffer buffer = ByteBuffer.wrap(chunk);
+                for (long written = 0; written < fileSize; ) {
+                    buffer.clear();
+                    buffer.limit((int) Math.min(chunk.length, fileSize - written));
+                    written += channel.write(buffer);
+                }
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            Files.deleteIfExists(source);
+            Files.deleteIfExists(target);
+            Files.deleteIfExists(directory);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class BufferState {
+
+        @Param({"1024", "65536", "1048576"})
+        public int bufferSize;
+
+        @Param({"false", "true"})
+        public boolean direct;
+
+        ByteBuffer buffer;
+        ByteBuffer[] buffers;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            buffer = allocate(bufferSize);
+            //与test4一样分成一小一大两个缓冲区
+            int head = Math.max(1, bufferSize / 10);
+            buffers = new ByteBuffer[]{allocate(head), allocate(bufferSize - head)};
+        }
+
+        private ByteBuffer allocate(int size) {
+            return direct ? ByteBuffer.allocateDirect(size) : ByteBuffer.allocate(size);
+        }
+    }
+
+    @Benchmark
+    public long streamChannel(FileState file, BufferState state) throws IOException {
+        long copied = 0;
+        try (FileInputStream fis = new FileInputStream(file.source.toFile());
+             FileOutputStream fos = new FileOutputStream(file.target.toFile())) {
+            FileChannel inChannel = fis.getChannel();
+            FileChannel outChannel = fos.getChannel();
+            ByteBuffer buf = state.buffer;
+            buf.clear();
+            while (inChannel.read(buf) != -1) {
+                buf.flip();
+                while (buf.hasRemaining()) {
+                    copied += outChannel.write(buf);
+                }
+                buf.clear();
+            }
+        }
+        return copied;
+    }
+
+    @Benchmark
+    public long mapped(FileState file) throws IOException {
+        return new MappedFileCopier().copy(file.source, file.target);
+    }
+
+    @Benchmark
+    public long transferFrom(FileState file) throws IOException {
+        try (FileChannel inChannel = FileChannel.open(file.source, StandardOpenOption.READ);
+             FileChannel outChannel = FileChannel.open(file.target, StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                     StandardOpenOption.TRUNCATE_EXISTING)) {
+            return FileTransfer.receive(inChannel, outChannel, 0, inChannel.size());
+        }
+    }
+
+    @Benchmark
+    public long scatterGather(FileState file, BufferState state) throws IOException {
+        long copied = 0;
+        try (FileChannel inChannel = FileChannel.open(file.source, StandardOpenOption.READ);
+             FileChannel outChannel = FileChannel.open(file.target, StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                     StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer[] bufs = state.buffers;
+            while (true) {
+                for (ByteBuffer byteBuffer : bufs) {
+                    byteBuffer.clear();
+                }
+                if (inChannel.read(bufs) < 0) {
+                    break;
+                }
+                for (ByteBuffer byteBuffer : bufs) {
+                    byteBuffer.flip();
+                }
+                while (bufs[bufs.length - 1].hasRemaining() || bufs[0].hasRemaining()) {
+                    copied += outChannel.write(bufs);
+                }
+            }
+        }
+        return copied;
+    }
+
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        //命令行参数（-p、-f、-wi等）作为默认值之外的设置
+        new Runner(new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .include(CopyStrategyBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
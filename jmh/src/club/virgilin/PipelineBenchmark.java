@@ -0,0 +1,139 @@
+package club.virgilin;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * PipelineBenchmark
+ *
+ * @author virgilin
+ * @date 2026/10/18
+ *
+ * 三级流水线（解码 → 计算 → 持久化）在两种通道上的JMH基准测试
+ * 1.throughput：连续提交BATCH条消息，等最后一级处理完，结果是每秒处理的消息数
+ * 2.latency：提交一条消息并立即flush，等它穿过三级，结果是单条消息端到端延迟的分布（p50/p99/p99.9）
+ *
+ * 流水线有三个工作线程，加上JMH的线程至少需要4个核，否则测到的是线程切换的开销。
+ *
+ * 运行：java club.virgilin.PipelineBenchmark（类路径上需要src的编译结果和JMH），
+ * 参数按JMH的命令行格式传入，例如 -p transport=ring 只测环形缓冲区
+ */
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class PipelineBenchmark {
+
+    private static final int BATCH = 1000;
+
+    @Param({"pipe", "ring"})
+    public String transport;
+
+    @Param({"64", "1024"})
+    public int messageSize;
+
+    private Pipeline pipeline;
+    private ByteBuffer message;
+    private long submitted;
+    private final AtomicLong processed = new AtomicLong();
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        StageTransport.Factory factory = "pipe".equals(transport) ? PipeTransport::new : RingTransport::new;
+        ByteBuffer decoded = ByteBuffer.allocateDirect(messageSize);
+        ByteBuffer transformed = ByteBuffer.allocateDirect(16);
+        pipeline = new Pipeline(factory,
+                //1.解码：原样复制给下一级
+                (in, next) -> {
+                    decoded.clear();
+                    decoded.put(in);
+                    decoded.flip();
+                    next.send(decoded);
+                },
+                //2.计算：序号 + 所有long的异或
+                (in, next) -> {
+                    long sequence = in.getLong(in.position());
+                    long hash = 0;
+                    while (in.remaining() >= 8) {
+                        hash ^= in.getLong();
+                    }
+                    transformed.clear();
+                    transformed.putLong(sequence).putLong(hash);
+                    transformed.flip();
+                    next.send(transformed);
+                },
+                //3.持久化：记录处理到的序号
+                (in, next) -> processed.lazySet(in.getLong(in.position())));
+        pipeline.start();
+        message = ByteBuffer.allocateDirect(messageSize);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        pipeline.close();
+    }
+
+    private void submit() throws IOException {
+        message.clear();
+        message.putLong(0, ++submitted);
+        pipeline.submit(message);
+    }
+
+    private void await() {
+        while (processed.get() < submitted) {
+            Thread.onSpinWait();
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    @OperationsPerInvocation(BATCH)
+    public void throughput() throws IOException {
+        for (int i = 0; i < BATCH; i++) {
+            submit();
+        }
+        pipeline.flush();
+        await();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public void latency() throws IOException {
+        submit();
+        pipeline.flush();
+        await();
+    }
+
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        new Runner(new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .include(PipelineBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
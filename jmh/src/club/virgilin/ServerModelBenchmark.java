@@ -0,0 +1,170 @@
+package club.virgilin;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * ServerModelBenchmark
+ *
+ * @author virgilin
+ * @date 2026/10/18
+ *
+ * 两种服务端模型处理大量并发上传的JMH基准测试
+ * 1.threadPerConnection：ThreadPerConnectionServer，每个连接一个（虚拟）线程，阻塞读
+ * 2.selector：MultiReactorServer，即TestNonBlockingNIO.server()的多Reactor版本
+ *
+ * 一次调用 = 客户端同时打开connections个连接，每个连接上传uploadSize字节后shutdownOutput()，
+ * 等服务端读到流结束并关闭连接。服务端只统计字节数，不写文件，比较的是两种模型本身的开销。
+ * 结果是完成一轮上传的平均时间，配合GC profiler看每轮的分配量。
+ *
+ * 客户端用一个选择器线程驱动所有连接，自身不会成为瓶颈。
+ * 两端共需要约2 * connections个文件描述符，运行前需要调大ulimit -n。
+ * 只有在Java 21及以上运行时threadPerConnection才是虚拟线程，否则测到的是平台线程。
+ *
+ * 运行：java club.virgilin.ServerModelBenchmark，需要src和JMH在类路径上；
+ * 连接数可以用JMH的 -p connections=1000 单独指定
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ServerModelBenchmark {
+
+    @Param({"threadPerConnection", "selector"})
+    public String model;
+
+    @Param({"10000"})
+    public int connections;
+
+    @Param({"65536"})
+    public int uploadSize;
+
+    private Closeable server;
+    private InetSocketAddress address;
+    private ByteBuffer payload;
+    private final LongAdder received = new LongAdder();
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        InetSocketAddress bindAddress = new InetSocketAddress("127.0.0.1", 0);
+        int port;
+        if ("selector".equals(model)) {
+            MultiReactorServer reactorServer = new MultiReactorServer(bindAddress,
+                    Runtime.getRuntime().availableProcessors(), (connection, buffer) -> received.add(buffer.remaining()));
+            reactorServer.start();
+            port = reactorServer.port();
+            server = reactorServer;
+        } else {
+            ThreadPerConnectionServer blockingServer = new ThreadPerConnectionServer(bindAddress, connections, channel -> {
+                ByteBuffer buffer = BufferPool.DEFAULT.acquire(8192);
+                try {
+                    int len;
+                    while ((len = channel.read(buffer)) != -1) {
+                        received.add(len);
+                        buffer.clear();
+                    }
+                } finally {
+                    BufferPool.DEFAULT.release(buffer);
+                }
+            });
+            blockingServer.start();
+            port = blockingServer.port();
+            server = blockingServer;
+        }
+        address = new InetSocketAddress("127.0.0.1", port);
+        payload = ByteBuffer.allocateDirect(uploadSize);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        server.close();
+    }
+
+    @Benchmark
+    public long upload() throws IOException {
+        return upload(address, connections, payload);
+    }
+
+    /**
+     * 同时发起count个上传，全部被服务端关闭后返回上传的总字节数
+     */
+    static long upload(InetSocketAddress address, int count, ByteBuffer payload) throws IOException {
+        long total = 0;
+        try (Selector selector = Selector.open()) {
+            for (int i = 0; i < count; i++) {
+                SocketChannel channel = SocketChannel.open();
+                channel.configureBlocking(false);
+                channel.connect(address);
+                //每个连接一个payload的视图，各自维护position
+                channel.register(selector, SelectionKey.OP_CONNECT, payload.duplicate());
+            }
+            ByteBuffer sink = ByteBuffer.allocateDirect(1024);
+            int remaining = count;
+            while (remaining > 0) {
+                selector.select();
+                Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+                while (iterator.hasNext()) {
+                    SelectionKey key = iterator.next();
+                    iterator.remove();
+                    SocketChannel channel = (SocketChannel) key.channel();
+                    ByteBuffer data = (ByteBuffer) key.attachment();
+                    if (key.isConnectable()) {
+                        channel.finishConnect();
+                        key.interestOps(SelectionKey.OP_WRITE);
+                    } else if (key.isWritable()) {
+                        total += channel.write(data);
+                        if (!data.hasRemaining()) {
+                            channel.shutdownOutput();
+                            key.interestOps(SelectionKey.OP_READ);
+                        }
+                    } else if (key.isReadable()) {
+                        sink.clear();
+                        if (channel.read(sink) < 0) {
+                            channel.close();
+                            remaining--;
+                        }
+                    }
+                }
+            }
+        }
+        return total;
+    }
+
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        new Runner(new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .include(ServerModelBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
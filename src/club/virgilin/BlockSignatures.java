@@ -0,0 +1,240 @@
+package club.virgilin;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * BlockSignatures
+ *
+ * @author virgilin
+ * @date 2026/10/18
+ *
+ * 一个文件按固定大小分块后每块的校验和，用于增量下载（见DeltaPlan）
+ *
+ * 一、内容
+ * 1.弱校验和：RollingChecksum，可以在旧文件上逐字节滑动计算
+ * 2.强校验和：块的SHA-256的前8个字节，弱校验和相同时用来确认
+ * 3.整个文件的SHA-256，拼好新文件后校验
+ *
+ * 二、传输格式（整数为大端序）
+ * 1.头部：块大小(int) 文件长度(long) 块数(int) 文件SHA-256(32字节)
+ * 2.表：每块 弱校验和(int) 强校验和(long)，共块数 × 12字节
+ * 表在创建时编码一次，之后每个连接发送它的duplicate()，不再复制
+ */
+public class BlockSignatures {
+
+    public static final int DEFAULT_BLOCK_SIZE = 4096;
+
+    public static final int HEADER_SIZE = 4 + 8 + 4 + 32;
+    public static final int ENTRY_SIZE = 4 + 8;
+
+    /**
+     * 对方头部中允许的最大块数（4KB的块时约64GB，表约200MB），超过的头部直接拒绝
+     */
+    public static final int MAX_BLOCK_COUNT = 1 << 24;
+
+    private static final int READ_BUFFER_SIZE = 1024 * 1024;
+
+    private final int blockSize;
+    private final long length;
+    private final int[] weak;
+    private final long[] strong;
+    private final byte[] digest;
+    private ByteBuffer table;
+
+    private BlockSignatures(int blockSize, long length, int[] weak, long[] strong, byte[] digest) {
+        this.blockSize = blockSize;
+        this.length = length;
+        this.weak = weak;
+        this.strong = strong;
+        this.digest = digest;
+    }
+
+    /**
+     * 计算文件的块校验和；只使用定位读，不改变channel的position
+     */
+    public static BlockSignatures compute(FileChannel channel, int blockSize) throws IOException {
+        long length = channel.size();
+        int count = blockCount(length, blockSize);
+        int[] weak = new int[count];
+        long[] strong = new long[count];
+        MessageDigest file = sha256();
+        MessageDigest block = sha256();
+        //1.每次读入整数个块
+        ByteBuffer buffer = ByteBuffer.allocateDirect(Math.max(blockSize, READ_BUFFER_SIZE / blockSize * blockSize));
+        long position = 0;
+        int index = 0;
+        try {
+            while (position < length) {
+                buffer.clear();
+                if (buffer.capacity() > length - position) {
+                    buffer.limit((int) (length - position));
+                }
+                while (buffer.hasRemaining()) {
+                    if (channel.read(buffer, position + buffer.position()) < 0) {
+                        throw new IOException("file truncated at " + (position + buffer.position()));
+                    }
+                }
+                int filled = buffer.position();
+                //2.逐块计算弱、强校验和，只有文件的最后一块可能不满
+                for (int start = 0; start < filled; start += blockSize) {
+                    buffer.limit(Math.min(start + blockSize, filled)).position(start);
+                    weak[index] = RollingChecksum.of(buffer);
+                    strong[index] = strong(block, buffer);
+                    index++;
+                }
+                buffer.limit(filled).position(0);
+                file.update(buffer);
+                position += filled;
+            }
+        } finally {
+            DirectBuffers.free(buffer);
+        }
+        return new BlockSignatures(blockSize, length, weak, strong, file.digest());
+    }
+
+    /**
+     * 读取对方发来的头部和表
+     *
+     * @param header 头部，从position开始读HEADER_SIZE个字节
+     * @param source 紧跟在头部后面的表从这里读取
+     */
+    public static BlockSignatures read(ByteBuffer header, ReadableByteChannel source) throws IOException {
+        int blockSize = header.getInt();
+        long length = header.getLong();
+        int count = header.getInt();
+        byte[] digest = new byte[32];
+        header.get(digest);
+        //不用blockCount()：对方给的length可能让它溢出或抛出IllegalArgumentException
+        if (blockSize <= 0 || length < 0 || count < 0 || count > MAX_BLOCK_COUNT
+                || count != (length == 0 ? 0 : (length - 1) / blockSize + 1)) {
+            throw new IOException("bad signatures: blockSize=" + blockSize + ", length=" + length + ", count=" + count);
+        }
+        int[] weak = new int[count];
+        long[] strong = new long[count];
+        ByteBuffer buffer = ByteBuffer.allocate(ENTRY_SIZE * 4096);
+        for (int i = 0; i < count; ) {
+            buffer.clear().limit(ENTRY_SIZE * Math.min(4096, count - i));
+            IoUtils.readFully(source, buffer);
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                weak[i] = buffer.getInt();
+                strong[i] = buffer.getLong();
+                i++;
+            }
+        }
+        return new BlockSignatures(blockSize, length, weak, strong, digest);
+    }
+
+    /**
+     * 写入头部
+     */
+    public void writeHeader(ByteBuffer buffer) {
+        buffer.putInt(blockSize).putLong(length).putInt(weak.length).put(digest);
+    }
+
+    /**
+     * 编码好的表，只读，每次调用返回新的duplicate()；
+     * 表是直接缓冲区，写到套接字时JDK不必先拷贝到临时的直接缓冲区，所有连接共享同一份内存
+     */
+    public synchronized ByteBuffer table() {
+        if (table == null) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(ENTRY_SIZE * weak.length);
+            for (int i = 0; i < weak.length; i++) {
+                buffer.putInt(weak[i]).putLong(strong[i]);
+            }
+            buffer.flip();
+            table = buffer.asReadOnlyBuffer();
+        }
+        return table.duplicate();
+    }
+
+    static int blockCount(long length, int blockSize) {
+        long count = (length + blockSize - 1) / blockSize;
+        if (count > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("too many blocks: " + count);
+        }
+        return (int) count;
+    }
+
+    /**
+     * buffer的[position, limit)的强校验和，position移到limit
+     */
+    static long strong(MessageDigest digest, ByteBuffer buffer) {
+        digest.update(buffer);
+        byte[] hash = digest.digest();
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            value = value << 8 | (hash[i] & 0xFF);
+        }
+        return value;
+    }
+
+    static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            //每个Java平台都必须支持SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * 校验文件开头length个字节的SHA-256是否与digest一致
+     */
+    public boolean verify(FileChannel channel) throws IOException {
+        if (channel.size() != length) {
+            return false;
+        }
+        MessageDigest file = sha256();
+        ByteBuffer buffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+        try {
+            long position = 0;
+            while (position < length) {
+                buffer.clear();
+                int read = channel.read(buffer, position);
+                if (read < 0) {
+                    return false;
+                }
+                buffer.flip();
+                file.update(buffer);
+                position += read;
+            }
+        } finally {
+            DirectBuffers.free(buffer);
+        }
+        return Arrays.equals(file.digest(), digest);
+    }
+
+    public int blockSize() {
+        return blockSize;
+    }
+
+    public long length() {
+        return length;
+    }
+
+    public int blockCount() {
+        return weak.length;
+    }
+
+    /**
+     * 第index块的大小，只有最后一块可能小于blockSize
+     */
+    public int blockLength(int index) {
+        return (int) Math.min(blockSize, length - (long) index * blockSize);
+    }
+
+    public int weak(int index) {
+        return weak[index];
+    }
+
+    public long strong(int index) {
+        return strong[index];
+    }
+}
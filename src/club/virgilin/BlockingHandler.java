@@ -0,0 +1,20 @@
+package club.virgilin;
+
+import java.io.IOException;
+import java.nio.channels.SocketChannel;
+
+/**
+ * BlockingHandler
+ *
+ * @author virgilin
+ * @date 2026/10/18
+ *
+ * 阻塞模式下一个连接的处理逻辑，在这个连接独占的线程中执行
+ */
+public interface BlockingHandler {
+
+    /**
+     * 处理一个已接受的连接，方法返回后连接会被关闭
+     */
+    void handle(SocketChannel channel) throws IOException;
+}
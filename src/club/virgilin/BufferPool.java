@@ -0,0 +1,311 @@
+package club.virgilin;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * BufferPool
+ *
+ * @author virgilin
+ * @date 2026/10/18
+ *
+ * 直接缓冲区池
+ *
+ * 一、为什么要池化
+ * 1.每次读就绪都ByteBuffer.allocate(1024)，高负载下会产生大量短命对象，加重GC
+ * 2.非直接缓冲区做通道读写时，JDK内部还要再拷贝一次到临时的直接缓冲区
+ * 3.直接缓冲区的分配和回收代价都比较高，所以必须复用
+ *
+ * 二、结构
+ * 1.按容量分级（size class）：256B ~ 1MB，每级是2的幂，申请时向上取整
+ * 2.线程本地缓存：每个EventLoop线程一份，命中时没有任何同步和分配
+ * 3.共享区（arena）：线程缓存空了从共享区取，满了归还到共享区，共享区也满了才交给GC
+ * 4.超过最大级别的申请不池化，直接分配
+ *
+ * 三、泄漏检测
+ * 开启后记录每个未归还缓冲区的申请位置，重复归还会直接抛出异常。
+ * 记录需要额外分配对象，所以只在排查问题时开启。可以在运行中开关：
+ * 开启之前借出的缓冲区没有记录，归还时照常处理；关闭时清空所有记录，不再持有任何缓冲区。
+ */
+public class BufferPool {
+
+    public static final BufferPool DEFAULT = new BufferPool();
+
+    private static final int MIN_SHIFT = 8;
+    private static final int MAX_SHIFT = 20;
+    private static final int CLASS_COUNT = MAX_SHIFT - MIN_SHIFT + 1;
+
+    /**
+     * 每级线程缓存最多保留的字节数
+     */
+    private static final int THREAD_CACHE_BYTES = 256 * 1024;
+
+    private final Arena[] arenas = new Arena[CLASS_COUNT];
+    private final ThreadLocal<ThreadCache> threadCache = ThreadLocal.withInitial(
+            () -> new ThreadCache(!VirtualThreads.isVirtual(Thread.currentThread())));
+
+    private final LongAdder acquires = new LongAdder();
+    private final LongAdder threadCacheHits = new LongAdder();
+    private final LongAdder arenaHits = new LongAdder();
+    private final LongAdder allocations = new LongAdder();
+    private final LongAdder outstandingBytes = new LongAdder();
+
+    private volatile boolean leakDetection;
+    private final Map<ByteBuffer, Throwable> outstanding = Collections.synchronizedMap(new IdentityHashMap<>());
+    /**
+     * 开启检测后归还、仍在池中的缓冲区：再次归还就是重复归还；不在这里也不在outstanding中的是开启之前借出的
+     */
+    private final Set<ByteBuffer> idle = Collections.newSetFromMap(Collections.synchronizedMap(new IdentityHashMap<>()));
+
+    public BufferPool() {
+        this(16 * 1024 * 1024);
+    }
+
+    /**
+     * @param arenaBytes 共享区每一级最多保留的字节数
+     */
+    public BufferPool(int arenaBytes) {
+        for (int i = 0; i < CLASS_COUNT; i++) {
+            arenas[i] = new Arena(Math.max(1, arenaBytes >> (MIN_SHIFT + i)));
+        }
+    }
+
+    /**
+     * 获取一个容量不小于size的直接缓冲区，已处于写模式（clear之后）
+     */
+    public ByteBuffer acquire(int size) {
+        if (size < 0) {
+            throw new IllegalArgumentException("size: " + size);
+        }
+        acquires.increment();
+        int index = sizeClass(size);
+        ByteBuffer buffer;
+        if (index < 0) {
+            //超过最大级别，不池化
+            allocations.increment();
+            buffer = ByteBuffer.allocateDirect(size);
+        } else {
+            buffer = threadCache.get().poll(index);
+            if (buffer != null) {
+                threadCacheHits.increment();
+            } else if ((buffer = arenas[index].poll()) != null) {
+                arenaHits.increment();
+            } else {
+                allocations.increment();
+                buffer = ByteBuffer.allocateDirect(1 << (MIN_SHIFT + index));
+            }
+            buffer.clear();
+        }
+        outstandingBytes.add(buffer.capacity());
+        if (leakDetection) {
+            idle.remove(buffer);
+            outstanding.put(buffer, new Throwable("buffer acquired here, capacity " + buffer.capacity()));
+        }
+        return buffer;
+    }
+
+    /**
+     * 归还缓冲区，归还后不能再使用
+     */
+    public void release(ByteBuffer buffer) {
+        if (!buffer.isDirect()) {
+            throw new IllegalArgumentException("not a pooled buffer: " + buffer);
+        }
+        int capacity = buffer.capacity();
+        int index = capacity > (1 << MAX_SHIFT) ? -1 : sizeClass(capacity);
+        if (index >= 0 && capacity != 1 << (MIN_SHIFT + index)) {
+            throw new IllegalArgumentException("not a pooled buffer: " + buffer);
+        }
+        boolean tracked = leakDetection;
+        if (tracked && outstanding.remove(buffer) == null && idle.contains(buffer)) {
+            throw new IllegalStateException("buffer released twice: " + buffer);
+        }
+        outstandingBytes.add(-capacity);
+        boolean kept = index >= 0 && (threadCache.get().offer(index, buffer) || arenas[index].offer(buffer));
+        if (tracked && kept) {
+            //交给GC的不用记录，否则这里的引用会让它无法回收
+            idle.add(buffer);
+        }
+    }
+
+    /**
+     * 容量对应的级别，超过最大级别返回-1
+     */
+    private static int sizeClass(int size) {
+        if (size > 1 << MAX_SHIFT) {
+            return -1;
+        }
+        if (size <= 1 << MIN_SHIFT) {
+            return 0;
+        }
+        return 32 - Integer.numberOfLeadingZeros(size - 1) - MIN_SHIFT;
+    }
+
+    public void setLeakDetection(boolean leakDetection) {
+        this.leakDetection = leakDetection;
+        if (!leakDetection) {
+            outstanding.clear();
+            idle.clear();
+        }
+    }
+
+    /**
+     * 开启泄漏检测以来仍未归还的缓冲区的申请位置
+     */
+    public List<Throwable> leaks() {
+        synchronized (outstanding) {
+            return new ArrayList<>(outstanding.values());
+        }
+    }
+
+    public long acquires() {
+        return acquires.sum();
+    }
+
+    public long threadCacheHits() {
+        return threadCacheHits.sum();
+    }
+
+    public long arenaHits() {
+        return arenaHits.sum();
+    }
+
+    public long allocations() {
+        return allocations.sum();
+    }
+
+    /**
+     * 命中率：没有新分配内存的申请所占比例
+     */
+    public double hitRate() {
+        long total = acquires.sum();
+        return total == 0 ? 0 : (double) (threadCacheHits.sum() + arenaHits.sum()) / total;
+    }
+
+    /**
+     * 已借出未归还的字节数
+     */
+    public long outstandingBytes() {
+        return outstandingBytes.sum();
+    }
+
+    /**
+     * 共享区中空闲的字节数（线程本地缓存中的不计在内）
+     */
+    public long arenaBytes() {
+        long bytes = 0;
+        for (int i = 0; i < CLASS_COUNT; i++) {
+            bytes += (long) arenas[i].size() << (MIN_SHIFT + i);
+        }
+        return bytes;
+    }
+
+    @Override
+    public String toString() {
+        return "BufferPool{acquires=" + acquires() +
+                ", threadCacheHits=" + threadCacheHits() +
+                ", arenaHits=" + arenaHits() +
+                ", allocations=" + allocations() +
+                ", hitRate=" + String.format("%.4f", hitRate()) +
+                ", outstandingBytes=" + outstandingBytes() +
+                ", arenaBytes=" + arenaBytes() + "}";
+    }
+
+    /**
+     * 共享区：每一级一个有界栈，用数组实现，存取时不分配对象
+     * 用ReentrantLock而不是synchronized：虚拟线程在竞争synchronized时会占住载体线程（pinning）
+     */
+    private static final class Arena {
+        private final ByteBuffer[] stack;
+        private final ReentrantLock lock = new ReentrantLock();
+        private int size;
+
+        Arena(int capacity) {
+            stack = new ByteBuffer[capacity];
+        }
+
+        ByteBuffer poll() {
+            lock.lock();
+            try {
+                if (size == 0) {
+                    return null;
+                }
+                ByteBuffer buffer = stack[--size];
+                stack[size] = null;
+                return buffer;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        int size() {
+            lock.lock();
+            try {
+                return size;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * @return 是否放进了共享区；共享区也满了就交给GC回收，返回false
+         */
+        boolean offer(ByteBuffer buffer) {
+            lock.lock();
+            try {
+                if (size < stack.length) {
+                    stack[size++] = buffer;
+                    return true;
+                }
+                return false;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * 线程本地缓存：只被所属线程访问，不需要同步
+     * 虚拟线程数量多、寿命短，缓存在线程结束时随之丢弃，所以虚拟线程不缓存，直接使用共享区
+     */
+    private static final class ThreadCache {
+        private final ByteBuffer[][] stacks = new ByteBuffer[CLASS_COUNT][];
+        private final int[] sizes = new int[CLASS_COUNT];
+
+        ThreadCache(boolean enabled) {
+            for (int i = 0; i < CLASS_COUNT; i++) {
+                stacks[i] = new ByteBuffer[enabled ? Math.max(1, THREAD_CACHE_BYTES >> (MIN_SHIFT + i)) : 0];
+            }
+        }
+
+        ByteBuffer poll(int index) {
+            int size = sizes[index];
+            if (size == 0) {
+                return null;
+            }
+            ByteBuffer[] stack = stacks[index];
+            ByteBuffer buffer = stack[--size];
+            stack[size] = null;
+            sizes[index] = size;
+            return buffer;
+        }
+
+        boolean offer(int index, ByteBuffer buffer) {
+            ByteBuffer[] stack = stacks[index];
+            int size = sizes[index];
+            if (size == stack.length) {
+                return false;
+            }
+            stack[size] = buffer;
+            sizes[index] = size + 1;
+            return true;
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package club.virgilin;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * ChunkBitmap
+ *
+ * @author virgilin
+ * @date 2026/10/18
+ *
+ * 持久化的分块完成位图，用于断点续传
+ *
+ * 文件格式：魔数(int) + 文件大小(long) + 分块大小(int) + 版本(long) + 位图字节
+ * 每完成一块只按位置写回它所在的那一个字节；文件大小、分块大小或版本对不上时视为新的传输，从头开始。
+ * 传输完成后位图保留下来，晚到的连接和同一版本的重传都能看到“已全部完成”，不会从头再传一遍。
+ *
+ * durable为true时每标记一块就force()，force()在锁外进行，多个连接的落盘可以同时进行；
+ * 为false时只写入页缓存，由操作系统择机落盘，掉电时可能丢失最近的几块标记（这几块会被重传）。
+ */
+public class ChunkBitmap implements Closeable {
+
+    private static final int MAGIC = 0x43424D50;
+    private static final int HEADER_SIZE = 24;
+
+    private final FileChannel channel;
+    private final long fileSize;
+    private final int chunkSize;
+    private final int chunkCount;
+    private final long version;
+    private final boolean durable;
+    private final byte[] bits;
+    private final ByteBuffer one = ByteBuffer.allocate(1);
+    private int done;
+
+    private ChunkBitmap(FileChannel channel, long fileSize, int chunkSize, long version, boolean durable, byte[] bits) {
+        this.channel = channel;
+        this.fileSize = fileSize;
+        this.chunkSize = chunkSize;
+        this.chunkCount = chunkCount(fileSize, chunkSize);
+        this.version = version;
+        this.durable = durable;
+        this.bits = bits;
+        for (int i = 0; i < chunkCount; i++) {
+            if (isDone(i)) {
+                done++;
+            }
+        }
+    }
+
+    public static int chunkCount(long fileSize, int chunkSize) {
+        long count = (fileSize + chunkSize - 1) / chunkSize;
+        if (count > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("too many chunks: " + count);
+        }
+        return (int) count;
+    }
+
+    /**
+     * 打开位图文件，不存在或参数不一致时新建
+     *
+     * @param version 源文件的版本（例如修改时间），版本变了说明是另一个文件，之前完成的块不能再用
+     * @param durable 每标记一块是否force()落盘
+     */
+    public static ChunkBitmap open(Path path, long fileSize, int chunkSize, long version, boolean durable)
+            throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            byte[] bits = new byte[(chunkCount(fileSize, chunkSize) + 7) >>> 3];
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            channel.read(header, 0);
+            header.flip();
+            if (header.remaining() == HEADER_SIZE && header.getInt() == MAGIC
+                    && header.getLong() == fileSize && header.getInt() == chunkSize && header.getLong() == version) {
+                ByteBuffer body = ByteBuffer.wrap(bits);
+                channel.read(body, HEADER_SIZE);
+            } else {
+                header.clear();
+                header.putInt(MAGIC).putLong(fileSize).putInt(chunkSize).putLong(version).flip();
+                channel.truncate(0);
+                channel.write(header, 0);
+                channel.write(ByteBuffer.wrap(bits), HEADER_SIZE);
+                channel.force(true);
+            }
+            return new ChunkBitmap(channel, fileSize, chunkSize, version, durable, bits);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    public synchronized boolean isDone(int chunk) {
+        return (bits[chunk >>> 3] & (1 << (chunk & 7))) != 0;
+    }
+
+    /**
+     * 标记一块已完成，durable时落盘后才返回，调用前数据本身应该已经force()
+     */
+    public void markDone(int chunk) throws IOException {
+        if (!write(chunk)) {
+            return;
+        }
+        if (durable) {
+            //不持有锁：其他连接的标记可以同时写入，一次force()可能把它们一起落盘
+            channel.force(false);
+        }
+    }
+
+    /**
+     * 在内存和文件中置位
+     *
+     * @return 这一块之前是否还没完成
+     */
+    private synchronized boolean write(int chunk) throws IOException {
+        int index = chunk >>> 3;
+        int mask = 1 << (chunk & 7);
+        if ((bits[index] & mask) != 0) {
+            return false;
+        }
+        bits[index] |= mask;
+        done++;
+        one.clear();
+        one.put(bits[index]).flip();
+        channel.write(one, HEADER_SIZE + index);
+        return true;
+    }
+
+    public synchronized boolean isComplete() {
+        return done == chunkCount;
+    }
+
+    public synchronized byte[] toByteArray() {
+        return bits.clone();
+    }
+
+    public long fileSize() {
+        return fileSize;
+    }
+
+    public int chunkSize() {
+        return chunkSize;
+    }
+
+    public int chunkCount() {
+        return chunkCount;
+    }
+
+    public long version() {
+        return version;
+    }
+
+    /**
+     * 第chunk块的实际长度，最后一块可能不满
+     */
+    public int chunkLength(int chunk) {
+        return (int) Math.min(chunkSize, fileSize - (long) chunk * chunkSize);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,202 @@
+package club.virgilin;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+/**
+ * ChunkChecksums
+ *
+ * @author virgilin
+ * @date 2026/10/18
+ *
+ * 文件按固定大小分块后每块的CRC32C和SHA-256，由ParallelChecksum计算
+ *
+ * 一、内容
+ * 1.每块的CRC32C，按顺序合并（Crc32c.combine()）得到整个文件的CRC32C
+ * 2.每块的SHA-256组成哈希列表，列表本身的SHA-256是根哈希：只要根哈希可信，列表中的每一项就可信，
+ *   接收方可以每收完一块就校验一块（StreamingVerifier），不必等整个文件收完
+ * 3.两份ChunkChecksums比较，可以找出具体哪几块损坏，只重新下载这几块
+ *
+ * 二、传输格式（整数为大端序）
+ * 1.头部：块大小(int) 文件长度(long) 块数(int) 文件CRC32C(int) 根哈希(32字节)
+ * 2.表：每块 CRC32C(int) SHA-256(32字节)
+ * 读取时重新计算根哈希和文件CRC32C，与头部不一致说明列表本身损坏
+ */
+public class ChunkChecksums {
+
+    public static final int DEFAULT_CHUNK_SIZE = 1024 * 1024;
+
+    public static final int HEADER_SIZE = 4 + 8 + 4 + 4 + 32;
+    public static final int ENTRY_SIZE = 4 + 32;
+
+    /**
+     * 对方头部中允许的最大块数，读取前先检查，不按对方给的数字分配大数组（1MB的块时约4TB，表约150MB）
+     */
+    public static final int MAX_CHUNK_COUNT = 1 << 22;
+
+    private final int chunkSize;
+    private final long length;
+    private final int[] crc;
+    private final byte[] sha;
+    private final int fileCrc;
+    private final byte[] rootHash;
+    private ByteBuffer table;
+
+    /**
+     * @param crc 每块的CRC32C
+     * @param sha 每块的SHA-256依次排列，共crc.length × 32字节
+     */
+    ChunkChecksums(int chunkSize, long length, int[] crc, byte[] sha) {
+        if (crc.length != BlockSignatures.blockCount(length, chunkSize) || sha.length != crc.length * 32) {
+            throw new IllegalArgumentException("chunk count mismatch: " + crc.length);
+        }
+        this.chunkSize = chunkSize;
+        this.length = length;
+        this.crc = crc;
+        this.sha = sha;
+        int combined = 0;
+        for (int i = 0; i < crc.length; i++) {
+            combined = Crc32c.combine(combined, crc[i], chunkLength(i));
+        }
+        this.fileCrc = combined;
+        MessageDigest digest = BlockSignatures.sha256();
+        digest.update(sha);
+        this.rootHash = digest.digest();
+    }
+
+    /**
+     * 读取对方发来的头部和表，并校验表与头部是否一致
+     *
+     * @param header 头部，从position开始读HEADER_SIZE个字节
+     * @param source 紧跟在头部后面的表从这里读取
+     */
+    public static ChunkChecksums read(ByteBuffer header, ReadableByteChannel source) throws IOException {
+        int chunkSize = header.getInt();
+        long length = header.getLong();
+        int count = header.getInt();
+        int fileCrc = header.getInt();
+        byte[] rootHash = new byte[32];
+        header.get(rootHash);
+        //块数来自对方，先限制范围，count * 32不会溢出
+        if (chunkSize <= 0 || length < 0 || count < 0 || count > MAX_CHUNK_COUNT
+                || count != (length == 0 ? 0 : (length - 1) / chunkSize + 1)) {
+            throw new IOException("bad checksums: chunkSize=" + chunkSize + ", length=" + length + ", count=" + count);
+        }
+        int[] crc = new int[count];
+        byte[] sha = new byte[count * 32];
+        ByteBuffer buffer = ByteBuffer.allocate(ENTRY_SIZE * 1024);
+        for (int i = 0; i < count; ) {
+            buffer.clear().limit(ENTRY_SIZE * Math.min(1024, count - i));
+            IoUtils.readFully(source, buffer);
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                crc[i] = buffer.getInt();
+                buffer.get(sha, i * 32, 32);
+                i++;
+            }
+        }
+        ChunkChecksums checksums = new ChunkChecksums(chunkSize, length, crc, sha);
+        if (checksums.fileCrc != fileCrc || !Arrays.equals(checksums.rootHash, rootHash)) {
+            throw new IOException("checksum list does not match its root hash");
+        }
+        return checksums;
+    }
+
+    public void writeHeader(ByteBuffer buffer) {
+        buffer.putInt(chunkSize).putLong(length).putInt(crc.length).putInt(fileCrc).put(rootHash);
+    }
+
+    /**
+     * 编码好的表，只读，每次调用返回新的duplicate()；
+     * 表是直接缓冲区，写到套接字时JDK不必先拷贝到临时的直接缓冲区，所有连接共享同一份内存
+     */
+    public synchronized ByteBuffer table() {
+        if (table == null) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(ENTRY_SIZE * crc.length);
+            for (int i = 0; i < crc.length; i++) {
+                buffer.putInt(crc[i]).put(sha, i * 32, 32);
+            }
+            buffer.flip();
+            table = buffer.asReadOnlyBuffer();
+        }
+        return table.duplicate();
+    }
+
+    /**
+     * 与actual逐块比较
+     *
+     * @return 不一致的块的序号，actual比较短时缺少的块也算不一致
+     */
+    public int[] mismatches(ChunkChecksums actual) {
+        if (actual.chunkSize != chunkSize) {
+            throw new IllegalArgumentException("chunk size " + actual.chunkSize + " != " + chunkSize);
+        }
+        int[] result = new int[crc.length];
+        int count = 0;
+        for (int i = 0; i < crc.length; i++) {
+            if (i >= actual.crc.length || actual.chunkLength(i) != chunkLength(i) || !matches(i, actual)) {
+                result[count++] = i;
+            }
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    private boolean matches(int index, ChunkChecksums other) {
+        return crc[index] == other.crc[index]
+                && Arrays.equals(sha, index * 32, index * 32 + 32, other.sha, index * 32, index * 32 + 32);
+    }
+
+    /**
+     * 第index块的SHA-256是否等于hash
+     */
+    boolean shaEquals(int index, byte[] hash) {
+        return Arrays.equals(sha, index * 32, index * 32 + 32, hash, 0, 32);
+    }
+
+    public int chunkSize() {
+        return chunkSize;
+    }
+
+    public long length() {
+        return length;
+    }
+
+    public int chunkCount() {
+        return crc.length;
+    }
+
+    /**
+     * 第index块的大小，只有最后一块可能小于chunkSize
+     */
+    public int chunkLength(int index) {
+        return (int) Math.min(chunkSize, length - (long) index * chunkSize);
+    }
+
+    public int crc(int index) {
+        return crc[index];
+    }
+
+    /**
+     * 整个文件的CRC32C，与顺序计算的结果相同
+     */
+    public int fileCrc() {
+        return fileCrc;
+    }
+
+    public byte[] rootHash() {
+        return rootHash.clone();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder root = new StringBuilder();
+        for (byte b : rootHash) {
+            root.append(Character.forDigit(b >> 4 & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return "ChunkChecksums{length=" + length + ", chunks=" + crc.length + ", crc32c="
+                + Integer.toHexString(fileCrc) + ", root=" + root + "}";
+    }
+}
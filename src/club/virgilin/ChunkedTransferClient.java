@@ -0,0 +1,146 @@
+package club.virgilin;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * ChunkedTransferClient
+ *
+ * @author virgilin
+ * @date 2026/10/18
+ *
+ * 分块、多连接并行、可断点续传的文件发送端，协议见ChunkedTransferServer
+ *
+ * 1.文件按固定大小分块，K个连接各自从共享的游标上领取下一块
+ * 2.握手时服务端返回已完成的位图，已完成的块直接跳过
+ * 3.每块用transferTo按位置发送，收到该块的确认后才领取下一块
+ * 4.连接断开时重连并重发未确认的块，重试次数用完后抛出异常；再次调用upload()即从断点继续
+ */
+public class ChunkedTransferClient {
+
+    private static final int MAX_RETRIES = 3;
+
+    private final InetSocketAddress address;
+    private final int connections;
+    private final int chunkSize;
+
+    public ChunkedTransferClient(InetSocketAddress address, int connections, int chunkSize) {
+        if (connections <= 0 || chunkSize <= 0) {
+            throw new IllegalArgumentException("connections: " + connections + ", chunkSize: " + chunkSize);
+        }
+        this.address = address;
+        this.connections = connections;
+        this.chunkSize = chunkSize;
+    }
+
+    public void upload(Path file, String name) throws IOException, InterruptedException {
+        //修改时间作为版本，文件改过之后服务端不会沿用旧的位图
+        long version = Files.getLastModifiedTime(file).toMillis();
+        try (FileChannel fileChannel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long fileSize = fileChannel.size();
+            int chunkCount = ChunkBitmap.chunkCount(fileSize, chunkSize);
+            AtomicInteger cursor = new AtomicInteger();
+            AtomicReference<IOException> failure = new AtomicReference<>();
+            Thread[] workers = new Thread[Math.max(1, Math.min(connections, chunkCount))];
+            for (int i = 0; i < workers.length; i++) {
+                workers[i] = new Thread(() -> {
+                    try {
+                        send(fileChannel, name, fileSize, version, chunkCount, cursor);
+                    } catch (IOException e) {
+                        failure.compareAndSet(null, e);
+                    }
+                }, "chunked-upload-" + i);
+                workers[i].start();
+            }
+            for (Thread worker : workers) {
+                worker.join();
+            }
+            if (failure.get() != null) {
+                throw failure.get();
+            }
+        }
+    }
+
+    private void send(FileChannel fileChannel, String name, long fileSize, long version, int chunkCount,
+                      AtomicInteger cursor) throws IOException {
+        int pending = -1;
+        int attempts = 0;
+        while (true) {
+            try (SocketChannel channel = SocketChannel.open(address)) {
+                byte[] done = handshake(channel, name, fileSize, version);
+                ByteBuffer chunkHeader = ByteBuffer.allocate(8);
+                ByteBuffer ack = ByteBuffer.allocate(5);
+                while (true) {
+                    int chunk = pending >= 0 ? pending : next(cursor, done, chunkCount);
+                    if (chunk < 0) {
+                        break;
+                    }
+                    pending = chunk;
+                    long position = (long) chunk * chunkSize;
+                    int length = (int) Math.min(chunkSize, fileSize - position);
+                    chunkHeader.clear();
+                    chunkHeader.putInt(chunk).putInt(length).flip();
+                    IoUtils.writeFully(channel, chunkHeader);
+                    FileTransfer.send(fileChannel, position, length, channel);
+
+                    ack.clear();
+                    IoUtils.readFully(channel, ack);
+                    ack.flip();
+                    if (ack.getInt() != chunk || ack.get() != ChunkedTransferServer.ACK_OK) {
+                        throw new IOException("chunk " + chunk + " rejected");
+                    }
+                    pending = -1;
+                    attempts = 0;
+                }
+                chunkHeader.clear();
+                chunkHeader.putInt(ChunkedTransferServer.END).putInt(0).flip();
+                IoUtils.writeFully(channel, chunkHeader);
+                return;
+            } catch (IOException e) {
+                if (++attempts > MAX_RETRIES) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    private byte[] handshake(SocketChannel channel, String name, long fileSize, long version) throws IOException {
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        if (nameBytes.length > 0xFFFF) {
+            throw new IllegalArgumentException("file name too long");
+        }
+        ByteBuffer hello = ByteBuffer.allocate(26 + nameBytes.length);
+        hello.putInt(ChunkedTransferServer.MAGIC).putShort((short) nameBytes.length).put(nameBytes)
+                .putLong(fileSize).putInt(chunkSize).putLong(version).flip();
+        IoUtils.writeFully(channel, hello);
+
+        ByteBuffer length = ByteBuffer.allocate(4);
+        IoUtils.readFully(channel, length);
+        length.flip();
+        ByteBuffer bits = ByteBuffer.allocate(length.getInt());
+        IoUtils.readFully(channel, bits);
+        return bits.array();
+    }
+
+    /**
+     * 领取下一个未完成的块，没有了返回-1
+     */
+    private static int next(AtomicInteger cursor, byte[] done, int chunkCount) {
+        int chunk;
+        while ((chunk = cursor.getAndIncrement()) < chunkCount) {
+            if ((done[chunk >>> 3] & (1 << (chunk & 7))) == 0) {
+                return chunk;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,233 @@
+package club.virgilin;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * ChunkedTransferServer
+ *
+ * @author virgilin
+ * @date 2026/10/18
+ *
+ * 分块、多连接并行、可断点续传的文件接收端
+ *
+ * 一、协议（所有整数均为大端序）
+ * 1.握手    客户端 -> 服务端：魔数(int) 文件名长度(short) 文件名(UTF-8) 文件大小(long) 分块大小(int) 版本(long)
+ *          服务端 -> 客户端：位图长度(int) 已完成分块的位图
+ * 2.分块    客户端 -> 服务端：块号(int) 长度(int) 数据
+ *          服务端 -> 客户端：块号(int) 状态(byte)
+ * 3.结束    客户端 -> 服务端：块号-1
+ *
+ * 二、同一个文件的多个连接共享一个会话：每块按偏移量写入FileChannel.write(buf, pos)，
+ * 数据落盘后再在位图中标记完成，所以中断后重新上传时只需要补传位图中没有的块。
+ *
+ * 三、版本是源文件的修改时间：同一版本的位图一直保留，全部完成后晚到的连接握手时拿到全1的位图，直接结束；
+ * 源文件改过之后版本不同，从头传输。
+ */
+public class ChunkedTransferServer implements Closeable {
+
+    static final int MAGIC = 0x43484E4B;
+    static final int END = -1;
+    static final byte ACK_OK = 0;
+
+    private static final String BITMAP_SUFFIX = ".chunks";
+
+    private final InetSocketAddress address;
+    private final Path directory;
+    private final boolean durable;
+    private final Map<String, Session> sessions = new HashMap<>();
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private ServerSocketChannel serverSocketChannel;
+    private Thread acceptThread;
+    private volatile boolean running;
+
+    /**
+     * @param directory 接收文件的保存目录
+     * @param durable   每块数据是否force()落盘后再确认，关闭后更快但掉电时可能续传出错
+     */
+    public ChunkedTransferServer(InetSocketAddress address, Path directory, boolean durable) {
+        this.address = address;
+        this.directory = directory;
+        this.durable = durable;
+    }
+
+    public void start() throws IOException {
+        serverSocketChannel = ServerSocketChannel.open();
+        serverSocketChannel.bind(address);
+        running = true;
+        acceptThread = new Thread(this::acceptLoop, "chunked-accept");
+        acceptThread.start();
+    }
+
+    public int port() throws IOException {
+        return ((InetSocketAddress) serverSocketChannel.getLocalAddress()).getPort();
+    }
+
+    private void acceptLoop() {
+        try {
+            while (running) {
+                SocketChannel socketChannel = serverSocketChannel.accept();
+                executor.execute(() -> handle(socketChannel));
+            }
+        } catch (ClosedChannelException e) {
+            //close()
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void handle(SocketChannel socketChannel) {
+        try (SocketChannel channel = socketChannel) {
+            //1.握手
+            ByteBuffer header = ByteBuffer.allocate(6);
+            IoUtils.readFully(channel, header);
+            header.flip();
+            if (header.getInt() != MAGIC) {
+                throw new IOException("bad magic");
+            }
+            ByteBuffer body = ByteBuffer.allocate((header.getShort() & 0xFFFF) + 20);
+            IoUtils.readFully(channel, body);
+            body.flip();
+            byte[] name = new byte[body.remaining() - 20];
+            body.get(name);
+            long fileSize = body.getLong();
+            int chunkSize = body.getInt();
+            long version = body.getLong();
+            if (fileSize < 0 || chunkSize <= 0) {
+                throw new IOException("bad file size " + fileSize + " or chunk size " + chunkSize);
+            }
+            Session session = openSession(new String(name, StandardCharsets.UTF_8), fileSize, chunkSize, version);
+            try {
+                receive(channel, session);
+            } finally {
+                closeSession(session);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void receive(SocketChannel channel, Session session) throws IOException {
+        //2.把已完成的分块告诉客户端
+        byte[] bits = session.bitmap.toByteArray();
+        ByteBuffer buffer = ByteBuffer.allocate(4 + bits.length);
+        buffer.putInt(bits.length).put(bits).flip();
+        IoUtils.writeFully(channel, buffer);
+
+        //3.逐块接收，每块确认一次
+        ByteBuffer chunkHeader = ByteBuffer.allocate(8);
+        ByteBuffer ack = ByteBuffer.allocate(5);
+        ChunkBitmap bitmap = session.bitmap;
+        while (true) {
+            chunkHeader.clear();
+            IoUtils.readFully(channel, chunkHeader);
+            chunkHeader.flip();
+            int chunk = chunkHeader.getInt();
+            int length = chunkHeader.getInt();
+            if (chunk == END) {
+                return;
+            }
+            if (chunk < 0 || chunk >= bitmap.chunkCount() || length != bitmap.chunkLength(chunk)) {
+                throw new IOException("bad chunk " + chunk + " length " + length);
+            }
+            FileTransfer.receive(channel, session.file, (long) chunk * bitmap.chunkSize(), length);
+            if (durable) {
+                session.file.force(false);
+            }
+            bitmap.markDone(chunk);
+            ack.clear();
+            ack.putInt(chunk).put(ACK_OK).flip();
+            IoUtils.writeFully(channel, ack);
+        }
+    }
+
+    private synchronized Session openSession(String name, long fileSize, int chunkSize, long version)
+            throws IOException {
+        //只取文件名部分，防止写到保存目录之外
+        Path fileName = Paths.get(name).getFileName();
+        if (fileName == null) {
+            throw new IOException("bad file name: " + name);
+        }
+        String key = fileName.toString();
+        Session session = sessions.get(key);
+        if (session == null) {
+            Path target = directory.resolve(fileName);
+            ChunkBitmap bitmap = ChunkBitmap.open(directory.resolve(key + BITMAP_SUFFIX), fileSize, chunkSize,
+                    version, durable);
+            FileChannel file;
+            try {
+                file = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            } catch (IOException e) {
+                bitmap.close();
+                throw e;
+            }
+            session = new Session(key, file, bitmap);
+            sessions.put(key, session);
+        } else if (session.bitmap.fileSize() != fileSize || session.bitmap.chunkSize() != chunkSize
+                || session.bitmap.version() != version) {
+            throw new IOException("transfer of " + key + " already in progress with different parameters");
+        }
+        session.references++;
+        return session;
+    }
+
+    private synchronized void closeSession(Session session) throws IOException {
+        if (--session.references > 0) {
+            return;
+        }
+        sessions.remove(session.name);
+        try {
+            if (session.bitmap.isComplete()) {
+                //目标文件原来可能比较大
+                session.file.truncate(session.bitmap.fileSize());
+                session.file.force(true);
+            }
+        } finally {
+            session.file.close();
+            //完成的位图不删除，晚到的连接据此知道已经传完，不会新建一个全0的位图从头再传
+            session.bitmap.close();
+        }
+    }
+
+    public void join() throws InterruptedException {
+        if (acceptThread != null) {
+            acceptThread.join();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        running = false;
+        if (serverSocketChannel != null) {
+            serverSocketChannel.close();
+        }
+        executor.shutdown();
+    }
+
+    private static final class Session {
+        private final String name;
+        private final FileChannel file;
+        private final ChunkBitmap bitmap;
+        private int references;
+
+        Session(String name, FileChannel file, ChunkBitmap bitmap) {
+            this.name = name;
+            this.file = file;
+            this.bitmap = bitmap;
+        }
+    }
+}
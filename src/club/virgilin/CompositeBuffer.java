@@ -0,0 +1,350 @@
+package club.virgilin;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.ScatteringByteChannel;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * CompositeBuffer
+ *
+ * @author virgilin
+ * @date 2026/10/18
+ *
+ * 由多段ByteBuffer组成、带引用计数的缓冲区：切片、转发、保存都不拷贝数据
+ *
+ * 一、为什么
+ * 只用单个ByteBuffer时，一帧数据要交给转发、日志、落盘几个环节，每个环节都只能get()/put()拷贝一份，
+ * 因为谁也不知道别人什么时候用完，原来的缓冲区什么时候可以归还。
+ *
+ * 二、结构
+ * 1.段（Segment）：一块实际的内存，自己有引用计数，计数归零时归还到缓冲区池（不是池化的就交给GC）
+ * 2.CompositeBuffer：若干段上的[起点, 终点)按顺序拼起来，本身也有引用计数；
+ *   创建时对用到的每一段加一次引用，自己的计数归零时再把这些引用释放掉
+ * 3.slice()/compose()只是在同样的段上再建一个视图，给段加引用，不拷贝
+ *
+ * 三、引用计数的约定
+ * 1.新建的CompositeBuffer计数为1，属于创建者
+ * 2.交给别人之前先retain()，谁拿到谁release()；Connection.write(CompositeBuffer)会接管一次引用
+ * 3.计数归零后再访问会抛出IllegalStateException，不会读到已经归还、被别人复用的内存
+ *
+ * 四、与通道配合
+ * nioBuffers()返回每一段的ByteBuffer，可以直接交给GatheringByteChannel.write(ByteBuffer[])聚集写出，
+ * 也可以交给ScatteringByteChannel.read(ByteBuffer[])分散读入；writeTo()/readFrom()是阻塞通道上的写法
+ *
+ * 五、线程
+ * 引用计数可以在任意线程增减，内容本身不做同步：写入（readFrom()）完成后再交给其他线程
+ */
+public final class CompositeBuffer {
+
+    private static final ByteBuffer[] EMPTY = new ByteBuffer[0];
+
+    private final Segment[] segments;
+    /**
+     * 每一段在本视图中的内容，position总是0
+     */
+    private final ByteBuffer[] views;
+    /**
+     * 每一段在本视图中的起始下标
+     */
+    private final long[] offsets;
+    private final long length;
+    private final AtomicInteger refCnt = new AtomicInteger(1);
+
+    private CompositeBuffer(Segment[] segments, ByteBuffer[] views) {
+        this.segments = segments;
+        this.views = views;
+        this.offsets = new long[views.length];
+        long total = 0;
+        for (int i = 0; i < views.length; i++) {
+            offsets[i] = total;
+            total += views[i].limit();
+        }
+        this.length = total;
+    }
+
+    /**
+     * 包装几个普通缓冲区的[position, limit)，不归还到缓冲区池
+     */
+    public static CompositeBuffer wrap(ByteBuffer... buffers) {
+        return wrap(null, buffers);
+    }
+
+    /**
+     * 包装几个从缓冲区池申请的缓冲区的[position, limit)，所有权交给CompositeBuffer，
+     * 最后一个引用释放时归还
+     */
+    public static CompositeBuffer wrapPooled(BufferPool pool, ByteBuffer... buffers) {
+        return wrap(pool, buffers);
+    }
+
+    private static CompositeBuffer wrap(BufferPool pool, ByteBuffer[] buffers) {
+        Segment[] segments = new Segment[buffers.length];
+        ByteBuffer[] views = new ByteBuffer[buffers.length];
+        for (int i = 0; i < buffers.length; i++) {
+            segments[i] = new Segment(buffers[i], pool);
+            views[i] = buffers[i].slice();
+        }
+        return new CompositeBuffer(segments, views);
+    }
+
+    /**
+     * 从缓冲区池申请size个字节，分成不超过segmentSize的若干段，内容未初始化，一般用readFrom()填充
+     */
+    public static CompositeBuffer allocate(BufferPool pool, long size, int segmentSize) {
+        if (size < 0 || segmentSize <= 0) {
+            throw new IllegalArgumentException("size: " + size + ", segmentSize: " + segmentSize);
+        }
+        int count = (int) ((size + segmentSize - 1) / segmentSize);
+        ByteBuffer[] buffers = new ByteBuffer[count];
+        for (int i = 0; i < count; i++) {
+            int n = (int) Math.min(segmentSize, size - (long) i * segmentSize);
+            buffers[i] = pool.acquire(n);
+            buffers[i].limit(n);
+        }
+        return wrapPooled(pool, buffers);
+    }
+
+    /**
+     * 按顺序拼接几个CompositeBuffer，不拷贝；各部分仍然属于调用者，需要各自release()
+     */
+    public static CompositeBuffer compose(CompositeBuffer... parts) {
+        int count = 0;
+        for (CompositeBuffer part : parts) {
+            part.ensureAccessible();
+            count += part.views.length;
+        }
+        Segment[] segments = new Segment[count];
+        ByteBuffer[] views = new ByteBuffer[count];
+        int n = 0;
+        for (CompositeBuffer part : parts) {
+            for (int i = 0; i < part.views.length; i++, n++) {
+                segments[n] = part.segments[i].retain();
+                views[n] = part.views[i].duplicate();
+            }
+        }
+        return new CompositeBuffer(segments, views);
+    }
+
+    /**
+     * [index, index + length)的视图，与本视图共享内存，有自己的引用计数（初始为1）
+     */
+    public CompositeBuffer slice(long index, long length) {
+        ensureAccessible();
+        checkRange(index, length);
+        if (length == 0) {
+            return new CompositeBuffer(new Segment[0], EMPTY);
+        }
+        int first = segmentAt(index);
+        int last = segmentAt(index + length - 1);
+        Segment[] newSegments = new Segment[last - first + 1];
+        ByteBuffer[] newViews = new ByteBuffer[newSegments.length];
+        for (int i = first; i <= last; i++) {
+            long from = Math.max(index, offsets[i]) - offsets[i];
+            long to = Math.min(index + length, offsets[i] + views[i].limit()) - offsets[i];
+            ByteBuffer view = views[i].duplicate();
+            view.limit((int) to).position((int) from);
+            newSegments[i - first] = segments[i].retain();
+            newViews[i - first] = view.slice();
+        }
+        return new CompositeBuffer(newSegments, newViews);
+    }
+
+    public CompositeBuffer retain() {
+        while (true) {
+            int count = refCnt.get();
+            if (count <= 0) {
+                throw new IllegalStateException("buffer already released");
+            }
+            if (refCnt.compareAndSet(count, count + 1)) {
+                return this;
+            }
+        }
+    }
+
+    /**
+     * 释放一次引用
+     *
+     * @return 是否是最后一次引用，此时本视图用到的段都已释放
+     */
+    public boolean release() {
+        int count = refCnt.decrementAndGet();
+        if (count > 0) {
+            return false;
+        }
+        if (count < 0) {
+            refCnt.incrementAndGet();
+            throw new IllegalStateException("buffer released twice");
+        }
+        for (Segment segment : segments) {
+            segment.release();
+        }
+        return true;
+    }
+
+    public int refCnt() {
+        return refCnt.get();
+    }
+
+    public long length() {
+        return length;
+    }
+
+    public int segmentCount() {
+        return views.length;
+    }
+
+    public byte getByte(long index) {
+        ensureAccessible();
+        checkRange(index, 1);
+        int i = segmentAt(index);
+        return views[i].get((int) (index - offsets[i]));
+    }
+
+    /**
+     * 大端序的int，可以跨段
+     */
+    public int getInt(long index) {
+        ensureAccessible();
+        checkRange(index, 4);
+        int i = segmentAt(index);
+        int offset = (int) (index - offsets[i]);
+        if (views[i].limit() - offset >= 4) {
+            return views[i].getInt(offset);
+        }
+        return (getByte(index) & 0xFF) << 24 | (getByte(index + 1) & 0xFF) << 16
+                | (getByte(index + 2) & 0xFF) << 8 | getByte(index + 3) & 0xFF;
+    }
+
+    /**
+     * 把[index, index + length)拷贝到dst，只在确实需要一份独立数据时使用
+     */
+    public void getBytes(long index, byte[] dst, int dstIndex, int length) {
+        ensureAccessible();
+        checkRange(index, length);
+        while (length > 0) {
+            int i = segmentAt(index);
+            int offset = (int) (index - offsets[i]);
+            int n = Math.min(length, views[i].limit() - offset);
+            ByteBuffer view = views[i].duplicate();
+            view.position(offset);
+            view.get(dst, dstIndex, n);
+            index += n;
+            dstIndex += n;
+            length -= n;
+        }
+    }
+
+    /**
+     * 每一段内容的ByteBuffer，position为0，limit为这一段的长度；
+     * 每次调用都返回新的duplicate，调用者可以随意移动它们的position
+     */
+    public ByteBuffer[] nioBuffers() {
+        ensureAccessible();
+        ByteBuffer[] buffers = new ByteBuffer[views.length];
+        for (int i = 0; i < views.length; i++) {
+            buffers[i] = views[i].duplicate();
+        }
+        return buffers;
+    }
+
+    /**
+     * 聚集写出全部内容，通道必须是阻塞模式（或者文件）
+     */
+    public long writeTo(GatheringByteChannel channel) throws IOException {
+        ByteBuffer[] buffers = nioBuffers();
+        long written = 0;
+        int offset = 0;
+        while (written < length) {
+            written += channel.write(buffers, offset, buffers.length - offset);
+            while (offset < buffers.length && !buffers[offset].hasRemaining()) {
+                offset++;
+            }
+        }
+        return written;
+    }
+
+    /**
+     * 分散读入，直到填满或者通道结束
+     *
+     * @return 读入的字节数，通道一开始就结束时返回-1；只读入一部分时用slice(0, n)取出有效的内容
+     */
+    public long readFrom(ScatteringByteChannel channel) throws IOException {
+        ByteBuffer[] buffers = nioBuffers();
+        long read = 0;
+        int offset = 0;
+        while (read < length) {
+            long n = channel.read(buffers, offset, buffers.length - offset);
+            if (n < 0) {
+                return read == 0 ? -1 : read;
+            }
+            read += n;
+            while (offset < buffers.length && !buffers[offset].hasRemaining()) {
+                offset++;
+            }
+        }
+        return read;
+    }
+
+    /**
+     * 包含下标index的段
+     */
+    private int segmentAt(long index) {
+        int low = 0;
+        int high = offsets.length - 1;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (offsets[middle] <= index) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        //空段与下一段的起始下标相同，取到的总是后面那个非空的段
+        return low;
+    }
+
+    private void checkRange(long index, long length) {
+        if (index < 0 || length < 0 || index + length > this.length) {
+            throw new IndexOutOfBoundsException("index: " + index + ", length: " + length + ", size: " + this.length);
+        }
+    }
+
+    private void ensureAccessible() {
+        if (refCnt.get() <= 0) {
+            throw new IllegalStateException("buffer already released");
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "CompositeBuffer{length=" + length + ", segments=" + views.length + ", refCnt=" + refCnt.get() + '}';
+    }
+
+    /**
+     * 一块实际的内存
+     */
+    private static final class Segment {
+
+        private final ByteBuffer memory;
+        private final BufferPool pool;
+        private final AtomicInteger refCnt = new AtomicInteger(1);
+
+        Segment(ByteBuffer memory, BufferPool pool) {
+            this.memory = memory;
+            this.pool = pool;
+        }
+
+        Segment retain() {
+            refCnt.incrementAndGet();
+            return this;
+        }
+
+        void release() {
+            if (refCnt.decrementAndGet() == 0 && pool != null) {
+                pool.release(memory);
+            }
+        }
+    }
+}
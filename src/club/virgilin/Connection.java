@@ -0,0 +1,376 @@
+package club.virgilin;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Connection
+ *
+ * @author virgilin
+ * @date 2026/10/18
+ *
+ * 一个客户端连接的状态，作为附件（attachment）挂在SelectionKey上。
+ * 同一个连接的所有事件都由同一个EventLoop线程处理。
+ *
+ * 发送数据：write()只入队，flush()才真正写到通道，
+ * 这样同一轮事件处理中的多次write()可以合并成一次聚集写入。
+ *
+ * 接收数据：suspendRead()取消OP_READ，数据留在内核接收缓冲区，TCP流量控制让对端放慢发送，resumeRead()恢复；
+ * onRead()中调用retainReadBuffer()可以取走这次的读缓冲区，交给其他线程异步处理（见UploadSink）。
+ *
+ * 空闲超时：每个连接只有一个定时器，挂在EventLoop的时间轮上，到期时间是各类超时中最早的一个。
+ * 读写时只记下EventLoop本轮的时间，不移动定时器；定时器到期时再检查是否真的空闲，
+ * 没有的话按最后一次读写的时间重新安排。发送队列在定时器两次到期之间有写出进展，也算一次写。
+ */
+public class Connection {
+
+    public static final int HIGH_WATER_MARK = 64 * 1024;
+    public static final int LOW_WATER_MARK = 32 * 1024;
+
+    private final SocketChannel channel;
+    private final EventLoop eventLoop;
+    private SelectionKey selectionKey;
+    private Object attachment;
+    private OutboundQueue outboundQueue;
+    private long bytesRead;
+    private boolean closed;
+    private boolean readSuspended;
+    private boolean readBufferRetained;
+
+    private IdleTimer idleTimer;
+    private long lastReadNanos;
+    private long lastWriteNanos;
+
+    Connection(SocketChannel channel, EventLoop eventLoop) {
+        this.channel = channel;
+        this.eventLoop = eventLoop;
+    }
+
+    void bind(SelectionKey selectionKey) {
+        this.selectionKey = selectionKey;
+        selectionKey.attach(this);
+    }
+
+    public SocketChannel channel() {
+        return channel;
+    }
+
+    public SelectionKey selectionKey() {
+        return selectionKey;
+    }
+
+    public EventLoop eventLoop() {
+        return eventLoop;
+    }
+
+    /**
+     * 挂上ConnectionHandler自己的连接状态，用法同SelectionKey.attach()
+     */
+    public Object attach(Object attachment) {
+        Object previous = this.attachment;
+        this.attachment = attachment;
+        return previous;
+    }
+
+    public Object attachment() {
+        return attachment;
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * 发送缓冲区入队，可以在任意线程调用；不在EventLoop线程时转交给EventLoop执行
+     */
+    public void write(ByteBuffer buffer) {
+        write(buffer, false);
+    }
+
+    /**
+     * 发送从缓冲区池申请的缓冲区，写完或连接关闭后自动归还
+     */
+    public void writePooled(ByteBuffer buffer) {
+        write(buffer, true);
+    }
+
+    private void write(ByteBuffer buffer, boolean pooled) {
+        if (eventLoop.inEventLoop()) {
+            lastWriteNanos = eventLoop.now();
+            if (closed) {
+                if (pooled) {
+                    eventLoop.bufferPool().release(buffer);
+                }
+            } else if (pooled) {
+                outboundQueue().addPooled(buffer);
+            } else {
+                outboundQueue().add(buffer);
+            }
+        } else {
+            eventLoop.execute(() -> write(buffer, pooled));
+        }
+    }
+
+    /**
+     * CompositeBuffer入队，接管调用者的一次引用（还要继续使用就先retain()），写完或连接关闭后释放；
+     * 可以在任意线程调用
+     */
+    public void write(CompositeBuffer buffer) {
+        if (eventLoop.inEventLoop()) {
+            lastWriteNanos = eventLoop.now();
+            if (closed) {
+                buffer.release();
+            } else {
+                outboundQueue().addComposite(buffer);
+            }
+        } else {
+            eventLoop.execute(() -> write(buffer));
+        }
+    }
+
+    /**
+     * 文件的一段入队，flush()时用transferTo()发送；可以在任意线程调用
+     */
+    public void writeFile(FileRegion region) {
+        if (eventLoop.inEventLoop()) {
+            lastWriteNanos = eventLoop.now();
+            if (!closed) {
+                outboundQueue().addFile(region);
+            }
+        } else {
+            eventLoop.execute(() -> writeFile(region));
+        }
+    }
+
+    /**
+     * 写出发送队列中的数据，没写完的部分等通道可写后由EventLoop继续写
+     */
+    public void flush() {
+        if (eventLoop.inEventLoop()) {
+            if (!closed && outboundQueue != null) {
+                try {
+                    outboundQueue.flush();
+                } catch (IOException e) {
+                    close();
+                }
+            }
+        } else {
+            eventLoop.execute(this::flush);
+        }
+    }
+
+    public void writeAndFlush(ByteBuffer buffer) {
+        write(buffer);
+        flush();
+    }
+
+    /**
+     * 发送队列积压是否低于高水位，生产者据此暂停或恢复
+     */
+    public boolean isWritable() {
+        return outboundQueue == null || outboundQueue.isWritable();
+    }
+
+    /**
+     * 暂停读取，可以在任意线程调用
+     */
+    public void suspendRead() {
+        setReadSuspended(true);
+    }
+
+    /**
+     * 恢复读取，可以在任意线程调用
+     */
+    public void resumeRead() {
+        setReadSuspended(false);
+    }
+
+    private void setReadSuspended(boolean suspended) {
+        if (eventLoop.inEventLoop()) {
+            if (closed || readSuspended == suspended) {
+                return;
+            }
+            readSuspended = suspended;
+            int ops = selectionKey.interestOps();
+            selectionKey.interestOps(suspended ? ops & ~SelectionKey.OP_READ : ops | SelectionKey.OP_READ);
+        } else {
+            eventLoop.execute(() -> setReadSuspended(suspended));
+        }
+    }
+
+    public boolean isReadSuspended() {
+        return readSuspended;
+    }
+
+    /**
+     * 只能在onRead()中调用：这次的读缓冲区归调用者所有，EventLoop下次读取换一个新的缓冲区；
+     * 用完后由调用者归还给eventLoop().bufferPool()
+     */
+    public void retainReadBuffer() {
+        readBufferRetained = true;
+    }
+
+    /**
+     * 读缓冲区是否被retainReadBuffer()取走了，同时清除标记
+     */
+    boolean takeReadBuffer() {
+        boolean retained = readBufferRetained;
+        readBufferRetained = false;
+        return retained;
+    }
+
+    void addBytesRead(int bytes) {
+        lastReadNanos = eventLoop.now();
+        bytesRead += bytes;
+        NioMetrics.DEFAULT.recordRead(bytes);
+    }
+
+    /**
+     * 连接建立以来读取的字节数
+     */
+    public long bytesRead() {
+        return bytesRead;
+    }
+
+    /**
+     * 连接建立以来写出的字节数
+     */
+    public long bytesWritten() {
+        return outboundQueue == null ? 0 : outboundQueue.bytesWritten();
+    }
+
+    /**
+     * 设置空闲超时，0表示不检测这一类；只能在所属EventLoop线程中调用（例如ConnectionHandler.onOpen()）
+     *
+     * @param readerIdle 多久没有读到数据触发READER_IDLE
+     * @param writerIdle 多久没有写数据触发WRITER_IDLE
+     * @param allIdle    多久既没读也没写触发ALL_IDLE
+     */
+    public void setIdleTimeouts(long readerIdle, long writerIdle, long allIdle, TimeUnit unit) {
+        if (readerIdle < 0 || writerIdle < 0 || allIdle < 0) {
+            throw new IllegalArgumentException("negative idle timeout");
+        }
+        if (closed) {
+            return;
+        }
+        if (idleTimer == null) {
+            idleTimer = new IdleTimer();
+            long now = eventLoop.now();
+            lastReadNanos = now;
+            lastWriteNanos = now;
+        }
+        idleTimer.readerIdleNanos = unit.toNanos(readerIdle);
+        idleTimer.writerIdleNanos = unit.toNanos(writerIdle);
+        idleTimer.allIdleNanos = unit.toNanos(allIdle);
+        idleTimer.reschedule();
+    }
+
+    OutboundQueue outboundQueue() {
+        if (outboundQueue == null) {
+            outboundQueue = new OutboundQueue(channel, selectionKey, eventLoop.bufferPool(),
+                    HIGH_WATER_MARK, LOW_WATER_MARK, writable -> eventLoop.handler().onWritabilityChanged(this));
+        }
+        return outboundQueue;
+    }
+
+    /**
+     * 关闭连接，只能在所属EventLoop线程中调用
+     */
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (idleTimer != null) {
+            eventLoop.timingWheel().cancel(idleTimer);
+        }
+        if (selectionKey != null) {
+            selectionKey.cancel();
+        }
+        if (outboundQueue != null) {
+            outboundQueue.clear();
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        NioMetrics.DEFAULT.connectionClosed(bytesRead, bytesWritten());
+        try {
+            eventLoop.handler().onClose(this);
+        } catch (RuntimeException e) {
+            //close()常在处理别的异常时调用，这里的异常不能再往外抛
+            e.printStackTrace();
+        }
+    }
+
+    private final class IdleTimer extends TimingWheel.Timeout {
+
+        long readerIdleNanos;
+        long writerIdleNanos;
+        long allIdleNanos;
+        long observedBytesWritten;
+
+        @Override
+        protected void expire(long nowNanos) {
+            //发送队列中的数据（例如一个大文件）还在往外写，也算写活动
+            long written = bytesWritten();
+            if (written != observedBytesWritten) {
+                observedBytesWritten = written;
+                lastWriteNanos = nowNanos;
+            }
+            //已触发过的空闲从触发时刻重新计时，所以这里直接推进最后读写时间
+            if (readerIdleNanos > 0 && nowNanos - lastReadNanos >= readerIdleNanos) {
+                lastReadNanos = nowNanos;
+                fire(IdleState.READER_IDLE);
+            }
+            if (!closed && writerIdleNanos > 0 && nowNanos - lastWriteNanos >= writerIdleNanos) {
+                lastWriteNanos = nowNanos;
+                fire(IdleState.WRITER_IDLE);
+            }
+            if (!closed && allIdleNanos > 0 && Math.min(nowNanos - lastReadNanos, nowNanos - lastWriteNanos) >= allIdleNanos) {
+                lastReadNanos = nowNanos;
+                lastWriteNanos = nowNanos;
+                fire(IdleState.ALL_IDLE);
+            }
+            if (!closed) {
+                reschedule();
+            }
+        }
+
+        private void fire(IdleState state) {
+            try {
+                eventLoop.handler().onIdle(Connection.this, state);
+            } catch (IOException e) {
+                close();
+            }
+        }
+
+        /**
+         * 按最后一次读写的时间安排到最早的一个超时
+         */
+        void reschedule() {
+            long now = eventLoop.now();
+            //用时长比较而不是时刻，nanoTime()的值本身可能溢出
+            long delay = Long.MAX_VALUE;
+            if (readerIdleNanos > 0) {
+                delay = Math.min(delay, readerIdleNanos - (now - lastReadNanos));
+            }
+            if (writerIdleNanos > 0) {
+                delay = Math.min(delay, writerIdleNanos - (now - lastWriteNanos));
+            }
+            if (allIdleNanos > 0) {
+                long lastActive = now - lastReadNanos < now - lastWriteNanos ? lastReadNanos : lastWriteNanos;
+                delay = Math.min(delay, allIdleNanos - (now - lastActive));
+            }
+            if (delay == Long.MAX_VALUE) {
+                eventLoop.timingWheel().cancel(this);
+            } else {
+                eventLoop.timingWheel().schedule(this, now + Math.max(0, delay));
+            }
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package club.virgilin;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * ConnectionHandler
+ *
+ * @author virgilin
+ * @date 2026/10/18
+ *
+ * 连接事件回调，所有方法都在连接所属的EventLoop线程中执行，
+ * 因此实现类中不能做阻塞操作，否则会拖慢同一个选择器上的其他连接。
+ */
+public interface ConnectionHandler {
+
+    /**
+     * 连接已注册到选择器上
+     */
+    default void onOpen(Connection connection) throws IOException {
+    }
+
+    /**
+     * 读取到数据，buffer已处于读模式（flip之后）
+     * 方法返回后buffer会被EventLoop复用，需要保留的数据请自行复制，
+     * 或者调用connection.retainReadBuffer()取走整个缓冲区
+     */
+    void onRead(Connection connection, ByteBuffer buffer) throws IOException;
+
+    /**
+     * 发送队列积压越过高水位或回落到低水位以下，可通过connection.isWritable()查看当前状态
+     */
+    default void onWritabilityChanged(Connection connection) {
+    }
+
+    /**
+     * 连接空闲超时（见Connection.setIdleTimeouts()），默认关闭连接；
+     * 不关闭的话，同一类空闲每隔一个超时时间触发一次
+     */
+    default void onIdle(Connection connection, IdleState state) throws IOException {
+        connection.close();
+    }
+
+    /**
+     * 连接已关闭
+     */
+    default void onClose(Connection connection) {
+    }
+}
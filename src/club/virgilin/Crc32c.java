@@ -0,0 +1,81 @@
+package club.virgilin;
+
+/**
+ * Crc32c
+ *
+ * @author virgilin
+ * @date 2026/10/18
+ *
+ * 合并两段数据的CRC32C：已知crc(A)、crc(B)和B的长度，不用重新读数据就能得到crc(A + B)
+ *
+ * CRC是GF(2)上的线性运算，在crc(A)后面追加len(B)个0字节相当于乘以一个32 × 32的矩阵；
+ * 这个矩阵用“反复平方”得到，只需要O(log len(B))次矩阵运算（与zlib的crc32_combine()相同，只是多项式换成CRC32C的）。
+ * 这样每块的CRC32C可以在不同的线程中各自计算，最后按顺序合并成整个文件的CRC32C。
+ */
+public final class Crc32c {
+
+    /**
+     * CRC32C（Castagnoli）的反射多项式
+     */
+    private static final int POLYNOMIAL = 0x82F63B78;
+
+    private Crc32c() {
+    }
+
+    /**
+     * @param crc1    前一段的CRC32C
+     * @param crc2    后一段的CRC32C
+     * @param length2 后一段的字节数
+     * @return 两段拼接后的CRC32C
+     */
+    public static int combine(int crc1, int crc2, long length2) {
+        if (length2 <= 0) {
+            return crc1;
+        }
+        int[] even = new int[32];
+        int[] odd = new int[32];
+        //1.odd = 追加1个0比特的矩阵
+        odd[0] = POLYNOMIAL;
+        int row = 1;
+        for (int n = 1; n < 32; n++) {
+            odd[n] = row;
+            row <<= 1;
+        }
+        //2.even = 追加2个0比特，odd = 追加4个0比特
+        square(even, odd);
+        square(odd, even);
+        //3.每次平方后矩阵表示的0字节数翻倍，length2的二进制位为1时乘到crc1上
+        do {
+            square(even, odd);
+            if ((length2 & 1) != 0) {
+                crc1 = times(even, crc1);
+            }
+            length2 >>>= 1;
+            if (length2 == 0) {
+                break;
+            }
+            square(odd, even);
+            if ((length2 & 1) != 0) {
+                crc1 = times(odd, crc1);
+            }
+            length2 >>>= 1;
+        } while (length2 != 0);
+        return crc1 ^ crc2;
+    }
+
+    private static int times(int[] matrix, int vector) {
+        int sum = 0;
+        for (int i = 0; vector != 0; i++, vector >>>= 1) {
+            if ((vector & 1) != 0) {
+                sum ^= matrix[i];
+            }
+        }
+        return sum;
+    }
+
+    private static void square(int[] square, int[] matrix) {
+        for (int n = 0; n < 32; n++) {
+            square[n] = times(matrix, matrix[n]);
+        }
+    }
+}
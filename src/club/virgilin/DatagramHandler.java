@@ -0,0 +1,27 @@
+package club.virgilin;
+
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+
+/**
+ * DatagramHandler
+ *
+ * @author virgilin
+ * @date 2026/10/18
+ *
+ * 数据报的回调，在DatagramIngestEngine的消费者线程中执行
+ */
+public interface DatagramHandler {
+
+    /**
+     * 收到一个数据报，内容位于packet的position到limit之间
+     * packet是环形缓冲区的槽位，方法返回后会被复用
+     */
+    void onDatagram(ByteBuffer packet, SocketAddress sender);
+
+    /**
+     * 一批数据报处理完毕，适合在这里做批量提交
+     */
+    default void onBatchComplete(int count) {
+    }
+}
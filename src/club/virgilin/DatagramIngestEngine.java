@@ -0,0 +1,267 @@
+package club.virgilin;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * DatagramIngestEngine
+ *
+ * @author virgilin
+ * @date 2026/10/18
+ *
+ * 高速率UDP接收引擎
+ *
+ * 一、TestNonBlockingNIO2.receive()的问题
+ * 1.每个数据报分配一个1KB的堆缓冲区
+ * 2.每次select()唤醒只receive()一个数据报，系统调用次数翻倍
+ *
+ * 二、结构
+ * 1.接收线程：每个线程一个DatagramChannel + 一个选择器，多个通道通过SO_REUSEPORT绑定同一个端口，
+ *   由内核按来源地址分散到不同的通道（同一个来源总是落在同一个通道上）
+ * 2.每次唤醒循环receive()直到返回null，数据直接读入环形缓冲区中预先分配的直接缓冲区槽位
+ * 3.一次唤醒收到的数据报整批发布给消费者线程，消费者按批回调DatagramHandler
+ * 4.环满时接收线程暂停片刻，数据留在内核的接收缓冲区中（SO_RCVBUF调大以吸收突发）
+ */
+public class DatagramIngestEngine implements Closeable {
+
+    /**
+     * 接收线程每收到这么多数据报就发布一次，避免消费者等待过久
+     */
+    private static final int MAX_BATCH = 256;
+
+    private final InetSocketAddress address;
+    private final DatagramHandler handler;
+    private final Receiver[] receivers;
+    private final int receiveBufferSize;
+    private final LongAdder received = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder ringFull = new LongAdder();
+    private volatile boolean running;
+    private volatile boolean consumerParked;
+    private Thread consumer;
+
+    /**
+     * @param receiverCount 接收线程数，大于1时需要平台支持SO_REUSEPORT
+     * @param ringSize      每个接收线程的环形缓冲区槽位数，必须是2的幂
+     * @param slotSize      每个槽位的字节数，超过的数据报会被截断
+     */
+    public DatagramIngestEngine(InetSocketAddress address, int receiverCount, int ringSize, int slotSize,
+                                DatagramHandler handler) {
+        if (receiverCount <= 0) {
+            throw new IllegalArgumentException("receiverCount: " + receiverCount);
+        }
+        this.address = address;
+        this.handler = handler;
+        this.receiveBufferSize = 8 * 1024 * 1024;
+        this.receivers = new Receiver[receiverCount];
+        for (int i = 0; i < receiverCount; i++) {
+            receivers[i] = new Receiver(i, new SpscBufferRing(ringSize, slotSize));
+        }
+    }
+
+    public void start() throws IOException {
+        running = true;
+        InetSocketAddress bindAddress = address;
+        for (Receiver receiver : receivers) {
+            receiver.open(bindAddress);
+            //绑定0端口时，后面的通道要绑定到系统分配给第一个通道的端口上
+            bindAddress = (InetSocketAddress) receiver.channel.getLocalAddress();
+        }
+        consumer = new Thread(this::consume, "udp-consumer");
+        consumer.start();
+        for (Receiver receiver : receivers) {
+            receiver.thread.start();
+        }
+    }
+
+    public int port() throws IOException {
+        return ((InetSocketAddress) receivers[0].channel.getLocalAddress()).getPort();
+    }
+
+    private void consume() {
+        int idle = 0;
+        while (running) {
+            int total = 0;
+            for (Receiver receiver : receivers) {
+                SpscBufferRing ring = receiver.ring;
+                int n = ring.available();
+                if (n == 0) {
+                    continue;
+                }
+                for (int i = 0; i < n; i++) {
+                    try {
+                        handler.onDatagram(ring.get(i), receiver.senders[ring.index(i)]);
+                    } catch (RuntimeException e) {
+                        e.printStackTrace();
+                    }
+                }
+                ring.release(n);
+                handler.onBatchComplete(n);
+                batches.increment();
+                total += n;
+            }
+            if (total > 0) {
+                idle = 0;
+            } else if (++idle > 100) {
+                //先自旋一会儿，仍然没有数据再挂起，等接收线程发布后唤醒
+                consumerParked = true;
+                if (!hasAvailable()) {
+                    LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+                }
+                consumerParked = false;
+            }
+        }
+    }
+
+    private boolean hasAvailable() {
+        for (Receiver receiver : receivers) {
+            if (receiver.ring.available() > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void signalConsumer() {
+        if (consumerParked) {
+            LockSupport.unpark(consumer);
+        }
+    }
+
+    public long received() {
+        return received.sum();
+    }
+
+    public long batches() {
+        return batches.sum();
+    }
+
+    /**
+     * 接收线程因为环满而暂停的次数
+     */
+    public long ringFull() {
+        return ringFull.sum();
+    }
+
+    @Override
+    public void close() throws IOException {
+        running = false;
+        for (Receiver receiver : receivers) {
+            receiver.close();
+        }
+        if (consumer != null) {
+            LockSupport.unpark(consumer);
+        }
+    }
+
+    public void join() throws InterruptedException {
+        for (Receiver receiver : receivers) {
+            receiver.thread.join();
+        }
+        if (consumer != null) {
+            consumer.join();
+        }
+    }
+
+    private final class Receiver implements Runnable {
+
+        private final SpscBufferRing ring;
+        private final SocketAddress[] senders;
+        private final Thread thread;
+        private DatagramChannel channel;
+        private Selector selector;
+
+        Receiver(int id, SpscBufferRing ring) {
+            this.ring = ring;
+            this.senders = new SocketAddress[ring.capacity()];
+            this.thread = new Thread(this, "udp-receiver-" + id);
+        }
+
+        void open(InetSocketAddress bindAddress) throws IOException {
+            channel = DatagramChannel.open();
+            if (receivers.length > 1) {
+                if (!channel.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT)) {
+                    channel.close();
+                    throw new UnsupportedOperationException("SO_REUSEPORT is not supported, use a single receiver");
+                }
+                channel.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+            }
+            channel.setOption(StandardSocketOptions.SO_RCVBUF, receiveBufferSize);
+            channel.bind(bindAddress);
+            channel.configureBlocking(false);
+            selector = Selector.open();
+            channel.register(selector, SelectionKey.OP_READ);
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (running) {
+                    selector.select();
+                    selector.selectedKeys().clear();
+                    drain();
+                }
+            } catch (IOException | ClosedSelectorException e) {
+                if (running) {
+                    e.printStackTrace();
+                }
+            }
+        }
+
+        /**
+         * 一直receive()到返回null为止
+         */
+        private void drain() throws IOException {
+            int count = 0;
+            int batch = 0;
+            while (running) {
+                ByteBuffer slot = ring.claim();
+                if (slot == null) {
+                    //环满：先把已有的发布出去，等消费者腾出槽位
+                    ring.publish();
+                    signalConsumer();
+                    ringFull.increment();
+                    LockSupport.parkNanos(50_000);
+                    continue;
+                }
+                SocketAddress sender = channel.receive(slot);
+                if (sender == null) {
+                    break;
+                }
+                slot.flip();
+                senders[ring.claimedIndex()] = sender;
+                ring.commit();
+                count++;
+                if (++batch == MAX_BATCH) {
+                    ring.publish();
+                    signalConsumer();
+                    batch = 0;
+                }
+            }
+            if (ring.publish() > 0) {
+                signalConsumer();
+            }
+            received.add(count);
+        }
+
+        void close() throws IOException {
+            if (selector != null) {
+                selector.close();
+            }
+            if (channel != null) {
+                channel.close();
+            }
+        }
+    }
+}
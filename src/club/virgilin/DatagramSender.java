@@ -0,0 +1,326 @@
+package club.virgilin;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.PortUnreachableException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * DatagramSender
+ *
+ * @author virgilin
+ * @date 2026/10/18
+ *
+ * 批量、限速的UDP发送器
+ *
+ * 一、合并
+ * 1.每条消息前加varint长度，多条消息拼进同一个数据报，直到再放不下为止（不超过mtu）
+ * 2.接收端用Varint.read()逐条拆开
+ *
+ * 二、每个目标地址一个已连接（connect）的DatagramChannel
+ * 1.send(buffer, address)每次都要检查地址、做安全检查；已连接的通道直接write()
+ * 2.已连接的通道还能收到ICMP端口不可达（PortUnreachableException），计入unreachable()
+ *
+ * 三、限速
+ * 1.数据报先进入各目标自己的队列，按令牌桶的速度轮流发出，突发发往几千个目标时不会撑爆发送缓冲区
+ * 2.队列满了丢弃新的数据报并计数；write()返回0说明发送缓冲区满了，稍后重试
+ *
+ * 四、不是线程安全的，由一个发送线程使用；计数器可以在任意线程读取
+ */
+public class DatagramSender implements Closeable {
+
+    /**
+     * 以太网MTU 1500 - IP头20 - UDP头8
+     */
+    public static final int DEFAULT_MTU = 1472;
+
+    /**
+     * 发送缓冲区满时暂停的时间
+     */
+    private static final long BLOCKED_PARK_NANOS = 50_000;
+
+    private final int mtu;
+    private final int maxQueuedPackets;
+    private final TokenBucket bucket;
+    private final BufferPool bufferPool;
+    private final Map<InetSocketAddress, Endpoint> endpoints = new HashMap<>();
+
+    /**
+     * 有未封口数据报的目标
+     */
+    private final ArrayDeque<Endpoint> open = new ArrayDeque<>();
+
+    /**
+     * 队列中有数据报待发送的目标，轮流发送
+     */
+    private final ArrayDeque<Endpoint> ready = new ArrayDeque<>();
+
+    private final LongAdder messages = new LongAdder();
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder sentBytes = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder unreachable = new LongAdder();
+    private final LongAdder queued = new LongAdder();
+
+    public DatagramSender() {
+        this(DEFAULT_MTU, 0, 1024);
+    }
+
+    /**
+     * @param mtu              单个数据报的最大字节数
+     * @param bytesPerSecond   总发送速率，0表示不限速；允许的突发量是10毫秒的发送量（至少一个数据报）
+     * @param maxQueuedPackets 每个目标最多排队的数据报数
+     */
+    public DatagramSender(int mtu, long bytesPerSecond, int maxQueuedPackets) {
+        this(mtu, bytesPerSecond, maxQueuedPackets, BufferPool.DEFAULT);
+    }
+
+    public DatagramSender(int mtu, long bytesPerSecond, int maxQueuedPackets, BufferPool bufferPool) {
+        if (mtu < Varint.MAX_SIZE + 1 || maxQueuedPackets <= 0 || bytesPerSecond < 0) {
+            throw new IllegalArgumentException("mtu: " + mtu + ", bytesPerSecond: " + bytesPerSecond
+                    + ", maxQueuedPackets: " + maxQueuedPackets);
+        }
+        this.mtu = mtu;
+        this.maxQueuedPackets = maxQueuedPackets;
+        this.bucket = bytesPerSecond == 0 ? null : new TokenBucket(bytesPerSecond, Math.max(mtu, bytesPerSecond / 100));
+        this.bufferPool = bufferPool;
+    }
+
+    /**
+     * 目标地址对应的发送端，第一次调用时打开并连接通道；调用方应保存返回值，避免每次查表
+     */
+    public Endpoint endpoint(InetSocketAddress address) throws IOException {
+        Endpoint endpoint = endpoints.get(address);
+        if (endpoint == null) {
+            endpoint = new Endpoint(address);
+            endpoints.put(address, endpoint);
+        }
+        return endpoint;
+    }
+
+    public void send(InetSocketAddress address, ByteBuffer message) throws IOException {
+        endpoint(address).send(message);
+    }
+
+    /**
+     * 在速率和发送缓冲区允许的范围内发送排队的数据报，不等待
+     *
+     * @return 本次发出的数据报数
+     */
+    public int poll() throws IOException {
+        int count = 0;
+        while (!ready.isEmpty()) {
+            Endpoint endpoint = ready.peekFirst();
+            ByteBuffer packet = endpoint.packets.peekFirst();
+            int size = packet.remaining();
+            if (bucket != null && bucket.nanosUntil(size) > 0) {
+                break;
+            }
+            try {
+                //UDP的write()要么整个数据报发出，要么返回0
+                if (endpoint.channel.write(packet) == 0) {
+                    break;
+                }
+            } catch (PortUnreachableException e) {
+                //报告的是之前已经发出（已计入sent）的某个数据报被ICMP拒绝了，当前的数据报还没发，
+                //错误已经取走，不扣令牌，留在队首重试
+                unreachable.increment();
+                continue;
+            }
+            if (bucket != null) {
+                bucket.tryAcquire(size);
+            }
+            ready.pollFirst();
+            endpoint.packets.pollFirst();
+            bufferPool.release(packet);
+            queued.decrement();
+            sent.increment();
+            sentBytes.add(size);
+            count++;
+            if (endpoint.packets.isEmpty()) {
+                endpoint.ready = false;
+            } else {
+                ready.addLast(endpoint);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * 把未封口的数据报封口，并按限速把所有排队的数据报发完
+     */
+    public void flush() throws IOException {
+        Endpoint endpoint;
+        while ((endpoint = open.pollFirst()) != null) {
+            endpoint.open = false;
+            endpoint.seal();
+        }
+        while (!ready.isEmpty()) {
+            if (poll() > 0 || ready.isEmpty()) {
+                continue;
+            }
+            long wait = bucket == null ? 0 : bucket.nanosUntil(ready.peekFirst().packets.peekFirst().remaining());
+            LockSupport.parkNanos(wait > 0 ? wait : BLOCKED_PARK_NANOS);
+        }
+    }
+
+    /**
+     * 已加入的消息数
+     */
+    public long messages() {
+        return messages.sum();
+    }
+
+    /**
+     * 已发出的数据报数
+     */
+    public long sent() {
+        return sent.sum();
+    }
+
+    public long sentBytes() {
+        return sentBytes.sum();
+    }
+
+    /**
+     * 因队列满而丢弃的数据报数
+     */
+    public long dropped() {
+        return dropped.sum();
+    }
+
+    /**
+     * 收到ICMP端口不可达的次数，每次对应一个已经计入sent()的数据报
+     */
+    public long unreachable() {
+        return unreachable.sum();
+    }
+
+    /**
+     * 正在排队的数据报数
+     */
+    public long queued() {
+        return queued.sum();
+    }
+
+    @Override
+    public void close() throws IOException {
+        IOException failure = null;
+        for (Endpoint endpoint : endpoints.values()) {
+            try {
+                endpoint.close();
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        endpoints.clear();
+        open.clear();
+        ready.clear();
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "DatagramSender[endpoints=" + endpoints.size() + ", messages=" + messages() + ", sent=" + sent()
+                + ", dropped=" + dropped() + ", unreachable=" + unreachable() + ", queued=" + queued() + "]";
+    }
+
+    public final class Endpoint {
+
+        private final InetSocketAddress address;
+        private final DatagramChannel channel;
+        private final ArrayDeque<ByteBuffer> packets = new ArrayDeque<>();
+        private ByteBuffer current;
+        private boolean open;
+        private boolean ready;
+
+        private Endpoint(InetSocketAddress address) throws IOException {
+            this.address = address;
+            this.channel = DatagramChannel.open();
+            try {
+                channel.connect(address);
+                channel.configureBlocking(false);
+            } catch (IOException e) {
+                channel.close();
+                throw e;
+            }
+        }
+
+        public InetSocketAddress address() {
+            return address;
+        }
+
+        /**
+         * 加入一条消息（position到limit之间的字节），放不下时先把当前数据报封口排队
+         *
+         * @throws IllegalArgumentException 消息加上长度前缀超过mtu
+         */
+        public void send(ByteBuffer message) throws IOException {
+            int length = message.remaining();
+            int size = Varint.size(length) + length;
+            if (size > mtu) {
+                throw new IllegalArgumentException("message too large: " + length + ", mtu: " + mtu);
+            }
+            if (current != null && current.remaining() < size) {
+                seal();
+                poll();
+            }
+            if (current == null) {
+                current = bufferPool.acquire(mtu);
+                current.limit(mtu);
+                if (!open) {
+                    open = true;
+                    DatagramSender.this.open.addLast(this);
+                }
+            }
+            Varint.write(current, length);
+            current.put(message);
+            messages.increment();
+        }
+
+        /**
+         * 封口当前数据报，加入发送队列；队列已满则丢弃
+         */
+        private void seal() {
+            ByteBuffer packet = current;
+            if (packet == null) {
+                return;
+            }
+            current = null;
+            if (packets.size() >= maxQueuedPackets) {
+                bufferPool.release(packet);
+                dropped.increment();
+                return;
+            }
+            packet.flip();
+            packets.addLast(packet);
+            queued.increment();
+            if (!ready) {
+                ready = true;
+                DatagramSender.this.ready.addLast(this);
+            }
+        }
+
+        private void close() throws IOException {
+            if (current != null) {
+                bufferPool.release(current);
+                current = null;
+            }
+            ByteBuffer packet;
+            while ((packet = packets.pollFirst()) != null) {
+                bufferPool.release(packet);
+                queued.decrement();
+            }
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,264 @@
+package club.virgilin;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+/**
+ * DeltaPlan
+ *
+ * @author virgilin
+ * @date 2026/10/18
+ *
+ * 增量下载计划：新文件的哪些块在本地旧文件中已经有了，哪些要从服务端下载
+ *
+ * 一、查找（与rsync相同，只是由接收方计算）
+ * 1.新文件每个整块的弱校验和放进哈希表，弱校验和相同的块用next[]串成链表
+ * 2.在旧文件上以块大小为窗口逐字节滑动，用RollingChecksum O(1)更新弱校验和
+ * 3.弱校验和命中时才计算窗口的强校验和，与链表上所有块比较；匹配上就记下这些块在旧文件中的位置，窗口跳过整块
+ * 4.新文件最后一个不满的块只在旧文件的末尾和同一偏移处尝试
+ * 因为是逐字节滑动，旧文件中间插入或删除了内容，后面的块也能找到
+ *
+ * 二、结果
+ * 1.复制：相邻的块如果在旧文件中也相邻就合并成一段，从旧文件复制到新文件
+ * 2.下载：相邻的缺失块合并成一个范围请求
+ *
+ * 旧文件整个映射到内存，超过2GB时不做查找，全部下载
+ */
+public class DeltaPlan {
+
+    private final BlockSignatures signatures;
+    private final long[] source;
+    private long[] copies = new long[0];
+    private int copyCount;
+    private long[] fetches = new long[0];
+    private int fetchCount;
+
+    private DeltaPlan(BlockSignatures signatures, long[] source) {
+        this.signatures = signatures;
+        this.source = source;
+        merge();
+    }
+
+    /**
+     * 根据新文件的块校验和，在本地旧文件中查找可以复用的块
+     */
+    public static DeltaPlan create(FileChannel local, BlockSignatures signatures) throws IOException {
+        long[] source = new long[signatures.blockCount()];
+        Arrays.fill(source, -1);
+        long size = local.size();
+        if (size > 0 && size <= Integer.MAX_VALUE && signatures.blockCount() > 0) {
+            MappedByteBuffer old = local.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            try {
+                match(old, signatures, source);
+            } finally {
+                DirectBuffers.free(old);
+            }
+        }
+        return new DeltaPlan(signatures, source);
+    }
+
+    private static void match(ByteBuffer old, BlockSignatures signatures, long[] source) {
+        int blockSize = signatures.blockSize();
+        int fullBlocks = (int) (signatures.length() / blockSize);
+        MessageDigest digest = BlockSignatures.sha256();
+        //1.弱校验和 -> 第一个块，其余的块串在next[]上
+        LongHashMap<Integer> heads = new LongHashMap<>(fullBlocks);
+        int[] next = new int[fullBlocks];
+        for (int i = fullBlocks - 1; i >= 0; i--) {
+            long key = signatures.weak(i) & 0xFFFFFFFFL;
+            Integer head = heads.get(key);
+            next[i] = head == null ? -1 : head;
+            heads.put(key, i);
+        }
+        //2.滑动窗口
+        //window用来圈定要计算校验和的范围，old的limit保持不变，供绝对位置的get()使用
+        int size = old.limit();
+        ByteBuffer window = old.duplicate();
+        RollingChecksum rolling = new RollingChecksum();
+        int position = 0;
+        boolean reset = true;
+        while (fullBlocks > 0 && position + blockSize <= size) {
+            if (reset) {
+                window.limit(position + blockSize).position(position);
+                rolling.reset(window);
+                reset = false;
+            }
+            Integer head = heads.get(rolling.value() & 0xFFFFFFFFL);
+            if (head != null && matchChain(window, position, blockSize, head, next, signatures, source, digest)) {
+                position += blockSize;
+                reset = true;
+            } else {
+                if (position + blockSize < size) {
+                    rolling.roll(old.get(position), old.get(position + blockSize));
+                }
+                position++;
+            }
+        }
+        //3.最后一个不满的块
+        int last = signatures.blockCount() - 1;
+        int tail = signatures.blockLength(last);
+        if (tail < blockSize) {
+            long sameOffset = (long) last * blockSize;
+            if (!matchTail(window, size - tail, tail, last, signatures, source, digest) && sameOffset + tail <= size) {
+                matchTail(window, (int) sameOffset, tail, last, signatures, source, digest);
+            }
+        }
+    }
+
+    /**
+     * 窗口[position, position + blockSize)的强校验和与链表上的块比较
+     *
+     * @return 是否至少有一个块匹配
+     */
+    private static boolean matchChain(ByteBuffer window, int position, int blockSize, int head, int[] next,
+                                      BlockSignatures signatures, long[] source, MessageDigest digest) {
+        window.limit(position + blockSize).position(position);
+        long strong = BlockSignatures.strong(digest, window);
+        boolean matched = false;
+        for (int block = head; block >= 0; block = next[block]) {
+            if (signatures.strong(block) == strong) {
+                matched = true;
+                if (source[block] < 0) {
+                    source[block] = position;
+                }
+            }
+        }
+        return matched;
+    }
+
+    private static boolean matchTail(ByteBuffer window, int position, int length, int block,
+                                     BlockSignatures signatures, long[] source, MessageDigest digest) {
+        if (source[block] >= 0) {
+            return true;
+        }
+        if (position < 0) {
+            return false;
+        }
+        window.limit(position + length).position(position);
+        if (RollingChecksum.of(window) != signatures.weak(block)
+                || BlockSignatures.strong(digest, window) != signatures.strong(block)) {
+            return false;
+        }
+        source[block] = position;
+        return true;
+    }
+
+    /**
+     * 把相邻的块合并成复制段和下载段
+     */
+    private void merge() {
+        int blockSize = signatures.blockSize();
+        for (int i = 0; i < source.length; ) {
+            long target = (long) i * blockSize;
+            int j = i + 1;
+            if (source[i] >= 0) {
+                while (j < source.length && source[j] == source[j - 1] + blockSize) {
+                    j++;
+                }
+                long length = Math.min((long) j * blockSize, signatures.length()) - target;
+                copies = append(copies, copyCount++, source[i], target, length);
+            } else {
+                while (j < source.length && source[j] < 0) {
+                    j++;
+                }
+                long length = Math.min((long) j * blockSize, signatures.length()) - target;
+                fetches = append(fetches, fetchCount++, -1, target, length);
+            }
+            i = j;
+        }
+    }
+
+    private static long[] append(long[] segments, int index, long source, long target, long length) {
+        if (segments.length < (index + 1) * 3) {
+            segments = Arrays.copyOf(segments, Math.max(12, segments.length * 2));
+        }
+        segments[index * 3] = source;
+        segments[index * 3 + 1] = target;
+        segments[index * 3 + 2] = length;
+        return segments;
+    }
+
+    public BlockSignatures signatures() {
+        return signatures;
+    }
+
+    public int copyCount() {
+        return copyCount;
+    }
+
+    /**
+     * 第index个复制段在旧文件中的位置
+     */
+    public long copySource(int index) {
+        return copies[index * 3];
+    }
+
+    /**
+     * 第index个复制段在新文件中的位置
+     */
+    public long copyTarget(int index) {
+        return copies[index * 3 + 1];
+    }
+
+    public long copyLength(int index) {
+        return copies[index * 3 + 2];
+    }
+
+    public int fetchCount() {
+        return fetchCount;
+    }
+
+    /**
+     * 第index个下载段在新文件中的位置
+     */
+    public long fetchOffset(int index) {
+        return fetches[index * 3 + 1];
+    }
+
+    public long fetchLength(int index) {
+        return fetches[index * 3 + 2];
+    }
+
+    /**
+     * 需要下载的字节数
+     */
+    public long fetchBytes() {
+        long bytes = 0;
+        for (int i = 0; i < fetchCount; i++) {
+            bytes += fetchLength(i);
+        }
+        return bytes;
+    }
+
+    /**
+     * 把复制段从旧文件复制到target（新文件）；下载段由调用者填充
+     */
+    public void copy(FileChannel local, FileChannel target) throws IOException {
+        for (int i = 0; i < copyCount; i++) {
+            long position = copySource(i);
+            long targetPosition = copyTarget(i);
+            long remaining = copyLength(i);
+            while (remaining > 0) {
+                //transferFrom()不能写到文件末尾之后，所以用transferTo()，写入target的当前position
+                target.position(targetPosition);
+                long transferred = local.transferTo(position, remaining, target);
+                if (transferred <= 0) {
+                    throw new IOException("local file truncated at " + position);
+                }
+                position += transferred;
+                targetPosition += transferred;
+                remaining -= transferred;
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "DeltaPlan{blocks=" + source.length + ", copies=" + copyCount + ", fetches=" + fetchCount
+                + ", fetchBytes=" + fetchBytes() + "}";
+    }
+}
@@ -0,0 +1,60 @@
+package club.virgilin;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+
+/**
+ * DirectBuffers
+ *
+ * @author virgilin
+ * @date 2026/10/18
+ *
+ * 立即释放直接缓冲区（包括MappedByteBuffer）占用的内存或映射
+ *
+ * JDK没有公开的unmap方法，映射区域要等缓冲区对象被GC之后才会解除。
+ * 逐个窗口映射大文件时，如果不主动释放，地址空间和页表会一直增长。
+ * 使用JDK 9加入的sun.misc.Unsafe.invokeCleaner()（整个项目至少需要Java 9，例如CRC32C、Thread.onSpinWait()）；
+ * 不可用时（例如jdk.unsupported模块不可见）什么也不做，退回到等待GC。
+ */
+final class DirectBuffers {
+
+    private static final Object UNSAFE;
+    private static final Method INVOKE_CLEANER;
+
+    static {
+        Object unsafe = null;
+        Method invokeCleaner = null;
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            Field field = unsafeClass.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            unsafe = field.get(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            invokeCleaner = null;
+        }
+        UNSAFE = unsafe;
+        INVOKE_CLEANER = invokeCleaner;
+    }
+
+    private DirectBuffers() {
+    }
+
+    /**
+     * 释放缓冲区，之后不能再访问它（包括它的slice和duplicate）
+     * 只能传入allocateDirect()或map()直接返回的缓冲区
+     */
+    static void free(ByteBuffer buffer) {
+        if (buffer == null || !buffer.isDirect()) {
+            return;
+        }
+        try {
+            if (INVOKE_CLEANER != null) {
+                INVOKE_CLEANER.invoke(UNSAFE, buffer);
+            }
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            //不支持时交给GC
+        }
+    }
+}
@@ -0,0 +1,314 @@
+package club.virgilin;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * EventLoop
+ *
+ * @author virgilin
+ * @date 2026/10/18
+ *
+ * worker（从Reactor）：一个线程 + 一个选择器，负责已建立连接的读写事件。
+ *
+ * 一、通道的注册
+ * SelectableChannel.register()会和阻塞在select()上的线程竞争选择器的锁，
+ * 所以boss线程不能直接把通道注册到worker的选择器上，而是：
+ * 1.把通道放入worker自己的注册队列
+ * 2.调用selector.wakeup()唤醒worker
+ * 3.由worker线程在下一轮循环中完成register()
+ *
+ * 二、wakeup()本身是一次系统调用，用wakenUp标记保证每轮select()最多唤醒一次
+ *
+ * 三、其他线程要操作连接（例如发送数据）时，通过execute()把任务交给EventLoop线程执行
+ *
+ * 四、定时：每个EventLoop一个时间轮（TimingWheel），select()的超时取到下一个tick为止，
+ * 返回后先触发到期的定时器（例如连接的空闲超时）再处理就绪键
+ */
+public class EventLoop implements Runnable, Closeable {
+
+    /**
+     * 每次读就绪最多读取的次数，避免一个连接长期占用线程
+     */
+    private static final int MAX_READS_PER_EVENT = 16;
+
+    /**
+     * 时间轮每个tick 100ms，1024个槽转一圈约102秒
+     */
+    private static final long TICK_MILLIS = 100;
+    private static final int WHEEL_SIZE = 1024;
+
+    private final String name;
+    private final ConnectionHandler handler;
+    private final BufferPool bufferPool;
+    private final Selector selector;
+    private final Queue<SocketChannel> registrations = new ConcurrentLinkedQueue<>();
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean wakenUp = new AtomicBoolean();
+    private final NioMetrics metrics = NioMetrics.DEFAULT;
+    /**
+     * run()开始时创建，结束时并入NioMetrics的retired，没有运行过的EventLoop不占用
+     */
+    private NioMetrics.EventLoopMetrics loopMetrics;
+    private final TimingWheel timingWheel;
+
+    /**
+     * 本轮循环开始处理事件的时间，读写时用它记录活动时间，不必每次都调用System.nanoTime()
+     */
+    private long now;
+
+    /**
+     * 最近一次wakeup()的时间，用于统计唤醒延迟；0表示没有
+     */
+    private volatile long wakeupRequestedAt;
+    private final int readBufferSize;
+    private volatile boolean running = true;
+    private Thread thread;
+
+    public EventLoop(String name, ConnectionHandler handler) throws IOException {
+        this(name, handler, BufferPool.DEFAULT, 1024);
+    }
+
+    public EventLoop(String name, ConnectionHandler handler, BufferPool bufferPool, int readBufferSize) throws IOException {
+        this.name = name;
+        this.handler = handler;
+        this.bufferPool = bufferPool;
+        this.readBufferSize = readBufferSize;
+        this.selector = Selector.open();
+        this.now = System.nanoTime();
+        this.timingWheel = new TimingWheel(TICK_MILLIS, TimeUnit.MILLISECONDS, WHEEL_SIZE, now);
+    }
+
+    public void start() {
+        thread = new Thread(this, name);
+        thread.start();
+    }
+
+    public ConnectionHandler handler() {
+        return handler;
+    }
+
+    public BufferPool bufferPool() {
+        return bufferPool;
+    }
+
+    /**
+     * 本轮循环的时间（System.nanoTime()），只在EventLoop线程中有意义
+     */
+    public long now() {
+        return now;
+    }
+
+    /**
+     * 只能在EventLoop线程中使用
+     */
+    public TimingWheel timingWheel() {
+        return timingWheel;
+    }
+
+    public boolean inEventLoop() {
+        return Thread.currentThread() == thread;
+    }
+
+    /**
+     * 把通道交给当前worker，可以在任意线程调用
+     */
+    public void register(SocketChannel socketChannel) {
+        registrations.offer(socketChannel);
+        wakeup();
+    }
+
+    /**
+     * 在EventLoop线程中执行任务，可以在任意线程调用
+     */
+    public void execute(Runnable task) {
+        tasks.offer(task);
+        if (!inEventLoop()) {
+            wakeup();
+        }
+    }
+
+    private void wakeup() {
+        if (wakenUp.compareAndSet(false, true)) {
+            wakeupRequestedAt = System.nanoTime();
+            selector.wakeup();
+        }
+    }
+
+    @Override
+    public void run() {
+        loopMetrics = metrics.newEventLoopMetrics();
+        try {
+            while (running) {
+                //1.先清除唤醒标记再处理注册队列和任务队列，保证之后入队的通道和任务一定会触发wakeup()
+                wakenUp.set(false);
+                processRegistrations();
+                runTasks();
+                //2.轮询已就绪的事件，还有任务没执行时不阻塞，有定时器时最多阻塞到下一个tick
+                long selectStart = System.nanoTime();
+                if (tasks.isEmpty()) {
+                    selector.select(timingWheel.selectTimeoutMillis(selectStart));
+                } else {
+                    selector.selectNow();
+                }
+                long selectEnd = System.nanoTime();
+                now = selectEnd;
+                loopMetrics.recordSelect(selectEnd - selectStart, selector.selectedKeys().size());
+                long requestedAt = wakeupRequestedAt;
+                if (requestedAt != 0) {
+                    wakeupRequestedAt = 0;
+                    loopMetrics.recordWakeupLatency(selectEnd - requestedAt);
+                }
+                //3.先触发到期的定时器，再处理就绪键
+                timingWheel.expire(selectEnd);
+                processSelectedKeys();
+                loopMetrics.recordProcess(System.nanoTime() - selectEnd);
+            }
+        } catch (IOException | ClosedSelectorException e) {
+            if (running) {
+                e.printStackTrace();
+            }
+        } finally {
+            closeAll();
+            metrics.retire(loopMetrics);
+        }
+    }
+
+    private void processRegistrations() {
+        SocketChannel socketChannel;
+        while ((socketChannel = registrations.poll()) != null) {
+            Connection connection = new Connection(socketChannel, this);
+            try {
+                socketChannel.configureBlocking(false);
+                connection.bind(socketChannel.register(selector, SelectionKey.OP_READ));
+                metrics.connectionOpened();
+                handler.onOpen(connection);
+            } catch (IOException | RuntimeException e) {
+                //只关闭出错的连接，不影响这个worker上的其他连接
+                e.printStackTrace();
+                connection.close();
+            }
+        }
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private void processSelectedKeys() {
+        Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+        while (iterator.hasNext()) {
+            SelectionKey selectionKey = iterator.next();
+            iterator.remove();
+            Connection connection = (Connection) selectionKey.attachment();
+            if (!selectionKey.isValid()) {
+                connection.close();
+                continue;
+            }
+            try {
+                if (selectionKey.isWritable()) {
+                    //发送缓冲区有空间了，继续写出积压的数据
+                    connection.outboundQueue().flush();
+                }
+                if (selectionKey.isValid() && selectionKey.isReadable()) {
+                    read(connection);
+                }
+            } catch (IOException e) {
+                connection.close();
+            } catch (RuntimeException e) {
+                //handler出错只关闭这个连接，不能让异常结束run()
+                e.printStackTrace();
+                connection.close();
+            }
+        }
+    }
+
+    private void read(Connection connection) throws IOException {
+        SocketChannel channel = connection.channel();
+        //从线程本地缓存中获取直接缓冲区，稳定状态下读循环没有任何分配
+        ByteBuffer buffer = bufferPool.acquire(readBufferSize);
+        int len = 0;
+        try {
+            for (int i = 0; i < MAX_READS_PER_EVENT && !connection.isClosed() && !connection.isReadSuspended(); i++) {
+                buffer.clear();
+                len = channel.read(buffer);
+                if (len <= 0) {
+                    break;
+                }
+                connection.addBytesRead(len);
+                buffer.flip();
+                try {
+                    handler.onRead(connection, buffer);
+                } catch (RuntimeException e) {
+                    //handler取走缓冲区之后才出错，缓冲区归它所有，这里不能再归还
+                    if (connection.takeReadBuffer()) {
+                        buffer = null;
+                    }
+                    throw e;
+                }
+                if (connection.takeReadBuffer()) {
+                    //缓冲区被handler取走了，换一个新的
+                    buffer = bufferPool.acquire(readBufferSize);
+                }
+            }
+        } finally {
+            if (buffer != null) {
+                bufferPool.release(buffer);
+            }
+        }
+        if (len < 0) {
+            connection.close();
+        }
+    }
+
+    private void closeAll() {
+        for (SelectionKey selectionKey : selector.keys()) {
+            Object attachment = selectionKey.attachment();
+            if (attachment instanceof Connection) {
+                ((Connection) attachment).close();
+            }
+        }
+        SocketChannel socketChannel;
+        while ((socketChannel = registrations.poll()) != null) {
+            try {
+                socketChannel.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        try {
+            selector.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        selector.wakeup();
+    }
+
+    public void join() throws InterruptedException {
+        if (thread != null) {
+            thread.join();
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package club.virgilin;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * FileRegion
+ *
+ * @author virgilin
+ * @date 2026/10/18
+ *
+ * 文件的一段[position, position + count)，加入OutboundQueue后用transferTo()发送，数据不经过用户空间。
+ * 只使用定位的transferTo()，不改变FileChannel的position，所以同一个FileChannel可以同时被多个连接发送。
+ */
+public class FileRegion {
+
+    /**
+     * 单次transferTo的最大字节数，与FileTransfer一致
+     */
+    private static final long MAX_TRANSFER_SIZE = 64L * 1024 * 1024;
+
+    private final FileChannel file;
+    private final long position;
+    private final long count;
+    private long transferred;
+
+    public FileRegion(FileChannel file, long position, long count) {
+        if (position < 0 || count < 0) {
+            throw new IllegalArgumentException("position: " + position + ", count: " + count);
+        }
+        this.file = file;
+        this.position = position;
+        this.count = count;
+    }
+
+    public long count() {
+        return count;
+    }
+
+    public long transferred() {
+        return transferred;
+    }
+
+    public long remaining() {
+        return count - transferred;
+    }
+
+    /**
+     * 发送剩余部分，非阻塞通道的发送缓冲区满时只发送一部分甚至返回0
+     *
+     * @throws EOFException 文件被截断，剩余部分永远发不出去
+     */
+    long transferTo(WritableByteChannel target) throws IOException {
+        long n = file.transferTo(position + transferred, Math.min(remaining(), MAX_TRANSFER_SIZE), target);
+        if (n == 0 && position + transferred >= file.size()) {
+            throw new EOFException("file truncated at " + file.size() + ", expected " + (position + count));
+        }
+        transferred += n;
+        return n;
+    }
+}
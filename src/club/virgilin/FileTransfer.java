@@ -0,0 +1,173 @@
+package club.virgilin;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * FileTransfer
+ *
+ * @author virgilin
+ * @date 2026/10/18
+ *
+ * 文件与通道之间的数据传输，每一端自动选择最快的方式
+ *
+ * 一、发送端：FileChannel.transferTo()
+ * 目标是FileChannel或阻塞模式的SocketChannel时，transferTo()由内核直接完成（Linux上是sendfile），
+ * 数据不经过用户空间。一次调用可能只传输一部分，必须按返回值推进position循环调用。
+ *
+ * 二、接收端：FileChannel.transferFrom()
+ * 源是FileChannel时transferFrom()同样由内核完成；源是SocketChannel时JDK内部仍然是用8KB的临时
+ * 直接缓冲区读一次写一次，并不比自己做更好，而且返回0时分不清是“没数据”还是“已结束”，
+ * 所以从套接字接收时改用大容量直接缓冲区 + 按位置写入。
+ *
+ * 三、回退：无法零拷贝时使用1MB的直接缓冲区（来自缓冲区池），每次系统调用搬运的数据是原来1KB堆缓冲区的上千倍
+ *
+ * 四、这里的方法都要求套接字通道处于阻塞模式，非阻塞通道请使用OutboundQueue
+ */
+public final class FileTransfer {
+
+    /**
+     * 回退时使用的直接缓冲区大小
+     */
+    public static final int BUFFER_SIZE = 1024 * 1024;
+
+    /**
+     * 单次transferTo/transferFrom的最大字节数，部分系统对单次sendfile的长度有限制
+     */
+    private static final long MAX_TRANSFER_SIZE = 64L * 1024 * 1024;
+
+    private FileTransfer() {
+    }
+
+    /**
+     * 发送整个文件
+     */
+    public static long send(FileChannel source, WritableByteChannel target) throws IOException {
+        return send(source, 0, source.size(), target);
+    }
+
+    /**
+     * 发送文件的[position, position + count)部分，不改变source的position
+     *
+     * @return 发送的字节数，总是等于count
+     */
+    public static long send(FileChannel source, long position, long count, WritableByteChannel target) throws IOException {
+        long start = System.nanoTime();
+        long sent = 0;
+        if (zeroCopy(target)) {
+            while (sent < count) {
+                long n = source.transferTo(position + sent, Math.min(count - sent, MAX_TRANSFER_SIZE), target);
+                if (n <= 0) {
+                    //文件被截断或平台不支持，剩下的部分走缓冲区
+                    break;
+                }
+                sent += n;
+            }
+        }
+        if (sent < count) {
+            sent += copy(source, position + sent, count - sent, target);
+        }
+        NioMetrics.DEFAULT.recordTransfer(sent, System.nanoTime() - start);
+        return sent;
+    }
+
+    /**
+     * 接收数据写入文件，直到源通道结束
+     *
+     * @param position 写入文件的起始位置
+     * @return 接收的字节数
+     */
+    public static long receive(ReadableByteChannel source, FileChannel target, long position) throws IOException {
+        return receive(source, target, position, Long.MAX_VALUE, false);
+    }
+
+    /**
+     * 从源通道恰好接收count个字节写入文件的[position, position + count)
+     *
+     * @throws EOFException 源通道提前结束
+     */
+    public static long receive(ReadableByteChannel source, FileChannel target, long position, long count) throws IOException {
+        return receive(source, target, position, count, true);
+    }
+
+    private static long receive(ReadableByteChannel source, FileChannel target, long position, long count,
+                                boolean exact) throws IOException {
+        long start = System.nanoTime();
+        long received = 0;
+        if (source instanceof FileChannel) {
+            while (received < count) {
+                long n = target.transferFrom(source, position + received, Math.min(count - received, MAX_TRANSFER_SIZE));
+                if (n <= 0) {
+                    break;
+                }
+                received += n;
+            }
+        } else {
+            BufferPool bufferPool = BufferPool.DEFAULT;
+            ByteBuffer buffer = bufferPool.acquire(BUFFER_SIZE);
+            try {
+                while (received < count) {
+                    buffer.clear();
+                    if (count - received < buffer.capacity()) {
+                        buffer.limit((int) (count - received));
+                    }
+                    if (source.read(buffer) < 0) {
+                        break;
+                    }
+                    buffer.flip();
+                    while (buffer.hasRemaining()) {
+                        received += target.write(buffer, position + received);
+                    }
+                }
+            } finally {
+                bufferPool.release(buffer);
+            }
+        }
+        if (exact && received < count) {
+            throw new EOFException("expected " + count + " bytes but received " + received);
+        }
+        NioMetrics.DEFAULT.recordTransfer(received, System.nanoTime() - start);
+        return received;
+    }
+
+    /**
+     * 目标通道能否使用transferTo：非阻塞通道上transferTo会在发送缓冲区满时返回0，只能忙等
+     */
+    private static boolean zeroCopy(WritableByteChannel target) {
+        if (target instanceof FileChannel) {
+            return true;
+        }
+        return target instanceof SelectableChannel && ((SelectableChannel) target).isBlocking();
+    }
+
+    private static long copy(FileChannel source, long position, long count, WritableByteChannel target) throws IOException {
+        BufferPool bufferPool = BufferPool.DEFAULT;
+        ByteBuffer buffer = bufferPool.acquire(BUFFER_SIZE);
+        long copied = 0;
+        try {
+            while (copied < count) {
+                buffer.clear();
+                if (count - copied < buffer.capacity()) {
+                    buffer.limit((int) (count - copied));
+                }
+                int n = source.read(buffer, position + copied);
+                if (n < 0) {
+                    throw new EOFException("file ended at " + (position + copied) + ", expected " + (position + count));
+                }
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    target.write(buffer);
+                }
+                copied += n;
+            }
+        } finally {
+            bufferPool.release(buffer);
+        }
+        return copied;
+    }
+}
@@ -0,0 +1,127 @@
+package club.virgilin;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * FrameDecoder
+ *
+ * @author virgilin
+ * @date 2026/10/18
+ *
+ * 长度前缀（varint）帧解码器，每个连接一个
+ *
+ * TCP是字节流，一次read()可能只读到半个消息，也可能读到好几个消息，
+ * 所以按read()的结果直接打印会把消息拆开或者粘在一起。这里的处理方式：
+ * 1.帧格式：varint长度 + 内容
+ * 2.完整落在本次读缓冲区内的帧：直接调整读缓冲区的position/limit交给回调，零拷贝
+ * 3.跨越两次read()的帧：从缓冲区池申请累积缓冲区，只拷贝这一帧，凑齐后交给回调并归还
+ * 4.长度前缀本身也可能被拆开，用lengthValue/lengthShift保存解析到一半的状态
+ */
+public class FrameDecoder {
+
+    private final BufferPool bufferPool;
+    private final int maxFrameLength;
+
+    /**
+     * 当前帧的长度，-1表示还在读长度前缀
+     */
+    private int frameLength = -1;
+    private int lengthValue;
+    private int lengthShift;
+    private ByteBuffer cumulation;
+
+    public FrameDecoder(BufferPool bufferPool, int maxFrameLength) {
+        this.bufferPool = bufferPool;
+        this.maxFrameLength = maxFrameLength;
+    }
+
+    /**
+     * 解码in中的全部字节，每凑齐一帧回调一次
+     */
+    public void decode(Connection connection, ByteBuffer in, FrameHandler handler) throws IOException {
+        while (!connection.isClosed()) {
+            //1.读长度前缀
+            if (frameLength < 0 && !readLength(in)) {
+                return;
+            }
+            if (cumulation == null && in.remaining() >= frameLength) {
+                //2.整帧都在读缓冲区内：只移动position/limit，不拷贝
+                int limit = in.limit();
+                int end = in.position() + frameLength;
+                frameLength = -1;
+                in.limit(end);
+                try {
+                    handler.onFrame(connection, in);
+                } finally {
+                    in.limit(limit);
+                    in.position(end);
+                }
+            } else if (!accumulate(connection, in, handler)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * 跨read()的帧：拷贝到累积缓冲区
+     *
+     * @return 是否凑齐了一帧
+     */
+    private boolean accumulate(Connection connection, ByteBuffer in, FrameHandler handler) throws IOException {
+        if (cumulation == null) {
+            cumulation = bufferPool.acquire(frameLength);
+            cumulation.limit(frameLength);
+        }
+        int n = Math.min(cumulation.remaining(), in.remaining());
+        int limit = in.limit();
+        in.limit(in.position() + n);
+        cumulation.put(in);
+        in.limit(limit);
+        if (cumulation.hasRemaining()) {
+            return false;
+        }
+        ByteBuffer frame = cumulation;
+        cumulation = null;
+        frameLength = -1;
+        frame.flip();
+        try {
+            handler.onFrame(connection, frame);
+        } finally {
+            bufferPool.release(frame);
+        }
+        return true;
+    }
+
+    private boolean readLength(ByteBuffer in) throws IOException {
+        while (in.hasRemaining()) {
+            byte b = in.get();
+            lengthValue |= (b & 0x7F) << lengthShift;
+            if (b >= 0) {
+                int length = lengthValue;
+                lengthValue = 0;
+                lengthShift = 0;
+                if (length < 0 || length > maxFrameLength) {
+                    throw new IOException("frame length " + (length & 0xFFFFFFFFL) + " exceeds " + maxFrameLength);
+                }
+                frameLength = length;
+                return true;
+            }
+            lengthShift += 7;
+            if (lengthShift >= 35) {
+                throw new IOException("malformed frame length");
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 连接关闭时归还尚未凑齐的累积缓冲区
+     */
+    public void release() {
+        if (cumulation != null) {
+            bufferPool.release(cumulation);
+            cumulation = null;
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package club.virgilin;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * FrameHandler
+ *
+ * @author virgilin
+ * @date 2026/10/18
+ *
+ * 完整帧的回调，在连接所属的EventLoop线程中执行
+ */
+public interface FrameHandler {
+
+    /**
+     * 收到一个完整的帧，帧内容位于frame的position到limit之间
+     * 方法返回后frame会被复用或归还到缓冲区池，需要保留的数据请自行复制
+     */
+    void onFrame(Connection connection, ByteBuffer frame) throws IOException;
+}
@@ -0,0 +1,50 @@
+package club.virgilin;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * FramingHandler
+ *
+ * @author virgilin
+ * @date 2026/10/18
+ *
+ * 在ConnectionHandler之上加一层分帧：每个连接一个FrameDecoder，
+ * 只把完整的帧交给FrameHandler。
+ */
+public class FramingHandler implements ConnectionHandler {
+
+    public static final int DEFAULT_MAX_FRAME_LENGTH = 16 * 1024 * 1024;
+
+    private final FrameHandler frameHandler;
+    private final BufferPool bufferPool;
+    private final int maxFrameLength;
+
+    public FramingHandler(FrameHandler frameHandler) {
+        this(frameHandler, BufferPool.DEFAULT, DEFAULT_MAX_FRAME_LENGTH);
+    }
+
+    public FramingHandler(FrameHandler frameHandler, BufferPool bufferPool, int maxFrameLength) {
+        this.frameHandler = frameHandler;
+        this.bufferPool = bufferPool;
+        this.maxFrameLength = maxFrameLength;
+    }
+
+    @Override
+    public void onOpen(Connection connection) throws IOException {
+        connection.attach(new FrameDecoder(bufferPool, maxFrameLength));
+    }
+
+    @Override
+    public void onRead(Connection connection, ByteBuffer buffer) throws IOException {
+        ((FrameDecoder) connection.attachment()).decode(connection, buffer, frameHandler);
+    }
+
+    @Override
+    public void onClose(Connection connection) {
+        Object decoder = connection.attachment();
+        if (decoder instanceof FrameDecoder) {
+            ((FrameDecoder) decoder).release();
+        }
+    }
+}
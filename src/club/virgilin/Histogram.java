@@ -0,0 +1,196 @@
+package club.virgilin;
+
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram
+ *
+ * @author virgilin
+ * @date 2026/10/18
+ *
+ * 对数-线性分桶的直方图（HdrHistogram的简化版），记录非负的long值，例如纳秒、字节数
+ *
+ * 一、分桶
+ * 1.0 ~ 63每个值一个桶
+ * 2.更大的值按2的幂分段，每段再等分成32个桶，所以任何值的相对误差不超过1/32（约3%）
+ * 3.覆盖整个long的范围只需要1888个桶，不需要事先知道最大值
+ *
+ * 二、记录
+ * record()只做一次数组下标计算和几次写入，不分配对象，可以在select循环里调用
+ * 1.多线程写（默认）：计数原子自增，最大值CAS，多个线程同时写同一个桶时会在缓存行上竞争
+ * 2.单线程写（new Histogram(true)）：只有一个线程调用record()，普通读 + setRelease写，
+ *   没有带lock前缀的原子指令；例如每个EventLoop一份，读取时用snapshot(Iterable)合并
+ *
+ * 三、读取
+ * snapshot()复制一份计数，之后的百分位计算都在快照上进行；读取时有记录发生，快照可能略有出入
+ */
+public class Histogram {
+
+    private static final int SUB_BITS = 5;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    private static final int BUCKET_COUNT = index(Long.MAX_VALUE) + 1;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+    private final boolean singleWriter;
+
+    public Histogram() {
+        this(false);
+    }
+
+    /**
+     * @param singleWriter 是否只有一个线程调用record()和reset()
+     */
+    public Histogram(boolean singleWriter) {
+        this.singleWriter = singleWriter;
+    }
+
+    /**
+     * 记录一个值，负数按0记录
+     */
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        int index = index(value);
+        if (singleWriter) {
+            //没有别的线程写，读-改-写不会丢失更新，setRelease保证读取线程看到的是完整的值
+            counts.setRelease(index, counts.getPlain(index) + 1);
+            sum.setRelease(sum.getPlain() + value);
+            if (value > max.getPlain()) {
+                max.setRelease(value);
+            }
+            return;
+        }
+        counts.incrementAndGet(index);
+        sum.addAndGet(value);
+        long current = max.get();
+        while (value > current && !max.compareAndSet(current, value)) {
+            current = max.get();
+        }
+    }
+
+    static int index(long value) {
+        int shift = Math.max(0, 63 - Long.numberOfLeadingZeros(value) - SUB_BITS);
+        return (shift << SUB_BITS) + (int) (value >>> shift);
+    }
+
+    /**
+     * 桶中最大的值
+     */
+    static long highestValue(int index) {
+        if (index < 2 * SUB_COUNT) {
+            return index;
+        }
+        int shift = (index >> SUB_BITS) - 1;
+        long top = index - ((long) shift << SUB_BITS);
+        return ((top + 1) << shift) - 1;
+    }
+
+    public Snapshot snapshot() {
+        return snapshot(Collections.singletonList(this));
+    }
+
+    /**
+     * 把几个直方图合并成一个快照，例如每个线程一份的单线程写直方图
+     */
+    public static Snapshot snapshot(Iterable<Histogram> histograms) {
+        long[] copy = new long[BUCKET_COUNT];
+        long count = 0;
+        long sum = 0;
+        long max = 0;
+        for (Histogram histogram : histograms) {
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                long n = histogram.counts.get(i);
+                copy[i] += n;
+                count += n;
+            }
+            sum += histogram.sum.get();
+            max = Math.max(max, histogram.max.get());
+        }
+        return new Snapshot(copy, count, sum, max);
+    }
+
+    /**
+     * 把other的记录加到这个直方图上，other此时不应再有写入；单线程写的直方图只能在写入线程中调用
+     */
+    public void add(Histogram other) {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            long n = other.counts.get(i);
+            if (n != 0) {
+                counts.addAndGet(i, n);
+            }
+        }
+        sum.addAndGet(other.sum.get());
+        long value = other.max.get();
+        long current = max.get();
+        while (value > current && !max.compareAndSet(current, value)) {
+            current = max.get();
+        }
+    }
+
+    /**
+     * 清零，用于按周期统计；单线程写的直方图只能在写入线程中调用
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts.set(i, 0);
+        }
+        sum.set(0);
+        max.set(0);
+    }
+
+    public static final class Snapshot {
+
+        private final long[] counts;
+        private final long count;
+        private final long sum;
+        private final long max;
+
+        private Snapshot(long[] counts, long count, long sum, long max) {
+            this.counts = counts;
+            this.count = count;
+            this.sum = sum;
+            this.max = max;
+        }
+
+        public long count() {
+            return count;
+        }
+
+        public long max() {
+            return max;
+        }
+
+        public double mean() {
+            return count == 0 ? 0 : (double) sum / count;
+        }
+
+        /**
+         * 百分位数，例如percentile(99.9)；返回所在桶的上界，不超过记录过的最大值
+         */
+        public long percentile(double percentile) {
+            if (count == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return Math.min(highestValue(i), max);
+                }
+            }
+            return max;
+        }
+
+        @Override
+        public String toString() {
+            return "count=" + count + " mean=" + Math.round(mean()) + " p50=" + percentile(50) + " p90=" + percentile(90)
+                    + " p99=" + percentile(99) + " p99.9=" + percentile(99.9) + " max=" + max;
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package club.virgilin;
+
+/**
+ * IdleState
+ *
+ * @author virgilin
+ * @date 2026/10/18
+ *
+ * 连接空闲的类型，见Connection.setIdleTimeouts()
+ */
+public enum IdleState {
+
+    /**
+     * 一段时间内没有读到数据
+     */
+    READER_IDLE,
+
+    /**
+     * 一段时间内没有写数据
+     */
+    WRITER_IDLE,
+
+    /**
+     * 一段时间内既没有读也没有写
+     */
+    ALL_IDLE
+}
@@ -0,0 +1,40 @@
+package club.virgilin;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * IoUtils
+ *
+ * @author virgilin
+ * @date 2026/10/18
+ *
+ * 阻塞通道上的“读满/写完”：一次read()/write()只保证传输了一部分字节
+ */
+final class IoUtils {
+
+    private IoUtils() {
+    }
+
+    /**
+     * 读满buffer的剩余空间
+     *
+     * @throws EOFException 通道提前结束
+     */
+    static void readFully(ReadableByteChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                throw new EOFException("channel closed with " + buffer.remaining() + " bytes remaining");
+            }
+        }
+    }
+
+    static void writeFully(WritableByteChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+}
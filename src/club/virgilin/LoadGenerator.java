@@ -0,0 +1,634 @@
+package club.virgilin;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * LoadGenerator
+ *
+ * @author virgilin
+ * @date 2026/10/18
+ *
+ * 非阻塞的压测客户端：少量线程、每个线程一个选择器，驱动成千上万个并发连接，按固定速率发送消息并统计延迟
+ *
+ * 一、开环调度（避免协同遗漏）
+ * 1.每个连接的第k条消息的计划发送时间 = 开始时间 + 相位 + k × 间隔，与上一条消息何时得到响应无关
+ * 2.延迟 = 收到响应的时间 - 计划发送时间，不是实际发送时间
+ * 闭环压测（收到响应才发下一条）在服务端卡顿时会自动停止发送，卡顿期间本该发出的请求一条都没有被测量，
+ * 百分位数因此好看得不真实。开环调度下，服务端卡顿1秒，这1秒内计划的每一条消息都会带着排队时间计入直方图；
+ * 压测线程自己落后时也一样，落后的时间单独记在sendLag中，可以据此判断是服务端慢还是压测端跟不上。
+ *
+ * 二、TCP
+ * 服务端原样回显（例如TestNonBlockingNIO.echoServer()），每收回messageSize个字节就完成队首的一条请求，
+ * 消息内容不需要带任何编号。一个连接积压（已计划未写出）超过MAX_PENDING_BYTES时，之后的消息记为skipped，
+ * 不再无限制地占用内存。
+ *
+ * 三、UDP
+ * 每条消息一个数据报，开头8个字节是计划发送时间。服务端回显时按这个时间计算延迟；
+ * 不回显时（DatagramIngestEngine）只统计发送量、发送缓冲区满时丢掉的（skipped）和sendLag。
+ *
+ * 四、统计
+ * 预热期间发出的消息不计入结果；测量结束后不再发送，最多等待DRAIN_TIMEOUT收回已发出消息的响应，
+ * 仍然没有响应的记为unanswered。服务端卡顿时它们正是最慢的请求，TCP下按等到最后的时间计入延迟，
+ * 百分位数不会丢掉尾部；UDP不保存每条消息的计划时间，没有响应的数据报不计入延迟。
+ * skipped的消息根本没有发出，也不计入延迟，结果中会注明百分位数排除了多少条。
+ *
+ * 连接数很大时需要调大ulimit -n（压测端和服务端各需要connections个文件描述符）。
+ */
+public class LoadGenerator {
+
+    /**
+     * 一个连接已计划但还没写出的最大字节数
+     */
+    public static final int MAX_PENDING_BYTES = 1024 * 1024;
+
+    private static final int MAX_OUTSTANDING = 1 << 16;
+    private static final int BURST_SIZE = 64 * 1024;
+    private static final long CONNECT_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(10);
+    private static final long DRAIN_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(2);
+    private static final long START_DELAY_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private final InetSocketAddress target;
+    private final LoadProtocol protocol;
+    private final int connections;
+    private final int messageSize;
+    private final long messagesPerSecond;
+    private final int threads;
+
+    /**
+     * @param connections       并发连接数
+     * @param messageSize       每条消息的字节数，UDP时是数据报大小，不能小于8
+     * @param messagesPerSecond 所有连接合计的发送速率
+     * @param threads           压测线程数，连接平均分到每个线程
+     */
+    public LoadGenerator(InetSocketAddress target, LoadProtocol protocol, int connections, int messageSize,
+                         long messagesPerSecond, int threads) {
+        if (connections <= 0 || messagesPerSecond <= 0 || threads <= 0 || threads > connections) {
+            throw new IllegalArgumentException("connections: " + connections + ", messagesPerSecond: "
+                    + messagesPerSecond + ", threads: " + threads);
+        }
+        if (messageSize <= 0 || protocol == LoadProtocol.UDP && (messageSize < 8 || messageSize > 65507)) {
+            throw new IllegalArgumentException("messageSize: " + messageSize);
+        }
+        this.target = target;
+        this.protocol = protocol;
+        this.connections = connections;
+        this.messageSize = messageSize;
+        this.messagesPerSecond = messagesPerSecond;
+        this.threads = threads;
+    }
+
+    /**
+     * 建立所有连接，预热warmup后测量duration
+     */
+    public Result run(long warmup, long duration, TimeUnit unit) throws IOException, InterruptedException {
+        //每个连接的发送间隔：所有连接合起来是messagesPerSecond
+        long interval = Math.max(1, Math.round(1e9 * connections / messagesPerSecond));
+        ByteBuffer burst = ByteBuffer.allocateDirect(messageSize * Math.max(1, BURST_SIZE / messageSize));
+        CountDownLatch connected = new CountDownLatch(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        Stats stats = new Stats();
+        Worker[] workers = new Worker[threads];
+        Thread[] workerThreads = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            workers[i] = new Worker(i, interval, burst.duplicate(), stats, connected, start);
+            workerThreads[i] = new Thread(workers[i], "load-" + i);
+            workerThreads[i].start();
+        }
+        connected.await();
+        long startAt = System.nanoTime() + START_DELAY_NANOS;
+        stats.measureAt = startAt + unit.toNanos(warmup);
+        stats.endAt = stats.measureAt + unit.toNanos(duration);
+        stats.startAt = startAt;
+        start.countDown();
+        for (Thread thread : workerThreads) {
+            thread.join();
+        }
+        for (Worker worker : workers) {
+            if (worker.failure != null) {
+                throw worker.failure;
+            }
+        }
+        return new Result(workers, protocol, unit.toNanos(duration));
+    }
+
+    private static final class Stats {
+        /**
+         * 由start的countDown()发布给压测线程
+         */
+        private long startAt;
+        private long measureAt;
+        private long endAt;
+    }
+
+    /**
+     * 一个压测线程，负责下标为index, index + threads, index + 2 × threads, ...的连接
+     */
+    private final class Worker implements Runnable {
+
+        private final int index;
+        private final long interval;
+        private final ByteBuffer burst;
+        private final Stats stats;
+        private final CountDownLatch connected;
+        private final CountDownLatch start;
+        private final ByteBuffer sink = ByteBuffer.allocateDirect(64 * 1024);
+        private final ByteBuffer datagram;
+        private final List<Client> clients = new ArrayList<>();
+        private final PriorityQueue<Client> schedule = new PriorityQueue<>(
+                Comparator.comparingLong((Client client) -> client.nextSendAt));
+        /**
+         * 每个压测线程一份，只有自己写，记录时不和其他压测线程竞争，不给测量结果添加压测端的噪声
+         */
+        private final Histogram latency = new Histogram(true);
+        private final Histogram sendLag = new Histogram(true);
+        private Selector selector;
+
+        private int established;
+        private long sent;
+        private long received;
+        private long skipped;
+        private long errors;
+        private IOException failure;
+
+        Worker(int index, long interval, ByteBuffer burst, Stats stats, CountDownLatch connected, CountDownLatch start) {
+            this.index = index;
+            this.interval = interval;
+            this.burst = burst;
+            this.stats = stats;
+            this.connected = connected;
+            this.start = start;
+            this.datagram = protocol == LoadProtocol.UDP ? ByteBuffer.allocateDirect(messageSize) : null;
+        }
+
+        @Override
+        public void run() {
+            try {
+                try {
+                    selector = Selector.open();
+                    connect();
+                } finally {
+                    connected.countDown();
+                }
+                start.await();
+                //1.每个连接的相位错开，合起来是均匀的速率
+                for (Client client : clients) {
+                    if (client.open) {
+                        client.nextSendAt = stats.startAt + interval * client.id / connections;
+                        schedule.add(client);
+                    }
+                }
+                //2.按计划发送，直到测量结束
+                generate();
+                //3.收回已发出消息的响应
+                drain();
+            } catch (IOException e) {
+                failure = e;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                for (Client client : clients) {
+                    client.close();
+                }
+                if (selector != null) {
+                    try {
+                        selector.close();
+                    } catch (IOException e) {
+                        //已经结束了
+                    }
+                }
+            }
+        }
+
+        private void connect() throws IOException {
+            int pending = 0;
+            for (int id = index; id < connections; id += threads) {
+                Client client;
+                if (protocol == LoadProtocol.TCP) {
+                    SocketChannel channel = SocketChannel.open();
+                    channel.configureBlocking(false);
+                    channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                    client = new Client(id, channel);
+                    clients.add(client);
+                    try {
+                        if (channel.connect(target)) {
+                            client.key = channel.register(selector, SelectionKey.OP_READ, client);
+                            established++;
+                        } else {
+                            client.key = channel.register(selector, SelectionKey.OP_CONNECT, client);
+                            pending++;
+                        }
+                    } catch (IOException e) {
+                        fail(client);
+                    }
+                } else {
+                    DatagramChannel channel = DatagramChannel.open();
+                    channel.configureBlocking(false);
+                    client = new Client(id, channel);
+                    clients.add(client);
+                    channel.connect(target);
+                    client.key = channel.register(selector, SelectionKey.OP_READ, client);
+                    established++;
+                }
+            }
+            long deadline = System.nanoTime() + CONNECT_TIMEOUT_NANOS;
+            while (pending > 0 && System.nanoTime() - deadline < 0) {
+                selector.select(100);
+                Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+                while (iterator.hasNext()) {
+                    SelectionKey key = iterator.next();
+                    iterator.remove();
+                    Client client = (Client) key.attachment();
+                    if (!key.isValid() || !key.isConnectable()) {
+                        continue;
+                    }
+                    pending--;
+                    try {
+                        ((SocketChannel) client.channel).finishConnect();
+                        key.interestOps(SelectionKey.OP_READ);
+                        established++;
+                    } catch (IOException e) {
+                        fail(client);
+                    }
+                }
+            }
+            //超时还没连上的
+            for (Client client : clients) {
+                if (client.open && client.key != null && (client.key.interestOps() & SelectionKey.OP_CONNECT) != 0) {
+                    fail(client);
+                }
+            }
+        }
+
+        private void generate() throws IOException {
+            long endAt = stats.endAt;
+            while (true) {
+                long now = System.nanoTime();
+                if (now - endAt >= 0 || schedule.isEmpty()) {
+                    return;
+                }
+                //1.发出所有到期的消息；压测线程落后时连续补发，计划时间不变
+                Client client;
+                while ((client = schedule.peek()) != null && now - client.nextSendAt >= 0
+                        && client.nextSendAt - endAt < 0) {
+                    schedule.poll();
+                    long intended = client.nextSendAt;
+                    client.nextSendAt += interval;
+                    send(client, intended, now);
+                    if (client.open) {
+                        schedule.add(client);
+                    }
+                }
+                //2.等到下一条消息的计划时间；不到1毫秒时不阻塞，保证调度精度
+                client = schedule.peek();
+                long wakeAt = client == null || client.nextSendAt - endAt > 0 ? endAt : client.nextSendAt;
+                long waitMillis = TimeUnit.NANOSECONDS.toMillis(wakeAt - System.nanoTime());
+                if (waitMillis > 0) {
+                    selector.select(waitMillis);
+                } else {
+                    selector.selectNow();
+                }
+                processSelectedKeys();
+            }
+        }
+
+        private void drain() throws IOException {
+            long deadline = System.nanoTime() + DRAIN_TIMEOUT_NANOS;
+            while (System.nanoTime() - deadline < 0 && awaitingResponses()) {
+                selector.select(10);
+                processSelectedKeys();
+            }
+            //仍然没有响应的TCP消息（包括中途断开的连接上的）按等到现在的时间计入，它们是卡顿时最慢的请求
+            long now = System.nanoTime();
+            for (Client client : clients) {
+                while (client.outstanding > 0) {
+                    long intended = client.pop();
+                    if (intended - stats.measureAt >= 0) {
+                        latency.record(now - intended);
+                    }
+                }
+            }
+        }
+
+        private boolean awaitingResponses() {
+            if (protocol == LoadProtocol.UDP) {
+                //不知道服务端是否回显，有回显时收齐为止，没有时等到超时
+                return received < sent || sent == 0 && skipped == 0;
+            }
+            for (Client client : clients) {
+                if (client.open && client.outstanding > 0) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private void processSelectedKeys() {
+            Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+            while (iterator.hasNext()) {
+                SelectionKey key = iterator.next();
+                iterator.remove();
+                Client client = (Client) key.attachment();
+                try {
+                    if (key.isValid() && key.isReadable()) {
+                        read(client);
+                    }
+                    if (key.isValid() && key.isWritable()) {
+                        flush(client);
+                    }
+                } catch (IOException e) {
+                    fail(client);
+                }
+            }
+        }
+
+        private void send(Client client, long intended, long now) {
+            boolean measured = intended - stats.measureAt >= 0;
+            if (measured) {
+                sendLag.record(now - intended);
+            }
+            try {
+                if (protocol == LoadProtocol.UDP) {
+                    datagram.clear();
+                    datagram.putLong(0, intended);
+                    if (((DatagramChannel) client.channel).write(datagram) == 0) {
+                        //发送缓冲区满，UDP没有背压，直接丢掉
+                        skipped += measured ? 1 : 0;
+                    } else {
+                        sent += measured ? 1 : 0;
+                    }
+                    return;
+                }
+                if (client.outstanding == MAX_OUTSTANDING || client.pendingBytes >= MAX_PENDING_BYTES) {
+                    skipped += measured ? 1 : 0;
+                    return;
+                }
+                client.push(intended);
+                client.pendingBytes += messageSize;
+                sent += measured ? 1 : 0;
+                flush(client);
+            } catch (IOException e) {
+                fail(client);
+            }
+        }
+
+        /**
+         * 写出积压的字节，消息内容都一样，从burst中与流偏移对齐的位置开始写
+         */
+        private void flush(Client client) throws IOException {
+            SocketChannel channel = (SocketChannel) client.channel;
+            while (client.pendingBytes > 0) {
+                int offset = (int) (client.bytesWritten % messageSize);
+                burst.limit(burst.capacity()).position(offset);
+                burst.limit((int) Math.min(burst.capacity(), offset + client.pendingBytes));
+                int n = channel.write(burst);
+                client.bytesWritten += n;
+                client.pendingBytes -= n;
+                if (burst.hasRemaining()) {
+                    break;
+                }
+            }
+            int ops = client.pendingBytes > 0 ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ;
+            if (client.key.interestOps() != ops) {
+                client.key.interestOps(ops);
+            }
+        }
+
+        private void read(Client client) throws IOException {
+            if (protocol == LoadProtocol.UDP) {
+                DatagramChannel channel = (DatagramChannel) client.channel;
+                while (true) {
+                    sink.clear();
+                    if (channel.read(sink) <= 0) {
+                        return;
+                    }
+                    if (sink.position() >= 8) {
+                        recordResponse(sink.getLong(0), System.nanoTime());
+                    }
+                }
+            }
+            SocketChannel channel = (SocketChannel) client.channel;
+            while (true) {
+                sink.clear();
+                int n = channel.read(sink);
+                if (n < 0) {
+                    throw new IOException("connection closed by server");
+                }
+                if (n == 0) {
+                    return;
+                }
+                long completed = (client.bytesRead + n) / messageSize - client.bytesRead / messageSize;
+                client.bytesRead += n;
+                if (completed > client.outstanding) {
+                    throw new IOException("server sent more bytes than requested");
+                }
+                long now = System.nanoTime();
+                for (long i = 0; i < completed; i++) {
+                    recordResponse(client.pop(), now);
+                }
+                if (n < sink.capacity()) {
+                    return;
+                }
+            }
+        }
+
+        private void recordResponse(long intended, long now) {
+            if (intended - stats.measureAt >= 0) {
+                latency.record(now - intended);
+                received++;
+            }
+        }
+
+        private void fail(Client client) {
+            if (client.open) {
+                errors++;
+                client.close();
+            }
+        }
+    }
+
+    /**
+     * 一个连接
+     */
+    private static final class Client {
+
+        private final int id;
+        private final SelectableChannel channel;
+        private SelectionKey key;
+        private boolean open = true;
+        private long nextSendAt;
+
+        /**
+         * TCP：已计划、还没收到响应的消息的计划发送时间，环形队列
+         */
+        private long[] intended = new long[16];
+        private int head;
+        private int outstanding;
+        private long pendingBytes;
+        private long bytesWritten;
+        private long bytesRead;
+
+        Client(int id, SelectableChannel channel) {
+            this.id = id;
+            this.channel = channel;
+        }
+
+        void push(long time) {
+            if (outstanding == intended.length) {
+                long[] grown = new long[intended.length << 1];
+                for (int i = 0; i < outstanding; i++) {
+                    grown[i] = intended[(head + i) & (intended.length - 1)];
+                }
+                intended = grown;
+                head = 0;
+            }
+            intended[(head + outstanding) & (intended.length - 1)] = time;
+            outstanding++;
+        }
+
+        long pop() {
+            long time = intended[head];
+            head = (head + 1) & (intended.length - 1);
+            outstanding--;
+            return time;
+        }
+
+        void close() {
+            open = false;
+            try {
+                channel.close();
+            } catch (IOException e) {
+                //只是统计用的连接
+            }
+        }
+    }
+
+    /**
+     * 测量期间的结果
+     */
+    public static final class Result {
+
+        private final Histogram.Snapshot latency;
+        private final Histogram.Snapshot sendLag;
+        private final long durationNanos;
+        private int connections;
+        private long sent;
+        private long received;
+        private long skipped;
+        private long errors;
+        /**
+         * 没有计入延迟的消息数
+         */
+        private final long excluded;
+
+        /**
+         * 压测线程都结束后合并它们的直方图和计数
+         */
+        private Result(Worker[] workers, LoadProtocol protocol, long durationNanos) {
+            List<Histogram> latencies = new ArrayList<>(workers.length);
+            List<Histogram> sendLags = new ArrayList<>(workers.length);
+            for (Worker worker : workers) {
+                latencies.add(worker.latency);
+                sendLags.add(worker.sendLag);
+                connections += worker.established;
+                sent += worker.sent;
+                received += worker.received;
+                skipped += worker.skipped;
+                errors += worker.errors;
+            }
+            this.latency = Histogram.snapshot(latencies);
+            this.sendLag = Histogram.snapshot(sendLags);
+            this.durationNanos = durationNanos;
+            this.excluded = protocol == LoadProtocol.UDP ? skipped + sent - received : skipped;
+        }
+
+        /**
+         * 响应延迟（纳秒），从计划发送时间算起；TCP没有响应的消息按等到测量结束的时间计入，
+         * 不包括excluded()条消息
+         */
+        public Histogram.Snapshot latency() {
+            return latency;
+        }
+
+        /**
+         * 实际开始发送比计划晚了多少（纳秒），反映压测线程自己是否跟得上
+         */
+        public Histogram.Snapshot sendLag() {
+            return sendLag;
+        }
+
+        public int connections() {
+            return connections;
+        }
+
+        public long sent() {
+            return sent;
+        }
+
+        public long received() {
+            return received;
+        }
+
+        /**
+         * 积压太多（TCP）或发送缓冲区满（UDP）而没有发出的消息
+         */
+        public long skipped() {
+            return skipped;
+        }
+
+        /**
+         * 发出了但没有收到响应的消息
+         */
+        public long unanswered() {
+            return sent - received;
+        }
+
+        /**
+         * 没有计入latency()的消息数：skipped，以及UDP下没有响应的数据报
+         */
+        public long excluded() {
+            return excluded;
+        }
+
+        /**
+         * 连接失败或中途断开的连接数
+         */
+        public long errors() {
+            return errors;
+        }
+
+        /**
+         * 每秒收到的响应数
+         */
+        public double throughput() {
+            return received * 1e9 / durationNanos;
+        }
+
+        @Override
+        public String toString() {
+            return "connections=" + connections + " sent=" + sent + " received=" + received + " skipped=" + skipped
+                    + " unanswered=" + unanswered() + " errors=" + errors + " throughput=" + Math.round(throughput())
+                    + "/s\n  latency(us): " + micros(latency) + (excluded > 0 ? " (excludes " + excluded + " messages)" : "")
+                    + "\n  sendLag(us): " + micros(sendLag);
+        }
+
+        private static String micros(Histogram.Snapshot snapshot) {
+            return "p50=" + snapshot.percentile(50) / 1000 + " p99=" + snapshot.percentile(99) / 1000
+                    + " p99.9=" + snapshot.percentile(99.9) / 1000 + " max=" + snapshot.max() / 1000;
+        }
+    }
+}
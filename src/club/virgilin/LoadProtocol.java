@@ -0,0 +1,23 @@
+package club.virgilin;
+
+/**
+ * LoadProtocol
+ *
+ * @author virgilin
+ * @date 2026/10/18
+ *
+ * LoadGenerator使用的传输方式
+ */
+public enum LoadProtocol {
+
+    /**
+     * 每个连接一个SocketChannel，服务端原样回显，按字节数把回显对应到请求
+     */
+    TCP,
+
+    /**
+     * 每个连接一个已连接的DatagramChannel，每条消息一个数据报，开头8个字节是计划发送时间；
+     * 服务端回显时统计延迟，不回显时（例如DatagramIngestEngine）只统计发送
+     */
+    UDP
+}
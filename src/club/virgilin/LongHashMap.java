@@ -0,0 +1,112 @@
+package club.virgilin;
+
+/**
+ * LongHashMap
+ *
+ * @author virgilin
+ * @date 2026/10/18
+ *
+ * 以long为键的开放寻址哈希表
+ *
+ * 一、和HashMap<Long, V>相比
+ * 1.键直接存在long[]中，查找时不装箱，也没有Entry对象
+ * 2.线性探测，冲突时访问的是相邻的数组元素，对缓存友好
+ *
+ * 二、值不能为null，null表示空槽；不支持删除
+ *
+ * 三、不是线程安全的；构建完成后不再修改，就可以在多个线程中同时读取
+ */
+public class LongHashMap<V> {
+
+    private long[] keys;
+    private Object[] values;
+    private int mask;
+    private int size;
+
+    public LongHashMap() {
+        this(16);
+    }
+
+    public LongHashMap(int expectedSize) {
+        //装载因子不超过0.5
+        int capacity = Integer.highestOneBit(Math.max(4, expectedSize) * 2 - 1) << 1;
+        keys = new long[capacity];
+        values = new Object[capacity];
+        mask = capacity - 1;
+    }
+
+    private static int hash(long key) {
+        //MurmurHash3的fmix64，让相近的键分散开
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return (int) key;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(long key) {
+        for (int i = hash(key) & mask; ; i = (i + 1) & mask) {
+            Object value = values[i];
+            if (value == null) {
+                return null;
+            }
+            if (keys[i] == key) {
+                return (V) value;
+            }
+        }
+    }
+
+    /**
+     * @return 原来的值，没有返回null
+     */
+    @SuppressWarnings("unchecked")
+    public V put(long key, V value) {
+        if (value == null) {
+            throw new NullPointerException("value");
+        }
+        for (int i = hash(key) & mask; ; i = (i + 1) & mask) {
+            Object previous = values[i];
+            if (previous == null) {
+                keys[i] = key;
+                values[i] = value;
+                if (++size * 2 > keys.length) {
+                    rehash();
+                }
+                return null;
+            }
+            if (keys[i] == key) {
+                values[i] = value;
+                return (V) previous;
+            }
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private void rehash() {
+        long[] oldKeys = keys;
+        Object[] oldValues = values;
+        keys = new long[oldKeys.length << 1];
+        values = new Object[oldValues.length << 1];
+        mask = keys.length - 1;
+        for (int j = 0; j < oldKeys.length; j++) {
+            if (oldValues[j] != null) {
+                int i = hash(oldKeys[j]) & mask;
+                while (values[i] != null) {
+                    i = (i + 1) & mask;
+                }
+                keys[i] = oldKeys[j];
+                values[i] = oldValues[j];
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "LongHashMap{size=" + size + ", capacity=" + keys.length + "}";
+    }
+}
@@ -0,0 +1,91 @@
+package club.virgilin;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * MappedFileCopier
+ *
+ * @author virgilin
+ * @date 2026/10/18
+ *
+ * 按窗口滑动的内存映射文件复制
+ *
+ * TestChannel.test2()一次映射整个文件，再拷贝到同样大小的byte[]：
+ * 1.单个MappedByteBuffer最大只能映射Integer.MAX_VALUE个字节，超过2GB的文件直接失败
+ * 2.堆上多占用一份文件大小的内存
+ *
+ * 这里的做法：
+ * 1.输入、输出文件都按固定窗口（默认128MB）逐段映射
+ * 2.映射缓冲区之间直接put()，由JVM做内存到内存的拷贝，不经过中间数组
+ * 3.每个窗口复制完立即解除映射，地址空间不随文件增长
+ * 4.可选每个窗口复制完后force()，把脏页写回磁盘，避免最后集中刷盘
+ */
+public class MappedFileCopier {
+
+    public static final long DEFAULT_WINDOW_SIZE = 128L * 1024 * 1024;
+
+    private final long windowSize;
+    private final boolean force;
+
+    public MappedFileCopier() {
+        this(DEFAULT_WINDOW_SIZE, false);
+    }
+
+    /**
+     * @param windowSize 每次映射的字节数，建议64MB~256MB
+     * @param force      每个窗口复制完后是否强制写回磁盘
+     */
+    public MappedFileCopier(long windowSize, boolean force) {
+        if (windowSize <= 0 || windowSize > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("windowSize: " + windowSize);
+        }
+        this.windowSize = windowSize;
+        this.force = force;
+    }
+
+    /**
+     * 复制整个文件，目标文件已存在时覆盖
+     *
+     * @return 复制的字节数
+     */
+    public long copy(Path source, Path target) throws IOException {
+        try (FileChannel inChannel = FileChannel.open(source, StandardOpenOption.READ);
+             FileChannel outChannel = FileChannel.open(target, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                     StandardOpenOption.CREATE)) {
+            long size = inChannel.size();
+            if (outChannel.size() > size) {
+                outChannel.truncate(size);
+            }
+            copy(inChannel, 0, size, outChannel, 0);
+            return size;
+        }
+    }
+
+    /**
+     * 把inChannel的[position, position + count)复制到outChannel的outPosition处
+     * outChannel必须以READ和WRITE方式打开，长度不够时映射会自动扩展文件
+     */
+    public void copy(FileChannel inChannel, long position, long count, FileChannel outChannel, long outPosition) throws IOException {
+        long copied = 0;
+        while (copied < count) {
+            long length = Math.min(windowSize, count - copied);
+            MappedByteBuffer inMappedBuf = inChannel.map(FileChannel.MapMode.READ_ONLY, position + copied, length);
+            MappedByteBuffer outMappedBuf = null;
+            try {
+                outMappedBuf = outChannel.map(FileChannel.MapMode.READ_WRITE, outPosition + copied, length);
+                outMappedBuf.put(inMappedBuf);
+                if (force) {
+                    outMappedBuf.force();
+                }
+            } finally {
+                DirectBuffers.free(inMappedBuf);
+                DirectBuffers.free(outMappedBuf);
+            }
+            copied += length;
+        }
+    }
+}
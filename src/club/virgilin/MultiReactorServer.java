@@ -0,0 +1,138 @@
+package club.virgilin;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+
+/**
+ * MultiReactorServer
+ *
+ * @author virgilin
+ * @date 2026/10/18
+ *
+ * 主从Reactor（boss/worker）模式的非阻塞服务端
+ *
+ * TestNonBlockingNIO.server()在一个线程的一个选择器上完成accept和所有读事件，吞吐量受限于单核。
+ * 这里把两类事件拆开：
+ * 1.boss线程：持有一个选择器，只监听OP_ACCEPT
+ * 2.worker线程（EventLoop）：默认每个CPU核一个，各自持有选择器，负责连接的读写
+ * 3.boss接收到连接后按轮询方式交给worker，由worker线程完成注册
+ */
+public class MultiReactorServer implements Closeable {
+
+    private final InetSocketAddress address;
+    private final EventLoop[] workers;
+    private ServerSocketChannel serverSocketChannel;
+    private Selector selector;
+    private Thread bossThread;
+    private volatile boolean running;
+    private int next;
+
+    public MultiReactorServer(int port, ConnectionHandler handler) throws IOException {
+        this(new InetSocketAddress(port), Runtime.getRuntime().availableProcessors(), handler);
+    }
+
+    public MultiReactorServer(InetSocketAddress address, int workerCount, ConnectionHandler handler) throws IOException {
+        this(address, workerCount, handler, BufferPool.DEFAULT, 1024);
+    }
+
+    public MultiReactorServer(InetSocketAddress address, int workerCount, ConnectionHandler handler,
+                              BufferPool bufferPool, int readBufferSize) throws IOException {
+        if (workerCount <= 0) {
+            throw new IllegalArgumentException("workerCount: " + workerCount);
+        }
+        this.address = address;
+        this.workers = new EventLoop[workerCount];
+        for (int i = 0; i < workerCount; i++) {
+            workers[i] = new EventLoop("nio-worker-" + i, handler, bufferPool, readBufferSize);
+        }
+    }
+
+    public void start() throws IOException {
+        //1.启动worker
+        for (EventLoop worker : workers) {
+            worker.start();
+        }
+        //2.获取通道，切换非阻塞模式并绑定端口号
+        serverSocketChannel = ServerSocketChannel.open();
+        serverSocketChannel.configureBlocking(false);
+        serverSocketChannel.bind(address, 1024);
+        //3.boss选择器只监听“接收事件”
+        selector = Selector.open();
+        serverSocketChannel.register(selector, SelectionKey.OP_ACCEPT);
+        running = true;
+        bossThread = new Thread(this::runBoss, "nio-boss");
+        bossThread.start();
+    }
+
+    /**
+     * 实际绑定的端口号（绑定0端口时由系统分配）
+     */
+    public int port() throws IOException {
+        return ((InetSocketAddress) serverSocketChannel.getLocalAddress()).getPort();
+    }
+
+    private void runBoss() {
+        try {
+            while (running) {
+                selector.select();
+                Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+                while (iterator.hasNext()) {
+                    SelectionKey selectionKey = iterator.next();
+                    iterator.remove();
+                    if (selectionKey.isAcceptable()) {
+                        try {
+                            accept();
+                        } catch (IOException e) {
+                            //例如文件描述符耗尽，不能让boss线程退出
+                            e.printStackTrace();
+                        }
+                    }
+                }
+            }
+        } catch (IOException | ClosedSelectorException e) {
+            if (running) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private void accept() throws IOException {
+        //一次就绪事件中尽量接收完所有排队的连接
+        SocketChannel socketChannel;
+        while ((socketChannel = serverSocketChannel.accept()) != null) {
+            EventLoop worker = workers[next];
+            next = next + 1 == workers.length ? 0 : next + 1;
+            worker.register(socketChannel);
+        }
+    }
+
+    public void join() throws InterruptedException {
+        if (bossThread != null) {
+            bossThread.join();
+        }
+        for (EventLoop worker : workers) {
+            worker.join();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        running = false;
+        if (selector != null) {
+            selector.close();
+        }
+        if (serverSocketChannel != null) {
+            serverSocketChannel.close();
+        }
+        for (EventLoop worker : workers) {
+            worker.close();
+        }
+    }
+}
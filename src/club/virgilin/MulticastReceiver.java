@@ -0,0 +1,213 @@
+package club.virgilin;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.FileChannel;
+import java.nio.channels.MembershipKey;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.BitSet;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * MulticastReceiver
+ *
+ * @author virgilin
+ * @date 2026/10/18
+ *
+ * 机顶盒端的组播接收，协议见MulticastSender
+ *
+ * 一、接收
+ * 1.每个DATA包按序号直接写到文件的对应位置（定位写），乱序、重复都没关系，位图记录哪些序号已经收到
+ * 2.收全之后回复DONE
+ *
+ * 二、NACK
+ * 1.每隔NACK_INTERVAL检查一次缺失的序号，用位图汇总成尽量少的NACK包，单播发给服务端
+ * 2.只汇报上一次检查时就已经收到过更大序号的空洞，刚出现的空洞可能只是乱序，等下一次检查再说
+ * 3.收到END之后，序号一直到最后一个包的缺失都要汇报
+ * 4.每次最多发送MAX_NACKS个NACK包，缺得太多时分几次汇报，不会反过来冲垮服务端
+ */
+public class MulticastReceiver implements Closeable {
+
+    private static final long NACK_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(20);
+    private static final int MAX_NACKS = 4;
+    private static final int NACK_HEADER_SIZE = 1 + 4 + 4;
+
+    private final DatagramChannel channel;
+    private final MembershipKey membership;
+    private final Selector selector;
+    private final ByteBuffer packet = ByteBuffer.allocateDirect(64 * 1024);
+    private final ByteBuffer control = ByteBuffer.allocateDirect(DatagramSender.DEFAULT_MTU);
+    private final long receiverId = ThreadLocalRandom.current().nextLong();
+
+    private long packetsReceived;
+    private long duplicates;
+    private long nacksSent;
+
+    /**
+     * @param group            组播地址和端口
+     * @param networkInterface 加入组播组的网卡
+     */
+    public MulticastReceiver(InetSocketAddress group, NetworkInterface networkInterface) throws IOException {
+        this.channel = DatagramChannel.open(StandardProtocolFamily.INET);
+        try {
+            //同一台机器上的多个接收方绑定同一个端口
+            channel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+            channel.setOption(StandardSocketOptions.SO_RCVBUF, 8 * 1024 * 1024);
+            channel.bind(new InetSocketAddress(group.getPort()));
+            this.membership = channel.join(group.getAddress(), networkInterface);
+            channel.configureBlocking(false);
+            this.selector = Selector.open();
+            channel.register(selector, SelectionKey.OP_READ);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * 接收一个会话的文件，写入target
+     *
+     * @return 是否收全；超时返回false，target中已收到的部分保留
+     */
+    public boolean receive(int session, FileChannel target, long timeout, TimeUnit unit) throws IOException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        BitSet received = null;
+        int receivedCount = 0;
+        int packets = -1;
+        long length = 0;
+        int payloadSize = 0;
+        SocketAddress sender = null;
+        int highest = -1;
+        int highestAtLastCheck = -1;
+        boolean endSeen = false;
+        long nextNackAt = System.nanoTime() + NACK_INTERVAL_NANOS;
+        while (true) {
+            //1.收完当前所有的包
+            SocketAddress from;
+            while ((from = receivePacket()) != null) {
+                if (packet.remaining() < MulticastSender.HEADER_SIZE) {
+                    continue;
+                }
+                byte type = packet.get();
+                if (packet.getInt() != session || type != MulticastSender.DATA && type != MulticastSender.END) {
+                    continue;
+                }
+                int seq = packet.getInt();
+                if (received == null) {
+                    packets = packet.getInt();
+                    length = packet.getLong();
+                    payloadSize = packet.getShort() & 0xFFFF;
+                    received = new BitSet(packets);
+                    sender = from;
+                } else {
+                    packet.position(MulticastSender.HEADER_SIZE);
+                }
+                if (type == MulticastSender.END) {
+                    endSeen = true;
+                } else if (seq >= 0 && seq < packets && !received.get(seq)) {
+                    long position = (long) seq * payloadSize;
+                    while (packet.hasRemaining()) {
+                        target.write(packet, position + packet.position() - MulticastSender.HEADER_SIZE);
+                    }
+                    received.set(seq);
+                    receivedCount++;
+                    highest = Math.max(highest, seq);
+                } else {
+                    duplicates++;
+                }
+            }
+            //2.收全了
+            if (received != null && receivedCount == packets) {
+                target.truncate(length);
+                control.clear();
+                control.put(MulticastSender.DONE).putInt(session).putLong(receiverId).flip();
+                channel.send(control, sender);
+                return true;
+            }
+            long now = System.nanoTime();
+            if (now - deadline >= 0) {
+                return false;
+            }
+            //3.定期汇报缺失
+            if (now - nextNackAt >= 0) {
+                if (received != null) {
+                    sendNacks(session, received, endSeen ? packets : highestAtLastCheck, sender);
+                    highestAtLastCheck = highest;
+                }
+                nextNackAt = now + NACK_INTERVAL_NANOS;
+            }
+            long wakeAt = nextNackAt - deadline < 0 ? nextNackAt : deadline;
+            selector.select(Math.max(1, TimeUnit.NANOSECONDS.toMillis(wakeAt - now)));
+            selector.selectedKeys().clear();
+        }
+    }
+
+    private SocketAddress receivePacket() throws IOException {
+        packet.clear();
+        SocketAddress from = channel.receive(packet);
+        packet.flip();
+        if (from != null) {
+            packetsReceived++;
+        }
+        return from;
+    }
+
+    /**
+     * 把[0, limit)中缺失的序号按位图汇总成NACK
+     */
+    private void sendNacks(int session, BitSet received, int limit, SocketAddress sender) throws IOException {
+        int maxBits = (control.capacity() - NACK_HEADER_SIZE) * 8;
+        int base = received.nextClearBit(0);
+        for (int n = 0; n < MAX_NACKS && base < limit; n++) {
+            int end = (int) Math.min(limit, (long) base + maxBits);
+            control.clear();
+            control.put(MulticastSender.NACK).putInt(session).putInt(base);
+            int bytes = (end - base + 7) / 8;
+            for (int i = 0; i < bytes; i++) {
+                control.put(NACK_HEADER_SIZE + i, (byte) 0);
+            }
+            for (int seq = base; seq < end; seq = received.nextClearBit(seq + 1)) {
+                int index = NACK_HEADER_SIZE + (seq - base) / 8;
+                control.put(index, (byte) (control.get(index) | 1 << (seq - base) % 8));
+            }
+            control.position(NACK_HEADER_SIZE + bytes).flip();
+            channel.send(control, sender);
+            nacksSent++;
+            base = received.nextClearBit(end);
+        }
+    }
+
+    public long packetsReceived() {
+        return packetsReceived;
+    }
+
+    /**
+     * 重复收到的包（补发是组播，别的机顶盒缺的包这里也会收到）
+     */
+    public long duplicates() {
+        return duplicates;
+    }
+
+    public long nacksSent() {
+        return nacksSent;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            membership.drop();
+            selector.close();
+        } finally {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,300 @@
+package club.virgilin;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * MulticastSender
+ *
+ * @author virgilin
+ * @date 2026/10/18
+ *
+ * 组播推送OTA镜像：镜像只发送一次，所有机顶盒同时接收，丢包由NACK（否定确认）补发
+ *
+ * 一、为什么用组播
+ * TCP逐台下载时，服务端的出口流量 = 镜像大小 × 机顶盒数量；组播时网络负责复制，出口流量只和镜像大小有关，
+ * 再加上补发丢包的流量。补发也是组播，多台机顶盒丢了同一个包时只补发一次。
+ *
+ * 二、数据包（整数为大端序）
+ * 1.DATA  服务端 -> 组：1 会话ID(int) 序号(int) 包数(int) 镜像长度(long) 每包负载大小(u16) 负载
+ *   序号为seq的包是镜像的[seq × 负载大小, (seq + 1) × 负载大小)，每个包都带着镜像的总体信息，中途加入也能接收
+ * 2.END   服务端 -> 组：与DATA相同的头部，序号为-1，没有负载；全部发完后定期发送，让丢了最后几个包的机顶盒发现缺失
+ * 3.NACK  机顶盒 -> 服务端：3 会话ID(int) 起始序号(int) 位图，第i位为1表示起始序号 + i缺失
+ *   一个NACK包用位图汇报一段范围内的所有缺失，不是每丢一个包发一个NACK
+ * 4.DONE  机顶盒 -> 服务端：4 会话ID(int) 接收方ID(long)，已收全；同一台机器上的接收方源地址相同，所以用接收方ID区分
+ *
+ * 三、补发
+ * 1.收到的所有NACK按位“或”进待补发位图，不同机顶盒缺的同一个包只记一次
+ * 2.每隔REPAIR_INTERVAL把待补发位图整批取出，按序号顺序补发，期间收到的NACK进入下一批
+ * 3.新数据、补发都受令牌桶限速，不会把机顶盒的接收缓冲区或网络冲垮
+ *
+ * 四、结束
+ * 所有包发完后，expectedReceivers台机顶盒都回复了DONE，或者quiet时间内既没有发送数据也没有收到NACK，就认为发送完成
+ */
+public class MulticastSender implements Closeable {
+
+    public static final byte DATA = 1;
+    public static final byte END = 2;
+    public static final byte NACK = 3;
+    public static final byte DONE = 4;
+
+    /**
+     * DATA/END的头部大小
+     */
+    public static final int HEADER_SIZE = 1 + 4 + 4 + 4 + 8 + 2;
+
+    private static final long REPAIR_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final long END_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+
+    private final InetSocketAddress group;
+    private final DatagramChannel channel;
+    private final Selector selector;
+    private final int payloadSize;
+    private final TokenBucket tokenBucket;
+    private final ByteBuffer packet;
+    private final ByteBuffer incoming;
+
+    private long dataPackets;
+    private long repairPackets;
+    private long bytesSent;
+    private long nacksReceived;
+
+    /**
+     * @param group          组播地址和端口，接收方绑定这个端口并加入这个组
+     * @param networkInterface 发送组播使用的网卡，测试时用回环网卡
+     * @param mtu            每个UDP包的最大负载（包括头部），见DatagramSender.DEFAULT_MTU
+     * @param bytesPerSecond 限速
+     */
+    public MulticastSender(InetSocketAddress group, NetworkInterface networkInterface, int mtu, long bytesPerSecond)
+            throws IOException {
+        if (mtu <= HEADER_SIZE || mtu - HEADER_SIZE > 0xFFFF) {
+            throw new IllegalArgumentException("mtu: " + mtu);
+        }
+        this.group = group;
+        this.payloadSize = mtu - HEADER_SIZE;
+        this.tokenBucket = new TokenBucket(bytesPerSecond, 32L * mtu);
+        this.packet = ByteBuffer.allocateDirect(mtu);
+        this.incoming = ByteBuffer.allocateDirect(DatagramSender.DEFAULT_MTU);
+        this.channel = DatagramChannel.open(StandardProtocolFamily.INET);
+        this.selector = Selector.open();
+        try {
+            channel.setOption(StandardSocketOptions.IP_MULTICAST_IF, networkInterface);
+            channel.setOption(StandardSocketOptions.IP_MULTICAST_LOOP, true);
+            channel.setOption(StandardSocketOptions.SO_SNDBUF, 4 * 1024 * 1024);
+            //NACK发到这个单播端口
+            channel.bind(new InetSocketAddress(0));
+            channel.configureBlocking(false);
+            channel.register(selector, SelectionKey.OP_READ);
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * 组播发送整个文件，直到所有接收方收全或者quiet时间内没有NACK
+     *
+     * @param session           会话ID，接收方只接收同一个会话的包
+     * @param expectedReceivers 预期的接收方数量，0表示未知，只按quiet判断结束
+     * @return 回复了DONE的接收方数量
+     */
+    public int send(int session, FileChannel file, int expectedReceivers, long quiet, TimeUnit unit)
+            throws IOException {
+        long length = file.size();
+        long count = (length + payloadSize - 1) / payloadSize;
+        if (count > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("file too large: " + length);
+        }
+        int packets = (int) count;
+        long quietNanos = unit.toNanos(quiet);
+        BitSet pending = new BitSet(packets);
+        BitSet batch = new BitSet(packets);
+        Set<Long> done = new HashSet<>();
+        int next = 0;
+        int repairCursor = -1;
+        long nextRepairAt = System.nanoTime();
+        long nextEndAt = 0;
+        long lastActiveAt = System.nanoTime();
+        while (true) {
+            //1.收NACK/DONE
+            if (drain(session, packets, pending, done)) {
+                lastActiveAt = System.nanoTime();
+            }
+            long now = System.nanoTime();
+            if (next >= packets && repairCursor < 0 && pending.isEmpty()
+                    && (expectedReceivers > 0 && done.size() >= expectedReceivers || now - lastActiveAt >= quietNanos)) {
+                return done.size();
+            }
+            //2.到了补发时间就把待补发的包整批取出；正在补发的批次优先于新数据，都没有时发END
+            if (repairCursor < 0 && !pending.isEmpty() && now >= nextRepairAt) {
+                batch.clear();
+                batch.or(pending);
+                pending.clear();
+                repairCursor = batch.nextSetBit(0);
+                nextRepairAt = now + REPAIR_INTERVAL_NANOS;
+            }
+            int seq;
+            if (repairCursor >= 0) {
+                seq = repairCursor;
+            } else if (next < packets) {
+                seq = next;
+            } else if (now >= nextEndAt) {
+                seq = -1;
+            } else {
+                long wakeAt = pending.isEmpty() ? nextEndAt : Math.min(nextEndAt, nextRepairAt);
+                selector.select(Math.max(1, TimeUnit.NANOSECONDS.toMillis(wakeAt - now)));
+                selector.selectedKeys().clear();
+                continue;
+            }
+            //3.限速：令牌不够时等待，等待期间仍然可以收NACK
+            int size = seq < 0 ? HEADER_SIZE : HEADER_SIZE + payloadLength(seq, length);
+            if (!tokenBucket.tryAcquire(size)) {
+                long waitMillis = TimeUnit.NANOSECONDS.toMillis(tokenBucket.nanosUntil(size));
+                if (waitMillis > 0) {
+                    selector.select(waitMillis);
+                    selector.selectedKeys().clear();
+                } else {
+                    selector.selectNow();
+                    selector.selectedKeys().clear();
+                }
+                continue;
+            }
+            if (!sendPacket(session, seq, packets, length, file)) {
+                //发送缓冲区满，令牌已经用掉了，下一轮重发同一个包
+                selector.select(1);
+                selector.selectedKeys().clear();
+                continue;
+            }
+            if (seq < 0) {
+                nextEndAt = now + END_INTERVAL_NANOS;
+                continue;
+            }
+            //quiet从最后一次发送数据或收到NACK开始计算
+            lastActiveAt = now;
+            if (repairCursor >= 0) {
+                repairPackets++;
+                repairCursor = batch.nextSetBit(seq + 1);
+            } else {
+                dataPackets++;
+                next++;
+            }
+        }
+    }
+
+    private int payloadLength(int seq, long length) {
+        return (int) Math.min(payloadSize, length - (long) seq * payloadSize);
+    }
+
+    /**
+     * @return 是否发送成功；发送缓冲区满时返回false
+     */
+    private boolean sendPacket(int session, int seq, int packets, long length, FileChannel file) throws IOException {
+        packet.clear();
+        packet.put(seq < 0 ? END : DATA).putInt(session).putInt(seq).putInt(packets).putLong(length)
+                .putShort((short) payloadSize);
+        if (seq >= 0) {
+            long position = (long) seq * payloadSize;
+            packet.limit(HEADER_SIZE + payloadLength(seq, length));
+            while (packet.hasRemaining()) {
+                if (file.read(packet, position + packet.position() - HEADER_SIZE) < 0) {
+                    throw new IOException("file truncated at " + (position + packet.position() - HEADER_SIZE));
+                }
+            }
+        }
+        packet.flip();
+        int sent = channel.send(packet, group);
+        bytesSent += sent;
+        return sent > 0;
+    }
+
+    /**
+     * 收完当前所有的NACK/DONE
+     *
+     * @return 是否收到了NACK
+     */
+    private boolean drain(int session, int packets, BitSet pending, Set<Long> done) throws IOException {
+        boolean nack = false;
+        SocketAddress from;
+        while (true) {
+            incoming.clear();
+            from = channel.receive(incoming);
+            if (from == null) {
+                return nack;
+            }
+            incoming.flip();
+            if (incoming.remaining() < 5) {
+                continue;
+            }
+            byte type = incoming.get();
+            if (incoming.getInt() != session) {
+                continue;
+            }
+            if (type == DONE && incoming.remaining() == 8) {
+                done.add(incoming.getLong());
+            } else if (type == NACK && incoming.remaining() >= 4) {
+                nacksReceived++;
+                nack = true;
+                int base = incoming.getInt();
+                for (int i = 0; incoming.hasRemaining(); i += 8) {
+                    int bits = incoming.get() & 0xFF;
+                    while (bits != 0) {
+                        int seq = base + i + Integer.numberOfTrailingZeros(bits);
+                        if (seq >= 0 && seq < packets) {
+                            pending.set(seq);
+                        }
+                        bits &= bits - 1;
+                    }
+                }
+            }
+        }
+    }
+
+    public int payloadSize() {
+        return payloadSize;
+    }
+
+    /**
+     * 第一次发送的数据包数
+     */
+    public long dataPackets() {
+        return dataPackets;
+    }
+
+    /**
+     * 补发的数据包数
+     */
+    public long repairPackets() {
+        return repairPackets;
+    }
+
+    public long bytesSent() {
+        return bytesSent;
+    }
+
+    public long nacksReceived() {
+        return nacksReceived;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            selector.close();
+        } finally {
+            channel.close();
+        }
+    }
+}
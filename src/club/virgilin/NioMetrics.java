@@ -0,0 +1,313 @@
+package club.virgilin;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.io.Closeable;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * NioMetrics
+ *
+ * @author virgilin
+ * @date 2026/10/18
+ *
+ * EventLoop、连接、FileTransfer和缓冲区池的运行指标
+ *
+ * 一、记录
+ * 1.计数器是LongAdder：多个EventLoop线程同时累加时各自写自己的槽，不会在同一个缓存行上竞争
+ * 2.耗时和大小用Histogram记录分布，看的是p99而不是平均值
+ * 3.记录时不分配对象，只有读取时才复制数据
+ * 4.EventLoop每轮循环都要记录，这几个直方图每个EventLoop一份（EventLoopMetrics），只有自己的线程写，
+ *   不会在计数和最大值上竞争；读取时把所有EventLoop的合并成一个快照。EventLoop结束时它的数据并入retired，
+ *   自己从列表中移除，反复创建、关闭服务端不会让列表越来越长
+ *
+ * 二、EventLoop每轮循环的时间分成三部分
+ * 1.selectTime：阻塞在select()上，即空闲
+ * 2.wakeupLatency：其他线程调用wakeup()到select()返回，注册和任务要等这么久才开始执行
+ * 3.processTime：处理就绪键，processTime占比高说明EventLoop忙不过来
+ *
+ * 三、查看
+ * 1.JMX：registerMBean()之后在jconsole中查看
+ * 2.文本：startDump()定期输出dump()的内容
+ */
+public class NioMetrics implements NioMetricsMXBean {
+
+    public static final NioMetrics DEFAULT = new NioMetrics(BufferPool.DEFAULT);
+
+    public static final String OBJECT_NAME = "club.virgilin:type=NioMetrics";
+
+    private final BufferPool bufferPool;
+
+    /**
+     * 运行中的EventLoop，和retired一起由自己的锁保护，读取时不会把刚结束的EventLoop算两次或者漏掉
+     */
+    private final List<EventLoopMetrics> eventLoops = new ArrayList<>();
+    /**
+     * 已结束的EventLoop合并后的数据
+     */
+    private final EventLoopMetrics retired = new EventLoopMetrics(false);
+
+    private final LongAdder connectionsOpened = new LongAdder();
+    private final LongAdder connectionsClosed = new LongAdder();
+    private final LongAdder bytesRead = new LongAdder();
+    private final LongAdder bytesWritten = new LongAdder();
+    private final Histogram connectionBytesRead = new Histogram();
+    private final Histogram connectionBytesWritten = new Histogram();
+
+    private final LongAdder transfers = new LongAdder();
+    private final LongAdder transferBytes = new LongAdder();
+    private final Histogram transferBytesPerSecond = new Histogram();
+
+    /**
+     * @param bufferPool 要观察的缓冲区池
+     */
+    public NioMetrics(BufferPool bufferPool) {
+        this.bufferPool = bufferPool;
+    }
+
+    /**
+     * 为一个EventLoop创建它自己的指标，只能由这个EventLoop的线程记录
+     */
+    EventLoopMetrics newEventLoopMetrics() {
+        EventLoopMetrics metrics = new EventLoopMetrics(true);
+        synchronized (eventLoops) {
+            eventLoops.add(metrics);
+        }
+        return metrics;
+    }
+
+    /**
+     * EventLoop结束时在自己的线程中调用，之后不能再记录
+     */
+    void retire(EventLoopMetrics metrics) {
+        synchronized (eventLoops) {
+            if (eventLoops.remove(metrics)) {
+                retired.selectTime.add(metrics.selectTime);
+                retired.wakeupLatency.add(metrics.wakeupLatency);
+                retired.keysPerWakeup.add(metrics.keysPerWakeup);
+                retired.processTime.add(metrics.processTime);
+            }
+        }
+    }
+
+    void connectionOpened() {
+        connectionsOpened.increment();
+    }
+
+    void connectionClosed(long read, long written) {
+        connectionsClosed.increment();
+        connectionBytesRead.record(read);
+        connectionBytesWritten.record(written);
+    }
+
+    void recordRead(long bytes) {
+        bytesRead.add(bytes);
+    }
+
+    void recordWritten(long bytes) {
+        bytesWritten.add(bytes);
+    }
+
+    void recordTransfer(long bytes, long nanos) {
+        transfers.increment();
+        transferBytes.add(bytes);
+        if (nanos > 0) {
+            transferBytesPerSecond.record((long) (bytes * 1e9 / nanos));
+        }
+    }
+
+    /**
+     * 注册到平台MBeanServer
+     */
+    public void registerMBean() throws JMException {
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(OBJECT_NAME));
+    }
+
+    /**
+     * 每隔period把dump()输出到out，关闭返回值即停止
+     */
+    public Closeable startDump(long period, TimeUnit unit, PrintStream out) {
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "nio-metrics-dump");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleAtFixedRate(() -> out.println(dump()), period, period, unit);
+        return scheduler::shutdown;
+    }
+
+    /**
+     * 当前所有指标的文本形式，时间单位是纳秒
+     */
+    public String dump() {
+        Histogram.Snapshot selectTime = merge(metrics -> metrics.selectTime);
+        return "selects=" + selectTime.count() + "\n"
+                + "  selectTimeNanos     " + selectTime + "\n"
+                + "  wakeupLatencyNanos  " + merge(metrics -> metrics.wakeupLatency) + "\n"
+                + "  keysPerWakeup       " + merge(metrics -> metrics.keysPerWakeup) + "\n"
+                + "  processTimeNanos    " + merge(metrics -> metrics.processTime) + "\n"
+                + "connections opened=" + connectionsOpened.sum() + " closed=" + connectionsClosed.sum()
+                + " bytesRead=" + bytesRead.sum() + " bytesWritten=" + bytesWritten.sum() + "\n"
+                + "  connectionBytesRead    " + connectionBytesRead.snapshot() + "\n"
+                + "  connectionBytesWritten " + connectionBytesWritten.snapshot() + "\n"
+                + "transfers=" + transfers.sum() + " bytes=" + transferBytes.sum() + "\n"
+                + "  transferBytesPerSecond " + transferBytesPerSecond.snapshot() + "\n"
+                + bufferPool;
+    }
+
+    /**
+     * 所有EventLoop的同一个直方图合并后的快照
+     */
+    private Histogram.Snapshot merge(Function<EventLoopMetrics, Histogram> histogram) {
+        synchronized (eventLoops) {
+            List<Histogram> histograms = new ArrayList<>(eventLoops.size() + 1);
+            histograms.add(histogram.apply(retired));
+            for (EventLoopMetrics metrics : eventLoops) {
+                histograms.add(histogram.apply(metrics));
+            }
+            return Histogram.snapshot(histograms);
+        }
+    }
+
+    private static Map<String, Long> toMap(Histogram histogram) {
+        return toMap(histogram.snapshot());
+    }
+
+    private static Map<String, Long> toMap(Histogram.Snapshot snapshot) {
+        Map<String, Long> map = new LinkedHashMap<>();
+        map.put("count", snapshot.count());
+        map.put("mean", Math.round(snapshot.mean()));
+        map.put("p50", snapshot.percentile(50));
+        map.put("p90", snapshot.percentile(90));
+        map.put("p99", snapshot.percentile(99));
+        map.put("p99.9", snapshot.percentile(99.9));
+        map.put("max", snapshot.max());
+        return map;
+    }
+
+    @Override
+    public long getSelects() {
+        return merge(metrics -> metrics.selectTime).count();
+    }
+
+    @Override
+    public Map<String, Long> getSelectTimeNanos() {
+        return toMap(merge(metrics -> metrics.selectTime));
+    }
+
+    @Override
+    public Map<String, Long> getWakeupLatencyNanos() {
+        return toMap(merge(metrics -> metrics.wakeupLatency));
+    }
+
+    @Override
+    public Map<String, Long> getKeysPerWakeup() {
+        return toMap(merge(metrics -> metrics.keysPerWakeup));
+    }
+
+    @Override
+    public Map<String, Long> getProcessTimeNanos() {
+        return toMap(merge(metrics -> metrics.processTime));
+    }
+
+    @Override
+    public long getConnectionsOpened() {
+        return connectionsOpened.sum();
+    }
+
+    @Override
+    public long getConnectionsClosed() {
+        return connectionsClosed.sum();
+    }
+
+    @Override
+    public long getBytesRead() {
+        return bytesRead.sum();
+    }
+
+    @Override
+    public long getBytesWritten() {
+        return bytesWritten.sum();
+    }
+
+    @Override
+    public Map<String, Long> getConnectionBytesRead() {
+        return toMap(connectionBytesRead);
+    }
+
+    @Override
+    public Map<String, Long> getConnectionBytesWritten() {
+        return toMap(connectionBytesWritten);
+    }
+
+    @Override
+    public long getTransfers() {
+        return transfers.sum();
+    }
+
+    @Override
+    public long getTransferBytes() {
+        return transferBytes.sum();
+    }
+
+    @Override
+    public Map<String, Long> getTransferBytesPerSecond() {
+        return toMap(transferBytesPerSecond);
+    }
+
+    @Override
+    public long getBufferPoolOutstandingBytes() {
+        return bufferPool.outstandingBytes();
+    }
+
+    @Override
+    public long getBufferPoolArenaBytes() {
+        return bufferPool.arenaBytes();
+    }
+
+    @Override
+    public double getBufferPoolHitRate() {
+        return bufferPool.hitRate();
+    }
+
+    /**
+     * 一个EventLoop每轮循环的指标，只由这个EventLoop的线程写入
+     */
+    static final class EventLoopMetrics {
+
+        private final Histogram selectTime;
+        private final Histogram wakeupLatency;
+        private final Histogram keysPerWakeup;
+        private final Histogram processTime;
+
+        private EventLoopMetrics(boolean singleWriter) {
+            selectTime = new Histogram(singleWriter);
+            wakeupLatency = new Histogram(singleWriter);
+            keysPerWakeup = new Histogram(singleWriter);
+            processTime = new Histogram(singleWriter);
+        }
+
+        void recordSelect(long nanos, int keys) {
+            selectTime.record(nanos);
+            keysPerWakeup.record(keys);
+        }
+
+        void recordWakeupLatency(long nanos) {
+            wakeupLatency.record(nanos);
+        }
+
+        void recordProcess(long nanos) {
+            processTime.record(nanos);
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package club.virgilin;
+
+import java.util.Map;
+
+/**
+ * NioMetricsMXBean
+ *
+ * @author virgilin
+ * @date 2026/10/18
+ *
+ * NioMetrics的JMX接口，可以在jconsole/VisualVM的MBeans页签中查看club.virgilin:type=NioMetrics。
+ * 直方图以Map返回：count、mean、p50、p90、p99、p99.9、max
+ */
+public interface NioMetricsMXBean {
+
+    long getSelects();
+
+    /**
+     * 每次select()阻塞的时间
+     */
+    Map<String, Long> getSelectTimeNanos();
+
+    /**
+     * 从调用wakeup()到select()返回的时间
+     */
+    Map<String, Long> getWakeupLatencyNanos();
+
+    /**
+     * 每次唤醒处理的就绪键数
+     */
+    Map<String, Long> getKeysPerWakeup();
+
+    /**
+     * 每次唤醒处理就绪键所用的时间
+     */
+    Map<String, Long> getProcessTimeNanos();
+
+    long getConnectionsOpened();
+
+    long getConnectionsClosed();
+
+    long getBytesRead();
+
+    long getBytesWritten();
+
+    /**
+     * 每个连接关闭时读取的总字节数
+     */
+    Map<String, Long> getConnectionBytesRead();
+
+    /**
+     * 每个连接关闭时写出的总字节数
+     */
+    Map<String, Long> getConnectionBytesWritten();
+
+    long getTransfers();
+
+    long getTransferBytes();
+
+    /**
+     * 每次FileTransfer传输的速度，字节/秒
+     */
+    Map<String, Long> getTransferBytesPerSecond();
+
+    long getBufferPoolOutstandingBytes();
+
+    long getBufferPoolArenaBytes();
+
+    double getBufferPoolHitRate();
+}
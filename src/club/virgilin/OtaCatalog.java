@@ -0,0 +1,178 @@
+package club.virgilin;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * OtaCatalog
+ *
+ * @author virgilin
+ * @date 2026/10/18
+ *
+ * OTA镜像目录：按1.txt的匹配规则回答“这台机顶盒能升级到的最新镜像”
+ *
+ * 一、索引
+ * 1.硬件版本不为0：键是(厂商ID, 硬件型号, 硬件版本)打包成的long
+ * 2.硬件版本为0：只匹配硬件平台号（HW_TYPE），用于手机端软件，单独一张表
+ * 3.每个键对应一个Candidates：按SwVersion打包后的版本升序排好的long[]和对应的镜像，
+ *   正式版单独再有一份，查找是一次哈希表访问加上一次二分查找
+ * 4.“硬件全匹配 + 软件型号匹配”的镜像还要求软件型号相同，从最新的往回扫描，扫到不比当前版本新的位置为止
+ *
+ * 二、更新
+ * 查询远多于发布，所以发布时重建整个索引再用volatile替换（写时复制），查询不加锁；
+ * 发布时还会计算镜像的块校验和（BlockSignatures，增量下载用）和分块校验和（ChunkChecksums，校验下载结果用），
+ * 之后直接发送
+ */
+public class OtaCatalog implements Closeable {
+
+    private final List<OtaImage> images = new ArrayList<>();
+    private volatile Index index = new Index(new OtaImage[0]);
+
+    /**
+     * 发布一个镜像
+     *
+     * @param hwType    硬件平台号，硬件版本为0时只按它匹配
+     * @param oui       厂商ID（STB_OUI_ID），001 ~ 999
+     * @param hwModel   硬件型号（STB_HW_MODEL），0001 ~ 9999
+     * @param hwVersion 硬件版本（STB_HW_VERSION），0表示只匹配平台
+     * @param version   软件版本，XX.YY.MM.SS.DD YYYY/MM/DD
+     */
+    public synchronized OtaImage add(Path path, int hwType, int oui, int hwModel, int hwVersion, String version,
+                                     OtaMatchMode matchMode) throws IOException {
+        if (hwType < 0 || hwType > 0xFF || oui < 0 || oui > 0xFFFF || hwModel < 0 || hwModel > 0xFFFF
+                || hwVersion < 0 || hwVersion > 0xFFFF) {
+            throw new IllegalArgumentException("bad hardware: " + hwType + "/" + oui + "/" + hwModel + "/" + hwVersion);
+        }
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        OtaImage image;
+        try {
+            image = new OtaImage(images.size(), hwType, oui, hwModel, hwVersion, version, matchMode, path, channel,
+                    channel.size(), BlockSignatures.compute(channel, BlockSignatures.DEFAULT_BLOCK_SIZE),
+                    ParallelChecksum.compute(channel));
+        } catch (RuntimeException | IOException e) {
+            channel.close();
+            throw e;
+        }
+        images.add(image);
+        index = new Index(images.toArray(new OtaImage[0]));
+        return image;
+    }
+
+    public OtaImage image(int id) {
+        OtaImage[] byId = index.byId;
+        return id >= 0 && id < byId.length ? byId[id] : null;
+    }
+
+    /**
+     * 比当前版本新、且满足匹配规则的最新镜像
+     *
+     * @param currentVersion 机顶盒当前的软件版本，SwVersion打包后的值，软件型号取其中的XX
+     * @param includeDebug   是否也考虑调试版本，为false时只返回正式版
+     * @return 没有可升级的镜像返回null
+     */
+    public OtaImage latest(int hwType, int oui, int hwModel, int hwVersion, long currentVersion,
+                           boolean includeDebug) {
+        Index current = index;
+        Candidates candidates = hwVersion == 0
+                ? current.byPlatform.get(hwType)
+                : current.byHardware.get(hardwareKey(oui, hwModel, hwVersion));
+        if (candidates == null) {
+            return null;
+        }
+        long[] versions = includeDebug ? candidates.versions : candidates.releases;
+        OtaImage[] images = includeDebug ? candidates.images : candidates.releaseImages;
+        int from = SwVersion.upperBound(versions, 0, versions.length, currentVersion);
+        int swModel = SwVersion.swModel(currentVersion);
+        for (int i = versions.length - 1; i >= from; i--) {
+            OtaImage image = images[i];
+            if (hwVersion == 0 || image.matchMode() == OtaMatchMode.HARDWARE || image.swModel() == swModel) {
+                return image;
+            }
+        }
+        return null;
+    }
+
+    static long hardwareKey(int oui, int hwModel, int hwVersion) {
+        return (long) oui << 32 | (long) hwModel << 16 | hwVersion;
+    }
+
+    public int size() {
+        return index.byId.length;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        for (OtaImage image : images) {
+            image.channel().close();
+        }
+    }
+
+    /**
+     * 不可变的索引
+     */
+    private static final class Index {
+
+        final OtaImage[] byId;
+        final LongHashMap<Candidates> byHardware = new LongHashMap<>();
+        final LongHashMap<Candidates> byPlatform = new LongHashMap<>();
+
+        Index(OtaImage[] images) {
+            this.byId = images;
+            for (OtaImage image : images) {
+                if (image.hwVersion() == 0) {
+                    append(byPlatform, image.hwType(), image);
+                } else {
+                    append(byHardware, hardwareKey(image.oui(), image.hwModel(), image.hwVersion()), image);
+                }
+            }
+        }
+
+        private static void append(LongHashMap<Candidates> map, long key, OtaImage image) {
+            Candidates candidates = map.get(key);
+            OtaImage[] list = candidates == null
+                    ? new OtaImage[1]
+                    : Arrays.copyOf(candidates.images, candidates.images.length + 1);
+            list[list.length - 1] = image;
+            map.put(key, new Candidates(list));
+        }
+    }
+
+    /**
+     * 同一个硬件（或平台）的所有镜像，按版本升序
+     */
+    private static final class Candidates {
+
+        final long[] versions;
+        final OtaImage[] images;
+        final long[] releases;
+        final OtaImage[] releaseImages;
+
+        Candidates(OtaImage[] images) {
+            Arrays.sort(images, Comparator.comparingLong(OtaImage::swVersion));
+            this.images = images;
+            this.versions = new long[images.length];
+            int releaseCount = 0;
+            for (int i = 0; i < images.length; i++) {
+                versions[i] = images[i].swVersion();
+                if (SwVersion.isRelease(versions[i])) {
+                    releaseCount++;
+                }
+            }
+            this.releases = new long[releaseCount];
+            this.releaseImages = new OtaImage[releaseCount];
+            for (int i = 0, j = 0; i < images.length; i++) {
+                if (SwVersion.isRelease(versions[i])) {
+                    releases[j] = versions[i];
+                    releaseImages[j++] = images[i];
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,328 @@
+package club.virgilin;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * OtaClient
+ *
+ * @author virgilin
+ * @date 2026/10/18
+ *
+ * 机顶盒端的OTA客户端（阻塞模式），协议见OtaServer
+ *
+ * 一、完整下载：download()
+ * 二、断点续传：resume()从目标文件的末尾继续，只下载剩余部分
+ * 三、增量下载：downloadDelta()用本地的旧版本镜像拼出新版本，只下载变化的块
+ * 四、校验：downloadVerified()边下载边逐块校验SHA-256；repair()多线程校验本地镜像，只重新下载损坏的块
+ */
+public class OtaClient implements Closeable {
+
+    /**
+     * 增量下载时同时在途的范围请求数
+     */
+    private static final int MAX_PIPELINED = 16;
+
+    private final SocketChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocate(64);
+
+    public OtaClient(InetSocketAddress address) throws IOException {
+        this.channel = SocketChannel.open(address);
+    }
+
+    /**
+     * 查询可升级的镜像
+     *
+     * @param currentVersion 当前软件版本，XX.YY.MM.SS.DD YYYY/MM/DD
+     * @return 已是最新时返回null
+     */
+    public Update check(int hwType, int oui, int hwModel, int hwVersion, String currentVersion) throws IOException {
+        byte[] version = currentVersion.getBytes(StandardCharsets.US_ASCII);
+        if (version.length != OtaServer.VERSION_LENGTH) {
+            throw new IllegalArgumentException("bad version: " + currentVersion);
+        }
+        buffer.clear();
+        Varint.write(buffer, 8 + version.length);
+        buffer.put(OtaServer.QUERY).put((byte) hwType).putShort((short) oui).putShort((short) hwModel)
+                .putShort((short) hwVersion).put(version);
+        buffer.flip();
+        IoUtils.writeFully(channel, buffer);
+
+        ByteBuffer frame = readFrame();
+        byte status = frame.get();
+        if (status == OtaServer.STATUS_UP_TO_DATE) {
+            return null;
+        }
+        checkStatus(status);
+        int imageId = frame.getInt();
+        long size = frame.getLong();
+        byte[] newVersion = new byte[frame.remaining()];
+        frame.get(newVersion);
+        return new Update(imageId, size, new String(newVersion, StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * 下载镜像写入target的开头
+     *
+     * @return 镜像大小
+     */
+    public long download(int imageId, FileChannel target) throws IOException {
+        buffer.clear();
+        Varint.write(buffer, 5);
+        buffer.put(OtaServer.DOWNLOAD).putInt(imageId);
+        buffer.flip();
+        IoUtils.writeFully(channel, buffer);
+
+        ByteBuffer frame = readFrame();
+        checkStatus(frame.get());
+        long size = frame.getLong();
+        //帧后面紧跟着镜像内容
+        FileTransfer.receive(channel, target, 0, size);
+        target.truncate(size);
+        return size;
+    }
+
+    /**
+     * 下载镜像的[offset, offset + length)，写入target的同一位置
+     *
+     * @param length 超过镜像末尾时只下载到末尾，Long.MAX_VALUE表示一直到末尾
+     * @return 实际下载的字节数
+     */
+    public long downloadRange(int imageId, long offset, long length, FileChannel target) throws IOException {
+        writeRangeRequest(imageId, offset, length);
+        return readRange(offset, target);
+    }
+
+    /**
+     * 继续下载中断的镜像：target中已有的内容保留，从target的末尾开始下载剩余部分
+     *
+     * @return 镜像大小
+     */
+    public long resume(int imageId, FileChannel target) throws IOException {
+        long offset = target.size();
+        return offset + downloadRange(imageId, offset, Long.MAX_VALUE, target);
+    }
+
+    /**
+     * 下载镜像，每收完一块就校验这一块的SHA-256
+     *
+     * 数据要经过用户空间校验，不能再用transferFrom()直接写入文件
+     *
+     * @return 镜像大小
+     * @throws IOException 某一块校验失败，target中verifiedBytes()之前的内容是好的
+     */
+    public long downloadVerified(int imageId, FileChannel target) throws IOException {
+        ChunkChecksums expected = checksums(imageId);
+        buffer.clear();
+        Varint.write(buffer, 5);
+        buffer.put(OtaServer.DOWNLOAD).putInt(imageId);
+        buffer.flip();
+        IoUtils.writeFully(channel, buffer);
+
+        ByteBuffer frame = readFrame();
+        checkStatus(frame.get());
+        long size = frame.getLong();
+        if (size != expected.length()) {
+            throw new IOException("image " + imageId + " changed: " + size + " != " + expected.length());
+        }
+        StreamingVerifier verifier = new StreamingVerifier(expected);
+        ByteBuffer data = ByteBuffer.allocateDirect(FileTransfer.BUFFER_SIZE);
+        try {
+            long position = 0;
+            while (position < size) {
+                data.clear();
+                if (data.capacity() > size - position) {
+                    data.limit((int) (size - position));
+                }
+                if (channel.read(data) < 0) {
+                    throw new EOFException("image " + imageId + " truncated at " + position);
+                }
+                data.flip();
+                verifier.update(data);
+                while (data.hasRemaining()) {
+                    position += target.write(data, position);
+                }
+            }
+        } finally {
+            DirectBuffers.free(data);
+        }
+        verifier.finish();
+        target.truncate(size);
+        return size;
+    }
+
+    /**
+     * 多线程校验target中已有的镜像，只重新下载校验失败的块
+     *
+     * @return 重新下载的块数，0表示镜像完好
+     */
+    public int repair(int imageId, FileChannel target) throws IOException {
+        ChunkChecksums expected = checksums(imageId);
+        if (target.size() > expected.length()) {
+            target.truncate(expected.length());
+        }
+        int[] bad = expected.mismatches(ParallelChecksum.compute(target, expected.chunkSize(),
+                ForkJoinPool.commonPool()));
+        int sent = 0;
+        for (int received = 0; received < bad.length; received++) {
+            while (sent < bad.length && sent - received < MAX_PIPELINED) {
+                writeRangeRequest(imageId, (long) bad[sent] * expected.chunkSize(), expected.chunkLength(bad[sent]));
+                sent++;
+            }
+            readRange((long) bad[received] * expected.chunkSize(), target);
+        }
+        return bad.length;
+    }
+
+    /**
+     * 下载镜像的分块校验和
+     */
+    public ChunkChecksums checksums(int imageId) throws IOException {
+        buffer.clear();
+        Varint.write(buffer, 5);
+        buffer.put(OtaServer.CHECKSUMS).putInt(imageId);
+        buffer.flip();
+        IoUtils.writeFully(channel, buffer);
+
+        ByteBuffer frame = readFrame();
+        checkStatus(frame.get());
+        //帧后面紧跟着校验和表
+        return ChunkChecksums.read(frame, channel);
+    }
+
+    /**
+     * 下载镜像的块校验和
+     */
+    public BlockSignatures signatures(int imageId) throws IOException {
+        buffer.clear();
+        Varint.write(buffer, 5);
+        buffer.put(OtaServer.SIGNATURES).putInt(imageId);
+        buffer.flip();
+        IoUtils.writeFully(channel, buffer);
+
+        ByteBuffer frame = readFrame();
+        checkStatus(frame.get());
+        //帧后面紧跟着校验和表
+        return BlockSignatures.read(frame, channel);
+    }
+
+    /**
+     * 增量下载：本地已有的块从local（当前版本的镜像）复制，只下载其余的块，拼成新镜像写入target
+     *
+     * 1.下载新镜像的块校验和，在local上找出可以复用的块（DeltaPlan）
+     * 2.复用的块直接从local复制到target
+     * 3.缺失的块用范围下载，最多MAX_PIPELINED个请求同时在途，不必每段都等一个往返
+     * 4.校验整个新镜像的SHA-256
+     *
+     * @return 下载计划，可以从中看到实际下载了多少字节
+     * @throws IOException 拼好的镜像校验失败
+     */
+    public DeltaPlan downloadDelta(int imageId, FileChannel local, FileChannel target) throws IOException {
+        BlockSignatures signatures = signatures(imageId);
+        DeltaPlan plan = DeltaPlan.create(local, signatures);
+        plan.copy(local, target);
+        int sent = 0;
+        for (int received = 0; received < plan.fetchCount(); received++) {
+            while (sent < plan.fetchCount() && sent - received < MAX_PIPELINED) {
+                writeRangeRequest(imageId, plan.fetchOffset(sent), plan.fetchLength(sent));
+                sent++;
+            }
+            if (readRange(plan.fetchOffset(received), target) != plan.fetchLength(received)) {
+                throw new IOException("image " + imageId + " changed during delta download");
+            }
+        }
+        target.truncate(signatures.length());
+        if (!signatures.verify(target)) {
+            throw new IOException("image " + imageId + " checksum mismatch");
+        }
+        return plan;
+    }
+
+    private void writeRangeRequest(int imageId, long offset, long length) throws IOException {
+        buffer.clear();
+        Varint.write(buffer, 21);
+        buffer.put(OtaServer.RANGE).putInt(imageId).putLong(offset).putLong(length);
+        buffer.flip();
+        IoUtils.writeFully(channel, buffer);
+    }
+
+    private long readRange(long offset, FileChannel target) throws IOException {
+        ByteBuffer frame = readFrame();
+        checkStatus(frame.get());
+        long length = frame.getLong();
+        //帧后面紧跟着这一段内容
+        FileTransfer.receive(channel, target, offset, length);
+        return length;
+    }
+
+    private static void checkStatus(byte status) throws IOException {
+        if (status != OtaServer.STATUS_OK) {
+            throw new IOException("ota server returned status " + status);
+        }
+    }
+
+    /**
+     * 读一帧到buffer中；长度逐字节读取，不会多读后面的镜像内容
+     */
+    private ByteBuffer readFrame() throws IOException {
+        buffer.clear();
+        int length = -1;
+        while (length < 0) {
+            buffer.limit(buffer.position() + 1);
+            IoUtils.readFully(channel, buffer);
+            int read = buffer.position();
+            buffer.flip();
+            length = Varint.read(buffer);
+            buffer.limit(buffer.capacity()).position(read);
+        }
+        if (length > buffer.capacity()) {
+            throw new IOException("frame too long: " + length);
+        }
+        buffer.clear().limit(length);
+        IoUtils.readFully(channel, buffer);
+        buffer.flip();
+        return buffer;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    public static final class Update {
+
+        private final int imageId;
+        private final long size;
+        private final String version;
+
+        Update(int imageId, long size, String version) {
+            this.imageId = imageId;
+            this.size = size;
+            this.version = version;
+        }
+
+        public int imageId() {
+            return imageId;
+        }
+
+        public long size() {
+            return size;
+        }
+
+        public String version() {
+            return version;
+        }
+
+        @Override
+        public String toString() {
+            return "Update{imageId=" + imageId + ", size=" + size + ", version=" + version + "}";
+        }
+    }
+}
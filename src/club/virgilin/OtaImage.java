@@ -0,0 +1,126 @@
+package club.virgilin;
+
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+
+/**
+ * OtaImage
+ *
+ * @author virgilin
+ * @date 2026/10/18
+ *
+ * 一个可供升级的软件镜像及其适用的硬件，由OtaCatalog创建
+ *
+ * 软件版本的格式是XX.YY.MM.SS.DD YYYY/MM/DD：
+ * XX - 软件型号，YY - 软件ID，MM.SS - 主次版本号，DD - 调试版本号（00为正式发布版本），最后是编译日期，
+ * 比较先后用SwVersion打包后的long
+ */
+public class OtaImage {
+
+    private final int id;
+    private final int hwType;
+    private final int oui;
+    private final int hwModel;
+    private final int hwVersion;
+    private final String version;
+    private final long swVersion;
+    private final OtaMatchMode matchMode;
+    private final Path path;
+    private final FileChannel channel;
+    private final long size;
+    private final BlockSignatures signatures;
+    private final ChunkChecksums checksums;
+
+    OtaImage(int id, int hwType, int oui, int hwModel, int hwVersion, String version, OtaMatchMode matchMode,
+             Path path, FileChannel channel, long size, BlockSignatures signatures,
+             ChunkChecksums checksums) {
+        this.id = id;
+        this.hwType = hwType;
+        this.oui = oui;
+        this.hwModel = hwModel;
+        this.hwVersion = hwVersion;
+        this.version = version;
+        this.swVersion = SwVersion.parse(version);
+        this.matchMode = matchMode;
+        this.path = path;
+        this.channel = channel;
+        this.size = size;
+        this.signatures = signatures;
+        this.checksums = checksums;
+    }
+
+    public int id() {
+        return id;
+    }
+
+    public int hwType() {
+        return hwType;
+    }
+
+    public int oui() {
+        return oui;
+    }
+
+    public int hwModel() {
+        return hwModel;
+    }
+
+    public int hwVersion() {
+        return hwVersion;
+    }
+
+    public int swModel() {
+        return SwVersion.swModel(swVersion);
+    }
+
+    public String version() {
+        return version;
+    }
+
+    /**
+     * 打包后的版本，见SwVersion
+     */
+    public long swVersion() {
+        return swVersion;
+    }
+
+    public OtaMatchMode matchMode() {
+        return matchMode;
+    }
+
+    public Path path() {
+        return path;
+    }
+
+    /**
+     * 所有连接共用的只读通道，只使用定位读和transferTo
+     */
+    FileChannel channel() {
+        return channel;
+    }
+
+    public long size() {
+        return size;
+    }
+
+    /**
+     * 每块的校验和，供增量下载使用
+     */
+    public BlockSignatures signatures() {
+        return signatures;
+    }
+
+    /**
+     * 每块的CRC32C和SHA-256，供下载时校验
+     */
+    public ChunkChecksums checksums() {
+        return checksums;
+    }
+
+    @Override
+    public String toString() {
+        return "OtaImage{id=" + id + ", hwType=" + hwType + ", oui=" + oui + ", hwModel=" + hwModel
+                + ", hwVersion=" + hwVersion + ", version=" + version + ", matchMode=" + matchMode
+                + ", path=" + path + ", size=" + size + "}";
+    }
+}
@@ -0,0 +1,22 @@
+package club.virgilin;
+
+/**
+ * OtaMatchMode
+ *
+ * @author virgilin
+ * @date 2026/10/18
+ *
+ * OTA升级的匹配方式，见1.txt
+ */
+public enum OtaMatchMode {
+
+    /**
+     * 硬件全匹配 + 软件型号匹配：厂商ID、硬件型号、硬件版本和软件型号4个参数全部匹配才升级
+     */
+    FULL,
+
+    /**
+     * 硬件全匹配：厂商ID、硬件型号、硬件版本匹配就升级，软件型号可以变更
+     */
+    HARDWARE
+}
@@ -0,0 +1,227 @@
+package club.virgilin;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * OtaServer
+ *
+ * @author virgilin
+ * @date 2026/10/18
+ *
+ * 机顶盒OTA升级服务端：MultiReactorServer + 长度前缀分帧 + OtaCatalog
+ *
+ * 一、协议（每帧前面是varint长度，整数为大端序）
+ * 1.查询    机顶盒 -> 服务端：1 硬件平台号(u8) 厂商ID(u16) 硬件型号(u16) 硬件版本(u16) 当前软件版本(25字节ASCII)
+ *          服务端 -> 机顶盒：0 镜像ID(int) 大小(long) 软件版本(25字节ASCII)，或者1（已是最新）
+ * 2.下载    机顶盒 -> 服务端：2 镜像ID(int)
+ *          服务端 -> 机顶盒：0 大小(long)，紧接着是不分帧的镜像内容；或者2（镜像不存在）
+ * 3.范围下载 机顶盒 -> 服务端：3 镜像ID(int) 起始位置(long) 长度(long)
+ *          服务端 -> 机顶盒：0 实际长度(long)，紧接着是这一段内容（长度超出文件末尾时截短）；或者2；
+ *          起始位置超过文件大小时是4。下载中断后从已收到的位置继续，或者增量下载时只取缺失的块
+ * 4.块校验和 机顶盒 -> 服务端：4 镜像ID(int)
+ *          服务端 -> 机顶盒：0 BlockSignatures头部，紧接着是不分帧的校验和表；或者2
+ * 5.分块校验和 机顶盒 -> 服务端：5 镜像ID(int)
+ *          服务端 -> 机顶盒：0 ChunkChecksums头部，紧接着是不分帧的校验和表；或者2
+ * 6.出错    服务端 -> 机顶盒：3（请求格式不对），之后关闭连接
+ *
+ * 二、大量机顶盒在同一个维护窗口轮询
+ * 1.查询只有一次哈希表访问和一次二分查找，不阻塞EventLoop；版本号用SwVersion直接从帧中解析，
+ *   响应用缓冲区池中的缓冲区，不产生垃圾
+ * 2.正式版（DD为00）的机顶盒只会升级到正式版，运行调试版的机顶盒也会收到更新的调试版
+ * 3.每个镜像只打开一个FileChannel，所有连接共用；镜像内容通过OutboundQueue的FileRegion用transferTo()发送，
+ *   不经过用户空间，发送缓冲区满时等OP_WRITE，不会卡住EventLoop
+ * 4.30秒内既没有请求也没有发送进展的连接会被关闭
+ */
+public class OtaServer implements Closeable {
+
+    public static final byte QUERY = 1;
+    public static final byte DOWNLOAD = 2;
+    public static final byte RANGE = 3;
+    public static final byte SIGNATURES = 4;
+    public static final byte CHECKSUMS = 5;
+
+    public static final byte STATUS_OK = 0;
+    public static final byte STATUS_UP_TO_DATE = 1;
+    public static final byte STATUS_NOT_FOUND = 2;
+    public static final byte STATUS_BAD_REQUEST = 3;
+    public static final byte STATUS_BAD_RANGE = 4;
+
+    /**
+     * "XX.YY.MM.SS.DD YYYY/MM/DD"
+     */
+    public static final int VERSION_LENGTH = SwVersion.LENGTH;
+
+    private static final int MAX_REQUEST_LENGTH = 64;
+    private static final long IDLE_SECONDS = 30;
+
+    private final OtaCatalog catalog;
+    private final MultiReactorServer server;
+
+    public OtaServer(InetSocketAddress address, int workerCount, OtaCatalog catalog) throws IOException {
+        this.catalog = catalog;
+        FramingHandler handler = new FramingHandler(this::onFrame, BufferPool.DEFAULT, MAX_REQUEST_LENGTH) {
+            @Override
+            public void onOpen(Connection connection) throws IOException {
+                super.onOpen(connection);
+                connection.setIdleTimeouts(0, 0, IDLE_SECONDS, TimeUnit.SECONDS);
+            }
+        };
+        this.server = new MultiReactorServer(address, workerCount, handler);
+    }
+
+    public void start() throws IOException {
+        server.start();
+    }
+
+    public int port() throws IOException {
+        return server.port();
+    }
+
+    private void onFrame(Connection connection, ByteBuffer frame) {
+        byte type = frame.hasRemaining() ? frame.get() : 0;
+        if (type == QUERY && frame.remaining() == 7 + VERSION_LENGTH) {
+            query(connection, frame);
+        } else if (type == DOWNLOAD && frame.remaining() == 4) {
+            download(connection, frame.getInt());
+        } else if (type == RANGE && frame.remaining() == 20) {
+            range(connection, frame.getInt(), frame.getLong(), frame.getLong());
+        } else if (type == SIGNATURES && frame.remaining() == 4) {
+            signatures(connection, frame.getInt());
+        } else if (type == CHECKSUMS && frame.remaining() == 4) {
+            checksums(connection, frame.getInt());
+        } else {
+            badRequest(connection);
+        }
+    }
+
+    private void query(Connection connection, ByteBuffer frame) {
+        int hwType = frame.get() & 0xFF;
+        int oui = frame.getShort() & 0xFFFF;
+        int hwModel = frame.getShort() & 0xFFFF;
+        int hwVersion = frame.getShort() & 0xFFFF;
+        long version = SwVersion.parse(frame);
+        if (version == SwVersion.INVALID) {
+            badRequest(connection);
+            return;
+        }
+        //正式版的机顶盒只升级到正式版，调试版的机顶盒（测试用）也接收调试版
+        OtaImage image = catalog.latest(hwType, oui, hwModel, hwVersion, version, !SwVersion.isRelease(version));
+        ByteBuffer out = connection.eventLoop().bufferPool().acquire(64);
+        if (image == null) {
+            Varint.write(out, 1);
+            out.put(STATUS_UP_TO_DATE);
+        } else {
+            Varint.write(out, 13 + VERSION_LENGTH);
+            out.put(STATUS_OK).putInt(image.id()).putLong(image.size());
+            SwVersion.write(out, image.swVersion());
+        }
+        out.flip();
+        connection.writePooled(out);
+        connection.flush();
+    }
+
+    private void download(Connection connection, int imageId) {
+        OtaImage image = catalog.image(imageId);
+        ByteBuffer out = connection.eventLoop().bufferPool().acquire(16);
+        if (image == null) {
+            Varint.write(out, 1);
+            out.put(STATUS_NOT_FOUND);
+        } else {
+            Varint.write(out, 9);
+            out.put(STATUS_OK).putLong(image.size());
+        }
+        out.flip();
+        connection.writePooled(out);
+        if (image != null) {
+            connection.writeFile(new FileRegion(image.channel(), 0, image.size()));
+        }
+        connection.flush();
+    }
+
+    /**
+     * 用定位的transferTo()发送[offset, offset + length)，多个连接同时读同一个FileChannel互不影响
+     */
+    private void range(Connection connection, int imageId, long offset, long length) {
+        OtaImage image = catalog.image(imageId);
+        ByteBuffer out = connection.eventLoop().bufferPool().acquire(16);
+        if (image == null) {
+            Varint.write(out, 1);
+            out.put(STATUS_NOT_FOUND);
+        } else if (offset < 0 || offset > image.size() || length < 0) {
+            Varint.write(out, 1);
+            out.put(STATUS_BAD_RANGE);
+            image = null;
+        } else {
+            length = Math.min(length, image.size() - offset);
+            Varint.write(out, 9);
+            out.put(STATUS_OK).putLong(length);
+        }
+        out.flip();
+        connection.writePooled(out);
+        if (image != null && length > 0) {
+            connection.writeFile(new FileRegion(image.channel(), offset, length));
+        }
+        connection.flush();
+    }
+
+    private void signatures(Connection connection, int imageId) {
+        OtaImage image = catalog.image(imageId);
+        ByteBuffer out = connection.eventLoop().bufferPool().acquire(64);
+        if (image == null) {
+            Varint.write(out, 1);
+            out.put(STATUS_NOT_FOUND);
+        } else {
+            Varint.write(out, 1 + BlockSignatures.HEADER_SIZE);
+            out.put(STATUS_OK);
+            image.signatures().writeHeader(out);
+        }
+        out.flip();
+        connection.writePooled(out);
+        if (image != null) {
+            //表是共享的只读缓冲区，每个连接发送自己的duplicate()
+            connection.write(image.signatures().table());
+        }
+        connection.flush();
+    }
+
+    private void checksums(Connection connection, int imageId) {
+        OtaImage image = catalog.image(imageId);
+        ByteBuffer out = connection.eventLoop().bufferPool().acquire(64);
+        if (image == null) {
+            Varint.write(out, 1);
+            out.put(STATUS_NOT_FOUND);
+        } else {
+            Varint.write(out, 1 + ChunkChecksums.HEADER_SIZE);
+            out.put(STATUS_OK);
+            image.checksums().writeHeader(out);
+        }
+        out.flip();
+        connection.writePooled(out);
+        if (image != null) {
+            connection.write(image.checksums().table());
+        }
+        connection.flush();
+    }
+
+    private void badRequest(Connection connection) {
+        ByteBuffer out = ByteBuffer.allocate(2);
+        Varint.write(out, 1);
+        out.put(STATUS_BAD_REQUEST).flip();
+        connection.write(out);
+        connection.flush();
+        connection.close();
+    }
+
+    public void join() throws InterruptedException {
+        server.join();
+    }
+
+    @Override
+    public void close() throws IOException {
+        server.close();
+    }
+}
@@ -0,0 +1,281 @@
+package club.virgilin;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.SelectionKey;
+
+/**
+ * OutboundQueue
+ *
+ * @author virgilin
+ * @date 2026/10/18
+ *
+ * 连接的发送队列
+ *
+ * 一、为什么需要发送队列
+ * 非阻塞通道的write()只写入套接字发送缓冲区能容纳的部分，返回值可能小于remaining()甚至为0。
+ * 直接调用一次write(buffer)而不检查剩余数据，对端一慢就会丢数据；循环重试又会把EventLoop卡住。
+ *
+ * 二、处理方式
+ * 1.待发送的缓冲区先入队，flush()时用GatheringByteChannel.write(ByteBuffer[])一次系统调用写出多个缓冲区
+ * 2.没写完时才关注OP_WRITE，通道可写后由EventLoop再次flush()；队列清空后立即取消OP_WRITE，
+ *   否则选择器会因为“一直可写”而空转
+ * 3.高低水位：积压字节数超过高水位时通知生产者暂停，降到低水位以下时通知恢复
+ *
+ * 三、文件：addFile()加入的FileRegion用transferTo()发送，与前后的缓冲区保持顺序
+ *
+ * 四、CompositeBuffer：addComposite()把每一段作为一项入队，最后一段写完时释放接管的引用
+ *
+ * 五、只能在通道注册的选择器所属线程中使用
+ */
+public class OutboundQueue {
+
+    /**
+     * 一次聚集写入最多的缓冲区个数（与系统的IOV_MAX相比足够小）
+     */
+    private static final int MAX_GATHER = 64;
+
+    /**
+     * 可写状态变化的通知
+     */
+    public interface WritabilityListener {
+
+        void onWritabilityChanged(boolean writable);
+    }
+
+    private final GatheringByteChannel channel;
+    private final SelectionKey selectionKey;
+    private final BufferPool bufferPool;
+    private final long highWaterMark;
+    private final long lowWaterMark;
+    private final WritabilityListener listener;
+
+    /**
+     * 环形数组：entries保存缓冲区，pooled标记写完后是否归还到缓冲区池；
+     * 文件项的缓冲区为null，FileRegion保存在regions中；
+     * CompositeBuffer的最后一段在owners中记录它，这一项移除时释放引用
+     */
+    private ByteBuffer[] entries = new ByteBuffer[8];
+    private boolean[] pooled = new boolean[8];
+    private FileRegion[] regions = new FileRegion[8];
+    private CompositeBuffer[] owners = new CompositeBuffer[8];
+    private int head;
+    private int size;
+    private final ByteBuffer[] gather = new ByteBuffer[MAX_GATHER];
+
+    private long pendingBytes;
+    private long bytesWritten;
+    private volatile boolean writable = true;
+
+    public OutboundQueue(GatheringByteChannel channel, SelectionKey selectionKey, BufferPool bufferPool,
+                         long highWaterMark, long lowWaterMark, WritabilityListener listener) {
+        if (lowWaterMark > highWaterMark) {
+            throw new IllegalArgumentException("lowWaterMark > highWaterMark");
+        }
+        this.channel = channel;
+        this.selectionKey = selectionKey;
+        this.bufferPool = bufferPool;
+        this.highWaterMark = highWaterMark;
+        this.lowWaterMark = lowWaterMark;
+        this.listener = listener;
+    }
+
+    /**
+     * 入队，缓冲区已处于读模式；入队后不能再修改它
+     */
+    public void add(ByteBuffer buffer) {
+        add(buffer, false);
+    }
+
+    /**
+     * 入队一个从缓冲区池申请的缓冲区，写完后自动归还
+     */
+    public void addPooled(ByteBuffer buffer) {
+        add(buffer, true);
+    }
+
+    /**
+     * 入队文件的一段，写到这里时用transferTo()发送
+     */
+    public void addFile(FileRegion region) {
+        if (region.remaining() > 0) {
+            add(null, false, region, region.remaining());
+        }
+    }
+
+    /**
+     * 入队CompositeBuffer的全部内容，接管调用者的一次引用，写完或clear()后释放
+     */
+    public void addComposite(CompositeBuffer buffer) {
+        ByteBuffer[] buffers = buffer.nioBuffers();
+        if (buffers.length == 0) {
+            buffer.release();
+            return;
+        }
+        for (ByteBuffer segment : buffers) {
+            add(segment, false);
+        }
+        owners[(head + size - 1) & (entries.length - 1)] = buffer;
+    }
+
+    private void add(ByteBuffer buffer, boolean fromPool) {
+        add(buffer, fromPool, null, buffer.remaining());
+    }
+
+    private void add(ByteBuffer buffer, boolean fromPool, FileRegion region, long bytes) {
+        if (size == entries.length) {
+            grow();
+        }
+        int index = (head + size) & (entries.length - 1);
+        entries[index] = buffer;
+        pooled[index] = fromPool;
+        regions[index] = region;
+        size++;
+        pendingBytes += bytes;
+        if (writable && pendingBytes > highWaterMark) {
+            setWritable(false);
+        }
+    }
+
+    private void grow() {
+        int capacity = entries.length;
+        ByteBuffer[] newEntries = new ByteBuffer[capacity << 1];
+        boolean[] newPooled = new boolean[capacity << 1];
+        FileRegion[] newRegions = new FileRegion[capacity << 1];
+        CompositeBuffer[] newOwners = new CompositeBuffer[capacity << 1];
+        for (int i = 0; i < size; i++) {
+            int index = (head + i) & (capacity - 1);
+            newEntries[i] = entries[index];
+            newPooled[i] = pooled[index];
+            newRegions[i] = regions[index];
+            newOwners[i] = owners[index];
+        }
+        entries = newEntries;
+        pooled = newPooled;
+        regions = newRegions;
+        owners = newOwners;
+        head = 0;
+    }
+
+    /**
+     * 尽可能多地写出队列中的数据
+     *
+     * @return 队列是否已清空
+     */
+    public boolean flush() throws IOException {
+        while (size > 0) {
+            //0.队首是文件：transferTo()，没发完说明发送缓冲区满了
+            FileRegion region = regions[head];
+            if (region != null) {
+                long written = region.transferTo(channel);
+                pendingBytes -= written;
+                bytesWritten += written;
+                NioMetrics.DEFAULT.recordWritten(written);
+                if (region.remaining() > 0) {
+                    break;
+                }
+                removeHead();
+                continue;
+            }
+            //1.把队首的若干个缓冲区放进聚集数组，遇到文件为止
+            int count = 0;
+            long expected = 0;
+            while (count < size && count < MAX_GATHER) {
+                int index = (head + count) & (entries.length - 1);
+                if (regions[index] != null) {
+                    break;
+                }
+                gather[count++] = entries[index];
+                expected += entries[index].remaining();
+            }
+            //2.一次系统调用写出
+            long written = channel.write(gather, 0, count);
+            pendingBytes -= written;
+            bytesWritten += written;
+            NioMetrics.DEFAULT.recordWritten(written);
+            //3.移除已经写完的缓冲区
+            for (int i = 0; i < count; i++) {
+                gather[i] = null;
+                if (entries[head].hasRemaining()) {
+                    break;
+                }
+                removeHead();
+            }
+            //4.发送缓冲区满了，等待OP_WRITE
+            if (written < expected) {
+                break;
+            }
+        }
+        if (!writable && pendingBytes < lowWaterMark) {
+            setWritable(true);
+        }
+        updateInterest();
+        return size == 0;
+    }
+
+    private void removeHead() {
+        ByteBuffer buffer = entries[head];
+        entries[head] = null;
+        regions[head] = null;
+        if (pooled[head]) {
+            bufferPool.release(buffer);
+        }
+        if (owners[head] != null) {
+            owners[head].release();
+            owners[head] = null;
+        }
+        head = (head + 1) & (entries.length - 1);
+        size--;
+    }
+
+    private void updateInterest() {
+        if (!selectionKey.isValid()) {
+            return;
+        }
+        int ops = selectionKey.interestOps();
+        int newOps = size == 0 ? ops & ~SelectionKey.OP_WRITE : ops | SelectionKey.OP_WRITE;
+        if (newOps != ops) {
+            selectionKey.interestOps(newOps);
+        }
+    }
+
+    private void setWritable(boolean writable) {
+        this.writable = writable;
+        if (listener != null) {
+            listener.onWritabilityChanged(writable);
+        }
+    }
+
+    /**
+     * 积压字节数是否低于高水位，可以在任意线程读取
+     */
+    public boolean isWritable() {
+        return writable;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public long pendingBytes() {
+        return pendingBytes;
+    }
+
+    /**
+     * 已写出到通道的总字节数
+     */
+    public long bytesWritten() {
+        return bytesWritten;
+    }
+
+    /**
+     * 丢弃所有未写出的数据（连接关闭时调用），池化的缓冲区归还到缓冲区池，CompositeBuffer释放引用
+     */
+    public void clear() {
+        while (size > 0) {
+            removeHead();
+        }
+        pendingBytes = 0;
+    }
+}
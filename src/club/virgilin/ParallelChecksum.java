@@ -0,0 +1,131 @@
+package club.virgilin;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.zip.CRC32C;
+
+/**
+ * ParallelChecksum
+ *
+ * @author virgilin
+ * @date 2026/10/18
+ *
+ * 多线程计算文件的ChunkChecksums
+ *
+ * 一、做法
+ * 1.文件按区域（默认64MB，块大小的整数倍）划分，每个区域是ForkJoinPool中的一个任务，任务按二分法拆分
+ * 2.每个任务只映射自己的区域，逐块计算CRC32C和SHA-256，结果写进共享数组中属于自己的位置，算完立即解除映射
+ * 3.所有任务结束后，ChunkChecksums按顺序合并各块的CRC32C，得到整个文件的CRC32C
+ *
+ * 二、为什么快
+ * 1.SHA-256每个核心每秒只能处理几百MB，单线程校验远慢于磁盘顺序读；分到多个核心后，瓶颈回到读盘
+ * 2.CRC32C有CPU指令支持，直接对映射缓冲区计算，不复制到堆上
+ * 3.映射区域由操作系统按需读入，多个线程同时缺页时磁盘可以合并请求
+ */
+public final class ParallelChecksum {
+
+    public static final long DEFAULT_REGION_SIZE = 64L * 1024 * 1024;
+
+    private ParallelChecksum() {
+    }
+
+    public static ChunkChecksums compute(FileChannel channel) throws IOException {
+        return compute(channel, ChunkChecksums.DEFAULT_CHUNK_SIZE, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @param chunkSize 块大小，也是流式校验的粒度
+     * @param pool      执行校验的线程池
+     */
+    public static ChunkChecksums compute(FileChannel channel, int chunkSize, ForkJoinPool pool) throws IOException {
+        long length = channel.size();
+        int chunks = BlockSignatures.blockCount(length, chunkSize);
+        long regionSize = Math.max(1, DEFAULT_REGION_SIZE / chunkSize) * chunkSize;
+        int regions = (int) ((length + regionSize - 1) / regionSize);
+        int[] crc = new int[chunks];
+        byte[] sha = new byte[chunks * 32];
+        try {
+            pool.invoke(new RegionTask(channel, length, chunkSize, regionSize, 0, regions, crc, sha));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        return new ChunkChecksums(chunkSize, length, crc, sha);
+    }
+
+    private static final class RegionTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final FileChannel channel;
+        private final long length;
+        private final int chunkSize;
+        private final long regionSize;
+        private final int from;
+        private final int to;
+        private final int[] crc;
+        private final byte[] sha;
+
+        RegionTask(FileChannel channel, long length, int chunkSize, long regionSize, int from, int to,
+                   int[] crc, byte[] sha) {
+            this.channel = channel;
+            this.length = length;
+            this.chunkSize = chunkSize;
+            this.regionSize = regionSize;
+            this.from = from;
+            this.to = to;
+            this.crc = crc;
+            this.sha = sha;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new RegionTask(channel, length, chunkSize, regionSize, from, middle, crc, sha),
+                        new RegionTask(channel, length, chunkSize, regionSize, middle, to, crc, sha));
+                return;
+            }
+            if (to == from) {
+                return;
+            }
+            try {
+                checksumRegion();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private void checksumRegion() throws IOException {
+            long position = from * regionSize;
+            long size = Math.min(regionSize, length - position);
+            MappedByteBuffer region = channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+            try {
+                CRC32C checksum = new CRC32C();
+                MessageDigest digest = BlockSignatures.sha256();
+                int chunk = (int) (position / chunkSize);
+                for (int start = 0; start < size; start += chunkSize, chunk++) {
+                    int end = (int) Math.min(start + chunkSize, size);
+                    //同一段数据先算CRC32C，再回到开头算SHA-256
+                    region.limit(end).position(start);
+                    checksum.reset();
+                    checksum.update(region);
+                    crc[chunk] = (int) checksum.getValue();
+                    region.position(start);
+                    digest.update(region);
+                    digest.digest(sha, chunk * 32, 32);
+                }
+            } catch (DigestException e) {
+                //sha的每一项都有32个字节，不会发生
+                throw new IllegalStateException(e);
+            } finally {
+                DirectBuffers.free(region);
+            }
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package club.virgilin;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Pipe;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+
+/**
+ * PipeTransport
+ *
+ * @author virgilin
+ * @date 2026/10/18
+ *
+ * 基于管道的StageTransport
+ *
+ * 一、写入端
+ * 1.消息加varint长度前缀，先攒在一个直接缓冲区里，flush()时一次write()写入SinkChannel
+ * 2.SinkChannel是阻塞模式，管道满时由操作系统挂起生产者
+ *
+ * 二、读取端
+ * 1.SourceChannel是非阻塞模式，注册到选择器上，没有数据时select()等待
+ * 2.读到缓冲区后按长度前缀拆出完整的消息，直接把缓冲区的一段交给handler（零拷贝），
+ *   不完整的消息compact()到缓冲区开头，等下次读
+ */
+public class PipeTransport implements StageTransport {
+
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    private final Pipe pipe;
+    private final Selector selector;
+    private final ByteBuffer out;
+    private final ByteBuffer in;
+
+    public PipeTransport() throws IOException {
+        this(DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * @param bufferSize 读写缓冲区的大小，也决定了消息的最大长度
+     */
+    public PipeTransport(int bufferSize) throws IOException {
+        this.pipe = Pipe.open();
+        this.selector = Selector.open();
+        pipe.source().configureBlocking(false);
+        pipe.source().register(selector, SelectionKey.OP_READ);
+        this.out = ByteBuffer.allocateDirect(bufferSize);
+        this.in = ByteBuffer.allocateDirect(bufferSize);
+        //读缓冲区保持读模式
+        in.flip();
+    }
+
+    @Override
+    public void send(ByteBuffer message) throws IOException {
+        int length = message.remaining();
+        int size = Varint.size(length) + length;
+        if (size > out.capacity()) {
+            throw new IllegalArgumentException("message too large: " + length);
+        }
+        if (out.remaining() < size) {
+            flush();
+        }
+        Varint.write(out, length);
+        out.put(message);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flip();
+        while (out.hasRemaining()) {
+            pipe.sink().write(out);
+        }
+        out.clear();
+    }
+
+    @Override
+    public void shutdownOutput() throws IOException {
+        flush();
+        pipe.sink().close();
+    }
+
+    @Override
+    public int receive(Handler handler) throws IOException {
+        int count = 0;
+        while (true) {
+            //1.交付缓冲区中所有完整的消息
+            while (in.hasRemaining()) {
+                int start = in.position();
+                int length = Varint.read(in);
+                if (length < 0 || in.remaining() < length) {
+                    in.position(start);
+                    break;
+                }
+                int limit = in.limit();
+                int end = in.position() + length;
+                in.limit(end);
+                handler.onMessage(in);
+                in.limit(limit).position(end);
+                count++;
+            }
+            if (count > 0) {
+                return count;
+            }
+
+            //2.再从管道读取，没有数据时在选择器上等待
+            in.compact();
+            int n = pipe.source().read(in);
+            in.flip();
+            if (n < 0) {
+                if (in.hasRemaining()) {
+                    throw new EOFException("truncated message: " + in.remaining() + " bytes");
+                }
+                return -1;
+            }
+            if (n == 0) {
+                selector.select();
+                selector.selectedKeys().clear();
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        selector.close();
+        pipe.sink().close();
+        pipe.source().close();
+    }
+}
@@ -0,0 +1,152 @@
+package club.virgilin;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Pipeline
+ *
+ * @author virgilin
+ * @date 2026/10/18
+ *
+ * 多级流水线：每一级一个线程，相邻两级之间是一个StageTransport
+ *
+ * 一、数据流
+ * submit() → transport[0] → stage[0] → transport[1] → stage[1] → ... → stage[n-1]
+ *
+ * 二、批量
+ * 每一级收到一批消息，全部处理完之后才flush()一次下游通道，负载越高批越大
+ *
+ * 三、关闭
+ * close()从第一级开始依次shutdownOutput()，每一级读完上游的剩余消息后再关闭下游，最后等所有线程结束。
+ * 1.某一级处理消息时抛出异常（stage.process()），之后所有级都丢弃消息但继续读取，上游不会因为通道满而永久阻塞
+ * 2.通道本身出错（receive()或者flush()下游抛出异常）时这一级没法再读，线程结束并关闭自己的输入通道，
+ *   上游的send()/flush()随之出错而不是永久阻塞，上游这一级也照此结束，一直传到submit()
+ * 两种情况都只记录第一个异常，在close()时抛出。
+ */
+public class Pipeline implements Closeable {
+
+    private final PipelineStage[] stages;
+    private final StageTransport[] transports;
+    private final Thread[] threads;
+    private volatile Throwable failure;
+
+    /**
+     * @param factory 用于创建各级之间的通道，例如PipeTransport::new或RingTransport::new
+     */
+    public Pipeline(StageTransport.Factory factory, PipelineStage... stages) throws IOException {
+        if (stages.length == 0) {
+            throw new IllegalArgumentException("no stages");
+        }
+        this.stages = stages.clone();
+        this.transports = new StageTransport[stages.length];
+        this.threads = new Thread[stages.length];
+        try {
+            for (int i = 0; i < stages.length; i++) {
+                transports[i] = factory.create();
+            }
+        } catch (IOException e) {
+            closeTransports();
+            throw e;
+        }
+        for (int i = 0; i < stages.length; i++) {
+            int index = i;
+            threads[i] = new Thread(() -> runStage(index), "pipeline-stage-" + i);
+        }
+    }
+
+    public void start() {
+        for (Thread thread : threads) {
+            thread.start();
+        }
+    }
+
+    /**
+     * 向第一级提交一条消息，只能由一个线程调用
+     */
+    public void submit(ByteBuffer message) throws IOException {
+        transports[0].send(message);
+    }
+
+    public void flush() throws IOException {
+        transports[0].flush();
+    }
+
+    private void runStage(int index) {
+        PipelineStage stage = stages[index];
+        StageTransport in = transports[index];
+        StageTransport next = index + 1 < transports.length ? transports[index + 1] : null;
+        StageTransport.Handler handler = message -> {
+            if (failure != null) {
+                return;
+            }
+            try {
+                stage.process(message, next);
+            } catch (IOException | RuntimeException e) {
+                failure = e;
+                e.printStackTrace();
+            }
+        };
+        try {
+            while (in.receive(handler) >= 0) {
+                if (next != null) {
+                    next.flush();
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            //下游关闭通道引起的异常晚于真正的原因，只保留最早的
+            if (failure == null) {
+                failure = e;
+            }
+            e.printStackTrace();
+            try {
+                in.close();
+            } catch (IOException closeFailure) {
+                e.addSuppressed(closeFailure);
+            }
+        } finally {
+            if (next != null) {
+                try {
+                    next.shutdownOutput();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    /**
+     * 发送完毕，等待所有消息处理完
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            transports[0].shutdownOutput();
+            for (Thread thread : threads) {
+                thread.join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while closing pipeline", e);
+        } finally {
+            closeTransports();
+        }
+        Throwable cause = failure;
+        if (cause != null) {
+            throw new IOException("pipeline stage failed", cause);
+        }
+    }
+
+    private void closeTransports() {
+        for (StageTransport transport : transports) {
+            if (transport != null) {
+                try {
+                    transport.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package club.virgilin;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * PipelineStage
+ *
+ * @author virgilin
+ * @date 2026/10/18
+ *
+ * 流水线中的一级，在自己的线程中执行
+ */
+public interface PipelineStage {
+
+    /**
+     * 处理一条消息，结果通过next.send()交给下一级
+     *
+     * @param message 位于position到limit之间，方法返回后会被复用
+     * @param next    通往下一级的通道，最后一级为null
+     */
+    void process(ByteBuffer message, StageTransport next) throws IOException;
+}
@@ -0,0 +1,436 @@
+package club.virgilin;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * RecordFile
+ *
+ * @author virgilin
+ * @date 2026/10/18
+ *
+ * 只追加的记录文件，在TestChannel.test4()的分散读取/聚集写入之上加入记录结构
+ *
+ * 一、记录格式：固定16字节的记录头 + 内容
+ *     长度(int) CRC32(int) 时间戳(long)
+ * 1.写入：记录头缓冲区 + 调用方的内容缓冲区，一次聚集写入，内容不需要先拼接
+ * 2.读取：记录头缓冲区 + 调用方的内容缓冲区，一次分散读取（不超过4KB的记录一次系统调用读完）
+ *
+ * 二、稀疏索引
+ * 每indexInterval条记录保存一个（文件偏移量，时间戳），用两个long[]存放，百万条记录也不会产生百万个对象。
+ * 1.定位第N条记录：直接取第N / indexInterval个索引项，再向后跳过不超过indexInterval个记录头
+ * 2.定位时间戳：在索引的时间戳上二分查找，再向后跳过记录头；要求时间戳不递减
+ *
+ * 三、打开已有文件时扫描所有记录重建索引并校验CRC，从第一条写了一半或者CRC不一致的记录开始截掉；
+ * 只看长度会把崩溃前没写完、但文件大小已经扩展的记录当成完整记录
+ *
+ * 四、只能有一个线程追加；读取使用reader()，每个Reader有自己的FileChannel，互不影响
+ */
+public class RecordFile implements Closeable {
+
+    public static final int HEADER_SIZE = 16;
+
+    /**
+     * 读取时随记录头一起预读的内容字节数
+     */
+    private static final int READ_AHEAD = 4096;
+
+    /**
+     * 恢复时校验CRC用的缓冲区大小
+     */
+    private static final int RECOVER_BUFFER_SIZE = 64 * 1024;
+
+    private final Path path;
+    private final FileChannel channel;
+    private final int indexInterval;
+    private final ByteBuffer header = ByteBuffer.allocateDirect(HEADER_SIZE);
+    private final CRC32 crc = new CRC32();
+    private ByteBuffer[] gather = new ByteBuffer[4];
+
+    private long[] indexOffsets = new long[64];
+    private long[] indexTimestamps = new long[64];
+    private int indexSize;
+
+    private volatile long recordCount;
+    private volatile long writePosition;
+    private long lastTimestamp = Long.MIN_VALUE;
+
+    private RecordFile(Path path, FileChannel channel, int indexInterval) {
+        this.path = path;
+        this.channel = channel;
+        this.indexInterval = indexInterval;
+    }
+
+    /**
+     * 打开或创建记录文件
+     *
+     * @param indexInterval 每隔多少条记录建立一个索引项
+     */
+    public static RecordFile open(Path path, int indexInterval) throws IOException {
+        if (indexInterval <= 0) {
+            throw new IllegalArgumentException("indexInterval: " + indexInterval);
+        }
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        RecordFile recordFile = new RecordFile(path, channel, indexInterval);
+        try {
+            recordFile.recover();
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        return recordFile;
+    }
+
+    /**
+     * 扫描记录重建索引，遇到不完整或者CRC不一致的记录就停下
+     */
+    private void recover() throws IOException {
+        long size = channel.size();
+        long position = 0;
+        ByteBuffer buffer = BufferPool.DEFAULT.acquire(RECOVER_BUFFER_SIZE);
+        try {
+            while (position + HEADER_SIZE <= size) {
+                header.clear();
+                while (header.hasRemaining()) {
+                    if (channel.read(header, position + header.position()) < 0) {
+                        throw new EOFException();
+                    }
+                }
+                int length = header.getInt(0);
+                long timestamp = header.getLong(8);
+                if (length < 0 || position + HEADER_SIZE + length > size
+                        || checksum(buffer, position + HEADER_SIZE, length) != header.getInt(4)) {
+                    break;
+                }
+                index(position, timestamp);
+                position += HEADER_SIZE + length;
+            }
+        } finally {
+            BufferPool.DEFAULT.release(buffer);
+        }
+        if (position < size) {
+            //末尾是写了一半的记录，后面的内容不可信，一起截掉
+            channel.truncate(position);
+        }
+        writePosition = position;
+        channel.position(position);
+    }
+
+    /**
+     * 文件中[offset, offset + length)的CRC32
+     */
+    private int checksum(ByteBuffer buffer, long offset, int length) throws IOException {
+        crc.reset();
+        long end = offset + length;
+        while (offset < end) {
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), end - offset));
+            int n = channel.read(buffer, offset);
+            if (n < 0) {
+                throw new EOFException();
+            }
+            buffer.flip();
+            crc.update(buffer);
+            offset += n;
+        }
+        return (int) crc.getValue();
+    }
+
+    private synchronized void index(long offset, long timestamp) {
+        if (recordCount % indexInterval == 0) {
+            if (indexSize == indexOffsets.length) {
+                indexOffsets = Arrays.copyOf(indexOffsets, indexSize << 1);
+                indexTimestamps = Arrays.copyOf(indexTimestamps, indexSize << 1);
+            }
+            indexOffsets[indexSize] = offset;
+            indexTimestamps[indexSize] = timestamp;
+            indexSize++;
+        }
+        recordCount++;
+        lastTimestamp = timestamp;
+    }
+
+    /**
+     * 以当前时间追加一条记录
+     */
+    public long append(ByteBuffer... payload) throws IOException {
+        return append(System.currentTimeMillis(), payload);
+    }
+
+    /**
+     * 追加一条记录，内容为各缓冲区的剩余部分依次拼接，写入后各缓冲区的position移到limit
+     *
+     * @param timestamp 不能小于上一条记录的时间戳
+     * @return 记录序号，从0开始
+     */
+    public long append(long timestamp, ByteBuffer... payload) throws IOException {
+        if (timestamp < lastTimestamp) {
+            throw new IllegalArgumentException("timestamp " + timestamp + " < " + lastTimestamp);
+        }
+        //1.计算长度和CRC，不移动内容缓冲区的position
+        long length = 0;
+        crc.reset();
+        for (ByteBuffer buffer : payload) {
+            int position = buffer.position();
+            length += buffer.remaining();
+            crc.update(buffer);
+            buffer.position(position);
+        }
+        if (length > Integer.MAX_VALUE - HEADER_SIZE) {
+            throw new IllegalArgumentException("record too large: " + length);
+        }
+        //2.记录头 + 内容，聚集写入
+        header.clear();
+        header.putInt((int) length).putInt((int) crc.getValue()).putLong(timestamp).flip();
+        int count = payload.length + 1;
+        if (gather.length < count) {
+            gather = new ByteBuffer[count];
+        }
+        gather[0] = header;
+        System.arraycopy(payload, 0, gather, 1, payload.length);
+        long offset = writePosition;
+        long total = HEADER_SIZE + length;
+        long written = 0;
+        try {
+            while (written < total) {
+                written += channel.write(gather, 0, count);
+            }
+        } finally {
+            Arrays.fill(gather, 0, count, null);
+        }
+        long recordNo = recordCount;
+        index(offset, timestamp);
+        writePosition = offset + total;
+        return recordNo;
+    }
+
+    /**
+     * 把已追加的记录强制写回磁盘
+     */
+    public void flush() throws IOException {
+        channel.force(false);
+    }
+
+    public long recordCount() {
+        return recordCount;
+    }
+
+    public Path path() {
+        return path;
+    }
+
+    /**
+     * 不超过第recordNo条记录的最近一个索引项
+     */
+    private synchronized int floorSlot(long recordNo) {
+        return (int) Math.min(recordNo / indexInterval, indexSize - 1);
+    }
+
+    /**
+     * 时间戳小于timestamp的最后一个索引项，没有时返回0
+     */
+    private synchronized int floorSlotByTimestamp(long timestamp) {
+        int low = 0;
+        int high = indexSize - 1;
+        int slot = 0;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (indexTimestamps[mid] < timestamp) {
+                slot = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return slot;
+    }
+
+    private synchronized long indexOffset(int slot) {
+        return indexSize == 0 ? 0 : indexOffsets[slot];
+    }
+
+    /**
+     * 打开一个独立的读取器，初始位置在第0条记录
+     */
+    public Reader reader() throws IOException {
+        return new Reader(FileChannel.open(path, StandardOpenOption.READ));
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * 顺序读取记录，支持按序号和时间戳定位
+     */
+    public class Reader implements Closeable {
+
+        private final FileChannel channel;
+        private final ByteBuffer header = ByteBuffer.allocateDirect(HEADER_SIZE);
+        private final ByteBuffer[] scatter = new ByteBuffer[2];
+        private final CRC32 crc = new CRC32();
+        private long position;
+        private long recordNo;
+        private int length;
+        private long timestamp;
+
+        private Reader(FileChannel channel) {
+            this.channel = channel;
+            scatter[0] = header;
+        }
+
+        /**
+         * 定位到第recordNo条记录
+         */
+        public void seek(long recordNo) throws IOException {
+            if (recordNo < 0 || recordNo > recordCount) {
+                throw new IndexOutOfBoundsException("record " + recordNo + " of " + recordCount);
+            }
+            if (recordNo == 0) {
+                position = 0;
+                this.recordNo = 0;
+                return;
+            }
+            int slot = floorSlot(recordNo);
+            position = indexOffset(slot);
+            this.recordNo = (long) slot * indexInterval;
+            while (this.recordNo < recordNo) {
+                skip();
+            }
+        }
+
+        /**
+         * 定位到第一条时间戳不小于timestamp的记录
+         */
+        public void seekTimestamp(long timestamp) throws IOException {
+            int slot = floorSlotByTimestamp(timestamp);
+            position = indexOffset(slot);
+            recordNo = (long) slot * indexInterval;
+            while (recordNo < recordCount && readHeader() && this.timestamp < timestamp) {
+                skip();
+            }
+        }
+
+        private void skip() throws IOException {
+            if (!readHeader()) {
+                throw new EOFException();
+            }
+            position += HEADER_SIZE + length;
+            recordNo++;
+        }
+
+        private boolean readHeader() throws IOException {
+            if (position + HEADER_SIZE > writePosition) {
+                return false;
+            }
+            header.clear();
+            while (header.hasRemaining()) {
+                if (channel.read(header, position + header.position()) < 0) {
+                    return false;
+                }
+            }
+            length = header.getInt(0);
+            timestamp = header.getLong(8);
+            checkLength();
+            return true;
+        }
+
+        /**
+         * 读取下一条记录到dst，内容位于dst原来的position到返回时的limit之间
+         *
+         * @return 没有更多记录时返回false
+         * @throws BufferOverflowException dst的剩余空间小于记录长度
+         */
+        public boolean next(ByteBuffer dst) throws IOException {
+            if (recordNo >= recordCount || position + HEADER_SIZE > writePosition) {
+                return false;
+            }
+            int start = dst.position();
+            int limit = dst.limit();
+            //1.分散读取：记录头 + 内容，内容部分最多预读READ_AHEAD个字节，小记录一次系统调用就能读完
+            header.clear();
+            dst.limit(start + Math.min(limit - start, READ_AHEAD));
+            scatter[1] = dst;
+            try {
+                channel.position(position);
+                while (header.hasRemaining()) {
+                    if (channel.read(scatter) < 0) {
+                        throw new EOFException("truncated record " + recordNo);
+                    }
+                }
+            } finally {
+                scatter[1] = null;
+            }
+            length = header.getInt(0);
+            timestamp = header.getLong(8);
+            if (length < 0 || position + HEADER_SIZE + length > writePosition) {
+                dst.position(start);
+                dst.limit(limit);
+                checkLength();
+            }
+            if (length > limit - start) {
+                dst.position(start);
+                dst.limit(limit);
+                throw new BufferOverflowException();
+            }
+            //2.可能多读了下一条记录的开头，也可能还没读完本条记录
+            if (dst.position() > start + length) {
+                dst.position(start + length);
+            }
+            dst.limit(start + length);
+            while (dst.hasRemaining()) {
+                if (channel.read(dst) < 0) {
+                    throw new EOFException("truncated record " + recordNo);
+                }
+            }
+            //3.校验CRC
+            dst.position(start);
+            crc.reset();
+            crc.update(dst);
+            dst.position(start);
+            if ((int) crc.getValue() != header.getInt(4)) {
+                throw new IOException("crc mismatch at record " + recordNo);
+            }
+            position += HEADER_SIZE + length;
+            recordNo++;
+            return true;
+        }
+
+        /**
+         * 记录头中的长度为负数或者越过已写入的位置，说明文件在打开之后被别人改写了
+         */
+        private void checkLength() throws IOException {
+            if (length < 0 || position + HEADER_SIZE + length > writePosition) {
+                throw new IOException("corrupt record " + recordNo + ", length " + length + " at offset " + position);
+            }
+        }
+
+        /**
+         * 下一条要读取的记录序号
+         */
+        public long recordNo() {
+            return recordNo;
+        }
+
+        /**
+         * 最近一次读取的记录的时间戳
+         */
+        public long timestamp() {
+            return timestamp;
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+}
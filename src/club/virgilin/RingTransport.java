@@ -0,0 +1,131 @@
+package club.virgilin;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * RingTransport
+ *
+ * @author virgilin
+ * @date 2026/10/18
+ *
+ * 基于SpscBufferRing的StageTransport，不经过内核
+ *
+ * 一、写入端
+ * 1.消息直接复制进环的槽位，攒够batchSize条或flush()时才发布（一批只有一次有序写）
+ * 2.环满时先发布已有的消息，再短暂暂停等消费者腾出槽位
+ *
+ * 二、读取端
+ * 1.有消息时整批交给handler，再一次性归还槽位
+ * 2.没有消息时先自旋一会儿，仍然没有再挂起，生产者发布时唤醒；
+ *   挂起设有上限时间，防止极少数情况下错过唤醒
+ */
+public class RingTransport implements StageTransport {
+
+    /**
+     * 单核时自旋只会占着生产者需要的CPU，直接挂起
+     */
+    private static final int SPIN_TRIES = Runtime.getRuntime().availableProcessors() > 1 ? 1000 : 0;
+    private static final long PARK_NANOS = 100_000;
+
+    private final SpscBufferRing ring;
+    private final int batchSize;
+    private int pending;
+    private volatile boolean shutdown;
+    private volatile boolean waiting;
+    private volatile Thread consumer;
+
+    public RingTransport() {
+        this(1024, 2048, 64);
+    }
+
+    /**
+     * @param capacity  槽位数，必须是2的幂
+     * @param slotSize  槽位大小，即消息的最大长度
+     * @param batchSize 攒够多少条消息自动发布一次
+     */
+    public RingTransport(int capacity, int slotSize, int batchSize) {
+        if (batchSize <= 0 || batchSize > capacity) {
+            throw new IllegalArgumentException("batchSize: " + batchSize);
+        }
+        this.ring = new SpscBufferRing(capacity, slotSize);
+        this.batchSize = batchSize;
+    }
+
+    @Override
+    public void send(ByteBuffer message) throws IOException {
+        ByteBuffer slot = ring.claim();
+        while (slot == null) {
+            flush();
+            LockSupport.parkNanos(1000);
+            slot = ring.claim();
+        }
+        if (message.remaining() > slot.remaining()) {
+            throw new IllegalArgumentException("message too large: " + message.remaining());
+        }
+        slot.put(message);
+        slot.flip();
+        ring.commit();
+        if (++pending >= batchSize) {
+            flush();
+        }
+    }
+
+    @Override
+    public void flush() {
+        pending = 0;
+        if (ring.publish() > 0 && waiting) {
+            LockSupport.unpark(consumer);
+        }
+    }
+
+    @Override
+    public void shutdownOutput() {
+        flush();
+        shutdown = true;
+        Thread thread = consumer;
+        if (thread != null) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    @Override
+    public int receive(Handler handler) throws IOException {
+        if (consumer == null) {
+            consumer = Thread.currentThread();
+        }
+        int idle = 0;
+        while (true) {
+            int n = ring.available();
+            if (n > 0) {
+                for (int i = 0; i < n; i++) {
+                    handler.onMessage(ring.get(i));
+                }
+                ring.release(n);
+                return n;
+            }
+            if (shutdown) {
+                //shutdown之前发布的消息可能刚刚才可见
+                if (ring.available() == 0) {
+                    return -1;
+                }
+                continue;
+            }
+            if (++idle < SPIN_TRIES) {
+                Thread.onSpinWait();
+                continue;
+            }
+            waiting = true;
+            if (ring.available() == 0 && !shutdown) {
+                LockSupport.parkNanos(this, PARK_NANOS);
+            }
+            waiting = false;
+        }
+    }
+
+    @Override
+    public void close() {
+        shutdown = true;
+    }
+}
@@ -0,0 +1,61 @@
+package club.virgilin;
+
+import java.nio.ByteBuffer;
+
+/**
+ * RollingChecksum
+ *
+ * @author virgilin
+ * @date 2026/10/18
+ *
+ * rsync的弱校验和：a = 窗口内字节之和，b = 每个字节乘以它到窗口末尾的距离之和，都取低16位，结果是b << 16 | a
+ *
+ * 窗口向后滑动一个字节时，只需要减去移出的字节、加上移入的字节，O(1)得到新窗口的校验和，
+ * 所以可以在旧文件的每一个偏移位置上找和新文件某个块相同的内容。
+ * 弱校验和会冲突，匹配上之后还要再比较强校验和。
+ */
+public class RollingChecksum {
+
+    private int a;
+    private int b;
+    private int length;
+
+    /**
+     * 从buffer的[position, limit)计算校验和，作为窗口的初始内容；不改变position
+     */
+    public void reset(ByteBuffer buffer) {
+        a = 0;
+        b = 0;
+        length = buffer.remaining();
+        int end = buffer.limit();
+        for (int i = buffer.position(); i < end; i++) {
+            int value = buffer.get(i) & 0xFF;
+            a += value;
+            b += a;
+        }
+    }
+
+    /**
+     * 窗口后移一个字节
+     *
+     * @param out 移出窗口的字节
+     * @param in  移入窗口的字节
+     */
+    public void roll(byte out, byte in) {
+        a += (in & 0xFF) - (out & 0xFF);
+        b += a - length * (out & 0xFF);
+    }
+
+    public int value() {
+        return (b & 0xFFFF) << 16 | (a & 0xFFFF);
+    }
+
+    /**
+     * buffer的[position, limit)的校验和
+     */
+    public static int of(ByteBuffer buffer) {
+        RollingChecksum checksum = new RollingChecksum();
+        checksum.reset(buffer);
+        return checksum.value();
+    }
+}
@@ -0,0 +1,311 @@
+package club.virgilin;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/**
+ * SessionTransferClient
+ *
+ * @author virgilin
+ * @date 2026/10/18
+ *
+ * 一个连接传输多个文件的发送端，协议见SessionTransferServer
+ *
+ * 一、流水线
+ * 1.文件一个接一个发送，不等上一个文件的确认；确认由单独的线程接收
+ * 2.最多MAX_UNACKED_FILES个文件没有确认，再多就等待，服务端出问题时不会无限制地往前发
+ *
+ * 二、小文件：聚集写
+ * 不超过SMALL_FILE_SIZE的文件读进数据区，头部写进头部区，[头部, 数据, 头部, 数据, ...]攒成一批，
+ * 用一次write(ByteBuffer[])发出去；几百个小文件只需要一次系统调用，TCP也能发满报文段
+ *
+ * 三、大文件：零拷贝
+ * 用映射缓冲区计算CRC32C，头部和攒着的小文件一起发出去，再用FileTransfer.send()（transferTo）发送数据
+ */
+public class SessionTransferClient {
+
+    /**
+     * 不超过这个大小的文件走聚集写
+     */
+    public static final int SMALL_FILE_SIZE = 64 * 1024;
+
+    /**
+     * 没有确认的文件数上限
+     */
+    public static final int MAX_UNACKED_FILES = 1024;
+
+    private static final int DATA_AREA_SIZE = 1024 * 1024;
+    private static final int HEADER_AREA_SIZE = 128 * 1024;
+    /**
+     * 每批最多的缓冲区个数，Linux的IOV_MAX是1024
+     */
+    private static final int MAX_BATCH_BUFFERS = 1024;
+    private static final long CHECKSUM_REGION_SIZE = 64L * 1024 * 1024;
+
+    private final InetSocketAddress address;
+
+    public SessionTransferClient(InetSocketAddress address) {
+        this.address = address;
+    }
+
+    /**
+     * 发送目录下的所有文件（包括子目录），文件名是相对root的路径
+     *
+     * @return 发送的文件数
+     */
+    public int syncDirectory(Path root) throws IOException, InterruptedException {
+        List<Path> files;
+        try (Stream<Path> stream = Files.walk(root)) {
+            files = stream.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+        }
+        return send(root, files);
+    }
+
+    /**
+     * 在一个连接上发送所有文件，等全部确认后返回
+     *
+     * @param root  文件名相对的目录
+     * @param files root下的文件
+     * @return 发送的文件数
+     * @throws IOException 连接出错，或者有文件被服务端拒绝（异常信息中列出这些文件）
+     */
+    public int send(Path root, List<Path> files) throws IOException, InterruptedException {
+        BufferPool bufferPool = BufferPool.DEFAULT;
+        try (SocketChannel channel = SocketChannel.open(address)) {
+            //最后一批数据和结束标记都很小，不能让Nagle算法等前面的ACK
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            AckReader ackReader = new AckReader(channel);
+            Thread ackThread = new Thread(ackReader, "session-acks");
+            ackThread.start();
+            Batch batch = new Batch(channel, bufferPool.acquire(HEADER_AREA_SIZE), bufferPool.acquire(DATA_AREA_SIZE));
+            boolean completed = false;
+            try {
+                batch.headers.putInt(SessionTransferServer.MAGIC);
+                int sequence = 0;
+                for (Path path : files) {
+                    String name = root.relativize(path).toString().replace(path.getFileSystem().getSeparator(), "/");
+                    byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+                    if (nameBytes.length > 0xFFFF) {
+                        throw new IllegalArgumentException("file name too long: " + name);
+                    }
+                    //窗口满了先把攒着的发出去，否则等的确认永远不会来
+                    if (!ackReader.window.tryAcquire()) {
+                        batch.flush();
+                        ackReader.window.acquire();
+                    }
+                    ackReader.names.put(sequence++, name);
+                    try (FileChannel file = FileChannel.open(path, StandardOpenOption.READ)) {
+                        long size = file.size();
+                        if (size <= SMALL_FILE_SIZE) {
+                            batch.addSmallFile(nameBytes, file, (int) size);
+                        } else {
+                            batch.sendLargeFile(nameBytes, file, size);
+                        }
+                    }
+                }
+                batch.end();
+                completed = true;
+            } finally {
+                bufferPool.release(batch.headers);
+                bufferPool.release(batch.data);
+                if (!completed) {
+                    //让确认线程读到EOF退出，连接由try-with-resources关闭
+                    try {
+                        channel.shutdownInput();
+                    } catch (IOException e) {
+                        //连接已经断开，确认线程的read()同样会出错退出
+                    }
+                }
+                ackThread.join();
+            }
+            return ackReader.check(files.size());
+        }
+    }
+
+    /**
+     * 攒着的一批小文件
+     */
+    private static final class Batch {
+
+        private final SocketChannel channel;
+        private final ByteBuffer headers;
+        private final ByteBuffer data;
+        private final ByteBuffer[] buffers = new ByteBuffer[MAX_BATCH_BUFFERS];
+        private final CRC32C checksum = new CRC32C();
+        private int count;
+        private int headerStart;
+
+        Batch(SocketChannel channel, ByteBuffer headers, ByteBuffer data) {
+            this.channel = channel;
+            this.headers = headers;
+            this.data = data;
+        }
+
+        void addSmallFile(byte[] name, FileChannel file, int size) throws IOException {
+            //最多再加数据、头部和flush()时剩下的头部三个缓冲区
+            if (headers.remaining() < 15 + name.length || data.remaining() < size || count + 3 > buffers.length) {
+                flush();
+            }
+            //1.数据读进数据区，同时算CRC32C
+            int start = data.position();
+            while (data.position() < start + size) {
+                data.limit(start + size);
+                if (file.read(data, data.position() - start) < 0) {
+                    throw new EOFException("file shrank while sending, expected " + size + " bytes");
+                }
+            }
+            data.limit(data.capacity());
+            ByteBuffer content = slice(data, start, start + size);
+            checksum.reset();
+            checksum.update(content.duplicate());
+            //2.头部写进头部区，紧跟在上一段头部之后的可以合并成一个缓冲区
+            putHeader(name, size, (int) checksum.getValue());
+            buffers[count++] = slice(headers, headerStart, headers.position());
+            headerStart = headers.position();
+            if (size > 0) {
+                buffers[count++] = content;
+            }
+        }
+
+        /**
+         * 头部和攒着的小文件一起发出去，然后transferTo发送数据
+         */
+        void sendLargeFile(byte[] name, FileChannel file, long size) throws IOException {
+            int crc = checksum(file, size);
+            if (headers.remaining() < 15 + name.length) {
+                flush();
+            }
+            putHeader(name, size, crc);
+            flush();
+            FileTransfer.send(file, 0, size, channel);
+        }
+
+        void end() throws IOException {
+            if (!headers.hasRemaining()) {
+                flush();
+            }
+            headers.put(SessionTransferServer.END);
+            flush();
+        }
+
+        private void putHeader(byte[] name, long size, int crc) {
+            headers.put(SessionTransferServer.FILE).putShort((short) name.length).put(name).putLong(size).putInt(crc);
+        }
+
+        /**
+         * 聚集写出这一批，包括还没有切出去的头部（魔数、大文件头部、结束标记）
+         */
+        void flush() throws IOException {
+            if (headers.position() > headerStart) {
+                buffers[count++] = slice(headers, headerStart, headers.position());
+            }
+            int offset = 0;
+            while (offset < count) {
+                channel.write(buffers, offset, count - offset);
+                while (offset < count && !buffers[offset].hasRemaining()) {
+                    buffers[offset++] = null;
+                }
+            }
+            count = 0;
+            headers.clear();
+            data.clear();
+            headerStart = 0;
+        }
+
+        private int checksum(FileChannel file, long size) throws IOException {
+            checksum.reset();
+            for (long position = 0; position < size; position += CHECKSUM_REGION_SIZE) {
+                MappedByteBuffer region = file.map(FileChannel.MapMode.READ_ONLY, position,
+                        Math.min(CHECKSUM_REGION_SIZE, size - position));
+                try {
+                    checksum.update(region);
+                } finally {
+                    DirectBuffers.free(region);
+                }
+            }
+            return (int) checksum.getValue();
+        }
+
+        private static ByteBuffer slice(ByteBuffer area, int from, int to) {
+            ByteBuffer duplicate = area.duplicate();
+            duplicate.limit(to).position(from);
+            return duplicate.slice();
+        }
+    }
+
+    /**
+     * 接收确认的线程
+     */
+    private static final class AckReader implements Runnable {
+
+        private final SocketChannel channel;
+        private final Semaphore window = new Semaphore(MAX_UNACKED_FILES);
+        private final Map<Integer, String> names = new ConcurrentHashMap<>();
+        private final List<String> rejected = new ArrayList<>();
+        private int acknowledged;
+        private IOException failure;
+
+        AckReader(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public void run() {
+            ByteBuffer buffer = ByteBuffer.allocate(SessionTransferServer.ACK_SIZE * 1024);
+            try {
+                while (channel.read(buffer) >= 0) {
+                    buffer.flip();
+                    while (buffer.remaining() >= SessionTransferServer.ACK_SIZE) {
+                        String name = names.remove(buffer.getInt());
+                        byte status = buffer.get();
+                        if (status != SessionTransferServer.ACK_OK) {
+                            rejected.add(name + (status == SessionTransferServer.ACK_BAD_CHECKSUM
+                                    ? " (bad checksum)" : " (rejected)"));
+                        }
+                        acknowledged++;
+                        window.release();
+                    }
+                    buffer.compact();
+                }
+            } catch (IOException e) {
+                failure = e;
+            }
+            //服务端断开时不让发送线程一直等窗口
+            window.release(MAX_UNACKED_FILES);
+        }
+
+        /**
+         * 线程结束后调用
+         */
+        int check(int files) throws IOException {
+            if (failure != null) {
+                throw failure;
+            }
+            if (acknowledged != files) {
+                throw new EOFException("session closed with " + acknowledged + " of " + files + " files acknowledged");
+            }
+            if (!rejected.isEmpty()) {
+                throw new IOException(rejected.size() + " files rejected: " + rejected);
+            }
+            return files;
+        }
+    }
+}
@@ -0,0 +1,307 @@
+package club.virgilin;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.CRC32C;
+
+/**
+ * SessionTransferServer
+ *
+ * @author virgilin
+ * @date 2026/10/18
+ *
+ * 一个连接传输多个文件的接收端
+ *
+ * 一、为什么
+ * TestBlockingNIO2.server()每个连接只传一个文件，用shutdownOutput()表示文件结束。
+ * 同步一个有几千个小文件的目录时，每个文件都要重新握手、重新经历慢启动，时间几乎都花在建立连接上。
+ *
+ * 二、协议（所有整数均为大端序）
+ * 1.握手  客户端 -> 服务端：魔数(int)
+ * 2.文件  客户端 -> 服务端：1 文件名长度(u16) 文件名(UTF-8，'/'分隔的相对路径) 文件大小(long) CRC32C(int) 数据
+ *        文件一个接一个紧挨着发送，不等确认
+ * 3.确认  服务端 -> 客户端：序号(int) 状态(byte)，序号是文件在本次会话中的顺序，从0开始
+ * 4.结束  客户端 -> 服务端：0，服务端发完剩下的确认后关闭输出
+ *
+ * 三、接收
+ * 1.所有头部和数据都从同一个256KB的直接缓冲区中解析，一次read()可能带来几十个小文件，不必每个字段读一次
+ * 2.数据先写入“文件名.part”，边写边算CRC32C，一致时改名为目标文件，不一致时删除，已有的文件不会被写坏
+ * 3.确认先攒在缓冲区里，输入缓冲区读空、即将阻塞读取时才一起发出去
+ * 4.单个文件出错（文件名越界、CRC32C不一致、写盘失败）只拒绝这个文件，数据照常读完丢弃，会话继续
+ */
+public class SessionTransferServer implements Closeable {
+
+    static final int MAGIC = 0x53594E43;
+    static final byte END = 0;
+    static final byte FILE = 1;
+    static final byte ACK_OK = 0;
+    static final byte ACK_BAD_CHECKSUM = 1;
+    static final byte ACK_REJECTED = 2;
+    static final int ACK_SIZE = 5;
+
+    private static final int BUFFER_SIZE = 256 * 1024;
+    private static final int ACK_BUFFER_SIZE = 16 * 1024;
+    private static final String PART_SUFFIX = ".part";
+
+    private final InetSocketAddress address;
+    private final Path directory;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private ServerSocketChannel serverSocketChannel;
+    private Thread acceptThread;
+    private volatile boolean running;
+
+    /**
+     * @param directory 接收文件的保存目录，文件名中的子目录按需创建
+     */
+    public SessionTransferServer(InetSocketAddress address, Path directory) {
+        this.address = address;
+        this.directory = directory.toAbsolutePath().normalize();
+    }
+
+    public void start() throws IOException {
+        serverSocketChannel = ServerSocketChannel.open();
+        serverSocketChannel.bind(address);
+        running = true;
+        acceptThread = new Thread(this::acceptLoop, "session-accept");
+        acceptThread.start();
+    }
+
+    public int port() throws IOException {
+        return ((InetSocketAddress) serverSocketChannel.getLocalAddress()).getPort();
+    }
+
+    private void acceptLoop() {
+        try {
+            while (running) {
+                SocketChannel socketChannel = serverSocketChannel.accept();
+                executor.execute(() -> handle(socketChannel));
+            }
+        } catch (ClosedChannelException e) {
+            //close()
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void handle(SocketChannel socketChannel) {
+        BufferPool bufferPool = BufferPool.DEFAULT;
+        ByteBuffer in = bufferPool.acquire(BUFFER_SIZE);
+        ByteBuffer acks = bufferPool.acquire(ACK_BUFFER_SIZE);
+        try (SocketChannel channel = socketChannel) {
+            //确认很小，不能让Nagle算法把它们攒住
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            Session session = new Session(channel, in, acks);
+            session.receive();
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            bufferPool.release(in);
+            bufferPool.release(acks);
+        }
+    }
+
+    /**
+     * 文件名对应的保存位置，越出保存目录时返回null
+     */
+    private Path resolve(String name) {
+        if (name.isEmpty() || name.indexOf('\0') >= 0) {
+            return null;
+        }
+        Path target = directory.resolve(name).normalize();
+        return target.startsWith(directory) && !target.equals(directory) ? target : null;
+    }
+
+    public void join() throws InterruptedException {
+        if (acceptThread != null) {
+            acceptThread.join();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        running = false;
+        if (serverSocketChannel != null) {
+            serverSocketChannel.close();
+        }
+        executor.shutdown();
+    }
+
+    /**
+     * 一个连接上的会话，只在处理这个连接的线程中使用
+     */
+    private final class Session {
+
+        private final SocketChannel channel;
+        private final ByteBuffer in;
+        private final ByteBuffer acks;
+        private final CRC32C checksum = new CRC32C();
+        private int sequence;
+
+        Session(SocketChannel channel, ByteBuffer in, ByteBuffer acks) {
+            this.channel = channel;
+            this.in = in;
+            this.acks = acks;
+            in.flip();
+        }
+
+        void receive() throws IOException {
+            //1.握手
+            fill(4);
+            if (in.getInt() != MAGIC) {
+                throw new IOException("bad magic");
+            }
+            //2.逐个接收文件，直到结束标记
+            while (true) {
+                fill(1);
+                byte type = in.get();
+                if (type == END) {
+                    break;
+                }
+                if (type != FILE) {
+                    throw new IOException("bad record type " + type);
+                }
+                fill(2);
+                int nameLength = in.getShort() & 0xFFFF;
+                fill(nameLength + 12);
+                byte[] name = new byte[nameLength];
+                in.get(name);
+                long size = in.getLong();
+                int crc = in.getInt();
+                if (size < 0) {
+                    throw new IOException("bad file size " + size);
+                }
+                byte status = receiveFile(new String(name, StandardCharsets.UTF_8), size, crc);
+                if (acks.remaining() < ACK_SIZE) {
+                    flushAcks();
+                }
+                acks.putInt(sequence++).put(status);
+            }
+            //3.发出剩下的确认
+            flushAcks();
+            channel.shutdownOutput();
+        }
+
+        /**
+         * 接收一个文件的数据，返回确认状态；数据总是全部读完
+         */
+        private byte receiveFile(String name, long size, int crc) throws IOException {
+            Path target = resolve(name);
+            Path part = target == null ? null : target.resolveSibling(target.getFileName() + PART_SUFFIX);
+            FileChannel file = null;
+            if (part != null) {
+                try {
+                    Files.createDirectories(part.getParent());
+                    file = FileChannel.open(part, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                            StandardOpenOption.TRUNCATE_EXISTING);
+                } catch (IOException e) {
+                    file = null;
+                }
+            }
+            checksum.reset();
+            long position = 0;
+            try {
+                while (position < size) {
+                    if (!in.hasRemaining()) {
+                        fill(1);
+                    }
+                    int limit = in.limit();
+                    int start = in.position();
+                    int n = (int) Math.min(in.remaining(), size - position);
+                    in.limit(start + n);
+                    checksum.update(in);
+                    if (file != null) {
+                        in.position(start);
+                        try {
+                            while (in.hasRemaining()) {
+                                file.write(in, position + in.position() - start);
+                            }
+                        } catch (IOException e) {
+                            //写盘失败只拒绝这个文件，剩下的数据照常读完
+                            closeQuietly(file);
+                            file = null;
+                        }
+                    }
+                    in.limit(limit).position(start + n);
+                    position += n;
+                }
+            } finally {
+                if (file != null && position < size) {
+                    closeQuietly(file);
+                }
+            }
+            if (file == null) {
+                deleteQuietly(part);
+                return ACK_REJECTED;
+            }
+            try {
+                file.close();
+                if ((int) checksum.getValue() != crc) {
+                    Files.delete(part);
+                    return ACK_BAD_CHECKSUM;
+                }
+                Files.move(part, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                return ACK_OK;
+            } catch (IOException e) {
+                deleteQuietly(part);
+                return ACK_REJECTED;
+            }
+        }
+
+        /**
+         * 保证输入缓冲区中至少有n个字节；要阻塞读取之前先把攒着的确认发出去
+         */
+        private void fill(int n) throws IOException {
+            if (in.remaining() >= n) {
+                return;
+            }
+            flushAcks();
+            in.compact();
+            while (in.position() < n) {
+                if (channel.read(in) < 0) {
+                    throw new EOFException("session closed with " + in.position() + " of " + n + " bytes");
+                }
+            }
+            in.flip();
+        }
+
+        private void flushAcks() throws IOException {
+            acks.flip();
+            IoUtils.writeFully(channel, acks);
+            acks.clear();
+        }
+    }
+
+    private static void closeQuietly(FileChannel file) {
+        try {
+            file.close();
+        } catch (IOException e) {
+            //已经在按失败处理了
+        }
+    }
+
+    private static void deleteQuietly(Path path) {
+        if (path == null) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            //.part文件下次同名文件到来时会被覆盖
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package club.virgilin;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * SpscBufferRing
+ *
+ * @author virgilin
+ * @date 2026/10/18
+ *
+ * 单生产者单消费者的无锁环形缓冲区，槽位是预先分配好的直接缓冲区
+ *
+ * 一、生产者
+ * 1.claim()取得下一个空闲槽位，直接把数据读入/写入这个槽位，不产生任何对象
+ * 2.commit()确认槽位已填好；不想要这个槽位（例如receive()返回null）时不调用commit()即可
+ * 3.publish()一次性把所有已确认的槽位发布给消费者：一批只做一次volatile写
+ *
+ * 二、消费者
+ * 1.available()查看已发布的槽位数
+ * 2.get(i)按顺序访问，index(i)得到槽位下标，可用于访问调用方自己的平行数组
+ * 3.release(n)归还槽位
+ *
+ * 三、head/tail各自只被一方写，另一方只读，所以不需要CAS，发布用lazySet（有序写）即可；
+ * 生产者缓存一份head，只有看起来满了时才去读消费者的volatile变量
+ */
+public class SpscBufferRing {
+
+    private final ByteBuffer[] slots;
+    private final int mask;
+
+    /**
+     * 已发布的位置，生产者写
+     */
+    private final AtomicLong tail = new AtomicLong();
+
+    /**
+     * 已消费的位置，消费者写
+     */
+    private final AtomicLong head = new AtomicLong();
+
+    /**
+     * 生产者本地：已确认的位置、缓存的head
+     */
+    private long claimTail;
+    private long cachedHead;
+
+    /**
+     * 消费者本地：已消费的位置
+     */
+    private long readHead;
+
+    /**
+     * @param capacity 槽位数，必须是2的幂
+     * @param slotSize 每个槽位的字节数
+     */
+    public SpscBufferRing(int capacity, int slotSize) {
+        if (capacity <= 0 || (capacity & (capacity - 1)) != 0) {
+            throw new IllegalArgumentException("capacity must be a power of 2: " + capacity);
+        }
+        if ((long) capacity * slotSize > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("ring too large: " + capacity + " * " + slotSize);
+        }
+        this.slots = new ByteBuffer[capacity];
+        this.mask = capacity - 1;
+        //一次分配一整块直接内存再切片，槽位在内存中连续
+        ByteBuffer block = ByteBuffer.allocateDirect(capacity * slotSize);
+        for (int i = 0; i < capacity; i++) {
+            block.limit((i + 1) * slotSize).position(i * slotSize);
+            slots[i] = block.slice();
+        }
+    }
+
+    public int capacity() {
+        return slots.length;
+    }
+
+    /**
+     * 生产者：下一个空闲槽位（已clear），环满时返回null
+     */
+    public ByteBuffer claim() {
+        if (claimTail - cachedHead >= slots.length) {
+            cachedHead = head.get();
+            if (claimTail - cachedHead >= slots.length) {
+                return null;
+            }
+        }
+        ByteBuffer slot = slots[(int) claimTail & mask];
+        slot.clear();
+        return slot;
+    }
+
+    /**
+     * 生产者：claim()得到的槽位的下标
+     */
+    public int claimedIndex() {
+        return (int) claimTail & mask;
+    }
+
+    /**
+     * 生产者：确认claim()得到的槽位
+     */
+    public void commit() {
+        claimTail++;
+    }
+
+    /**
+     * 生产者：发布所有已确认的槽位
+     *
+     * @return 本次新发布的槽位数
+     */
+    public int publish() {
+        long published = tail.get();
+        if (claimTail != published) {
+            tail.lazySet(claimTail);
+        }
+        return (int) (claimTail - published);
+    }
+
+    /**
+     * 消费者：已发布未消费的槽位数
+     */
+    public int available() {
+        return (int) (tail.get() - readHead);
+    }
+
+    /**
+     * 消费者：第i个未消费的槽位，i < available()
+     */
+    public ByteBuffer get(int i) {
+        return slots[index(i)];
+    }
+
+    public int index(int i) {
+        return (int) (readHead + i) & mask;
+    }
+
+    /**
+     * 消费者：归还前n个槽位
+     */
+    public void release(int n) {
+        readHead += n;
+        head.lazySet(readHead);
+    }
+}
@@ -0,0 +1,61 @@
+package club.virgilin;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * StageTransport
+ *
+ * @author virgilin
+ * @date 2026/10/18
+ *
+ * 流水线相邻两级之间的单生产者单消费者消息通道
+ *
+ * 一、生产者（上一级的线程）
+ * 1.send()把消息复制进通道，不产生任何对象；通道满时等待
+ * 2.flush()把已写入的消息作为一批交给消费者
+ * 3.shutdownOutput()发送完毕
+ *
+ * 二、消费者（下一级的线程）
+ * receive()等到至少一条消息后，把当前所有可读的消息依次交给handler；发送完毕且读完后返回-1
+ *
+ * 实现：PipeTransport（管道 + 选择器）、RingTransport（无锁环形缓冲区）
+ */
+public interface StageTransport extends Closeable {
+
+    /**
+     * 写入一条消息（position到limit之间的字节）
+     */
+    void send(ByteBuffer message) throws IOException;
+
+    /**
+     * 把已写入的消息发布给消费者
+     */
+    void flush() throws IOException;
+
+    /**
+     * 发布剩余消息并通知消费者不会再有新消息
+     */
+    void shutdownOutput() throws IOException;
+
+    /**
+     * 接收一批消息
+     *
+     * @return 本批消息数，发送完毕返回-1
+     */
+    int receive(Handler handler) throws IOException;
+
+    interface Handler {
+
+        /**
+         * 消息位于position到limit之间，方法返回后缓冲区会被复用
+         */
+        void onMessage(ByteBuffer message) throws IOException;
+    }
+
+    interface Factory {
+
+        StageTransport create() throws IOException;
+    }
+}
@@ -0,0 +1,251 @@
+package club.virgilin;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.MalformedInputException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * StreamingTranscoder
+ *
+ * @author virgilin
+ * @date 2026/10/18
+ *
+ * 通道到通道的流式字符集转换（例如GBK -> UTF-8）
+ *
+ * 一、与TestChannel.test6()的区别
+ * CharsetEncoder.encode(CharBuffer)每次调用都新分配输出缓冲区，而且只能处理内存中的完整字符串。
+ * 这里复用同一对编码器/解码器、一个CharBuffer和两个池化的直接缓冲区，任意大小的文件都只占固定内存。
+ *
+ * 二、跨缓冲区的多字节字符
+ * 以endOfInput=false调用decode()时，缓冲区末尾不完整的多字节序列不会被消费，
+ * compact()把它们移到缓冲区开头，和下一次读入的字节拼起来再解码。
+ *
+ * 三、ASCII快速路径（两端字符集都兼容ASCII时）
+ * ASCII字符在GBK、UTF-8中的编码相同，连续的ASCII字节直接拷贝到输出，不经过解码和编码。
+ * 难点在于GBK双字节字符的第二个字节可能小于0x80，不能把它当成ASCII。判断方法：
+ * 1.解码器处理完之后的位置一定是字符边界，此处小于0x80的字节就是ASCII
+ * 2.某个字节和它前一个字节都小于0x80时，前一个字节要么是ASCII字符，要么是双字节字符的结尾，
+ *   所以这个字节一定是字符边界；非ASCII段只解码到这样的位置为止，之后重新进入快速路径
+ * 3.很短的ASCII段（中英文混排）仍然交给解码器，只有足够长的ASCII段才值得切换
+ */
+public class StreamingTranscoder {
+
+    private static final Set<String> ASCII_COMPATIBLE = new HashSet<>(Arrays.asList(
+            "US-ASCII", "ISO-8859-1", "UTF-8", "GBK", "GB2312", "GB18030"));
+
+    private static final long HIGH_BITS = 0x8080808080808080L;
+
+    private static final int MIN_ASCII_RUN = 16;
+
+    private final Charset from;
+    private final CharsetDecoder decoder;
+    private final CharsetEncoder encoder;
+    private final boolean asciiFastPath;
+    private final BufferPool bufferPool;
+    private final int bufferSize;
+    private final CharBuffer chars;
+
+    private WritableByteChannel target;
+    private ByteBuffer output;
+    private long written;
+
+    public StreamingTranscoder(Charset from, Charset to) {
+        this(from, to, CodingErrorAction.REPORT, BufferPool.DEFAULT, 64 * 1024);
+    }
+
+    /**
+     * @param errorAction 遇到非法输入或目标字符集无法表示的字符时的处理方式
+     */
+    public StreamingTranscoder(Charset from, Charset to, CodingErrorAction errorAction, BufferPool bufferPool, int bufferSize) {
+        this.from = from;
+        this.decoder = from.newDecoder().onMalformedInput(errorAction).onUnmappableCharacter(errorAction);
+        this.encoder = to.newEncoder().onMalformedInput(errorAction).onUnmappableCharacter(errorAction);
+        this.asciiFastPath = ASCII_COMPATIBLE.contains(from.name()) && ASCII_COMPATIBLE.contains(to.name());
+        this.bufferPool = bufferPool;
+        this.bufferSize = bufferSize;
+        this.chars = CharBuffer.allocate(bufferSize);
+    }
+
+    /**
+     * 把source中的全部内容转换后写入target，两个通道都必须是阻塞模式
+     * 同一个实例不能被多个线程同时使用
+     *
+     * @return 写入target的字节数
+     */
+    public long transcode(ReadableByteChannel source, WritableByteChannel target) throws IOException {
+        ByteBuffer input = bufferPool.acquire(bufferSize);
+        this.output = bufferPool.acquire(bufferSize);
+        this.target = target;
+        this.written = 0;
+        decoder.reset();
+        encoder.reset();
+        chars.clear();
+        try {
+            boolean bomChecked = !from.equals(StandardCharsets.UTF_8);
+            boolean eof = false;
+            while (!eof) {
+                eof = source.read(input) < 0;
+                input.flip();
+                if (!bomChecked && (input.remaining() >= 3 || eof)) {
+                    skipBom(input);
+                    bomChecked = true;
+                }
+                if (bomChecked) {
+                    process(input, eof);
+                }
+                input.compact();
+            }
+            //输入结束：最后一段可能走的是快速路径，flush()之前解码器必须收到一次endOfInput=true
+            input.flip();
+            CoderResult result;
+            while ((result = decoder.decode(input, chars, true)).isOverflow()) {
+                encodeChars(false);
+            }
+            check(result);
+            while ((result = decoder.flush(chars)).isOverflow()) {
+                encodeChars(false);
+            }
+            check(result);
+            encodeChars(true);
+            while ((result = encoder.flush(output)).isOverflow()) {
+                writeOutput();
+            }
+            check(result);
+            writeOutput();
+            return written;
+        } finally {
+            bufferPool.release(input);
+            bufferPool.release(output);
+            this.output = null;
+            this.target = null;
+        }
+    }
+
+    /**
+     * UTF-8的BOM在GBK等字符集中没有意义，直接丢弃
+     */
+    private static void skipBom(ByteBuffer input) {
+        int p = input.position();
+        if (input.remaining() >= 3 && input.get(p) == (byte) 0xEF && input.get(p + 1) == (byte) 0xBB
+                && input.get(p + 2) == (byte) 0xBF) {
+            input.position(p + 3);
+        }
+    }
+
+    private void process(ByteBuffer input, boolean eof) throws IOException {
+        while (input.hasRemaining()) {
+            int position = input.position();
+            if (asciiFastPath && input.get(position) >= 0) {
+                copyAscii(input);
+                continue;
+            }
+            //非ASCII段：只解码到下一个确定的字符边界
+            int limit = input.limit();
+            int end = asciiFastPath ? nonAsciiEnd(input) : limit;
+            input.limit(end);
+            CoderResult result = decoder.decode(input, chars, eof && end == limit);
+            input.limit(limit);
+            if (result.isOverflow()) {
+                encodeChars(false);
+            } else if (result.isError()) {
+                result.throwException();
+            } else if (input.position() < end) {
+                if (end == limit) {
+                    //缓冲区末尾的半个字符，等待下一次读取
+                    return;
+                }
+                throw new MalformedInputException(end - input.position());
+            }
+        }
+    }
+
+    /**
+     * 拷贝从position开始的连续ASCII字节
+     */
+    private void copyAscii(ByteBuffer input) throws IOException {
+        //先把之前解码出的字符编码输出，保证顺序
+        encodeChars(false);
+        int start = input.position();
+        int limit = input.limit();
+        int end = start;
+        while (end + 8 <= limit && (input.getLong(end) & HIGH_BITS) == 0) {
+            end += 8;
+        }
+        while (end < limit && input.get(end) >= 0) {
+            end++;
+        }
+        while (start < end) {
+            if (!output.hasRemaining()) {
+                writeOutput();
+            }
+            int n = Math.min(end - start, output.remaining());
+            input.limit(start + n);
+            output.put(input);
+            start += n;
+        }
+        input.limit(limit);
+    }
+
+    /**
+     * 从position开始找下一段值得走快速路径的ASCII：连续MIN_ASCII_RUN + 1个小于0x80的字节，
+     * 返回其中第二个字节的位置（一定是字符边界），找不到返回limit
+     * 太短的ASCII段交给解码器一起处理，避免频繁切换反而变慢
+     */
+    private static int nonAsciiEnd(ByteBuffer input) {
+        int limit = input.limit();
+        int run = 0;
+        for (int i = input.position(); i < limit; i++) {
+            if (input.get(i) >= 0) {
+                if (++run > MIN_ASCII_RUN) {
+                    return i - MIN_ASCII_RUN + 1;
+                }
+            } else {
+                run = 0;
+            }
+        }
+        return limit;
+    }
+
+    /**
+     * 把chars中已解码的字符编码到output
+     */
+    private void encodeChars(boolean endOfInput) throws IOException {
+        chars.flip();
+        while (true) {
+            CoderResult result = encoder.encode(chars, output, endOfInput);
+            if (result.isOverflow()) {
+                writeOutput();
+            } else {
+                check(result);
+                break;
+            }
+        }
+        chars.compact();
+    }
+
+    private void writeOutput() throws IOException {
+        output.flip();
+        while (output.hasRemaining()) {
+            written += target.write(output);
+        }
+        output.clear();
+    }
+
+    private static void check(CoderResult result) throws IOException {
+        if (result.isError()) {
+            result.throwException();
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package club.virgilin;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.DigestException;
+import java.security.MessageDigest;
+
+/**
+ * StreamingVerifier
+ *
+ * @author virgilin
+ * @date 2026/10/18
+ *
+ * 边接收边校验：按顺序喂入收到的数据，每凑满一块就与ChunkChecksums中这一块的SHA-256比较
+ *
+ * 损坏的数据在收完这一块时就会发现，不必等整个镜像下载完再算一遍；
+ * 出错时可以从verifiedBytes()的位置开始重新下载（范围下载），之前的块都是好的
+ */
+public class StreamingVerifier {
+
+    private final ChunkChecksums expected;
+    private final MessageDigest digest = BlockSignatures.sha256();
+    private final byte[] hash = new byte[32];
+    private int chunk;
+    private int filled;
+    private long verifiedBytes;
+
+    public StreamingVerifier(ChunkChecksums expected) {
+        this.expected = expected;
+    }
+
+    /**
+     * 校验buffer的[position, limit)，不改变position和limit
+     *
+     * @throws IOException 某一块的SHA-256不一致，或者数据超出了文件长度
+     */
+    public void update(ByteBuffer buffer) throws IOException {
+        int position = buffer.position();
+        int limit = buffer.limit();
+        try {
+            while (buffer.position() < limit) {
+                if (chunk >= expected.chunkCount()) {
+                    throw new IOException("data beyond " + expected.length() + " bytes");
+                }
+                int n = Math.min(limit - buffer.position(), expected.chunkLength(chunk) - filled);
+                buffer.limit(buffer.position() + n);
+                digest.update(buffer);
+                filled += n;
+                if (filled == expected.chunkLength(chunk)) {
+                    verifyChunk();
+                }
+            }
+        } finally {
+            buffer.limit(limit).position(position);
+        }
+    }
+
+    private void verifyChunk() throws IOException {
+        try {
+            digest.digest(hash, 0, 32);
+        } catch (DigestException e) {
+            throw new IllegalStateException(e);
+        }
+        if (!expected.shaEquals(chunk, hash)) {
+            throw new IOException("chunk " + chunk + " corrupted at offset " + verifiedBytes);
+        }
+        verifiedBytes += filled;
+        filled = 0;
+        chunk++;
+    }
+
+    /**
+     * 数据是否已经完整
+     *
+     * @throws IOException 数据不足文件长度
+     */
+    public void finish() throws IOException {
+        if (verifiedBytes != expected.length()) {
+            throw new IOException("truncated: " + (verifiedBytes + filled) + " of " + expected.length() + " bytes");
+        }
+    }
+
+    /**
+     * 已经校验通过的字节数，总是块大小的整数倍（最后一块除外）
+     */
+    public long verifiedBytes() {
+        return verifiedBytes;
+    }
+}
@@ -0,0 +1,230 @@
+package club.virgilin;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * SwVersion
+ *
+ * @author virgilin
+ * @date 2026/10/18
+ *
+ * 软件版本号STB_SW_VERSION（XX.YY.MM.SS.DD YYYY/MM/DD，见1.txt）与long之间的转换
+ *
+ * 一、打包格式（从高位到低位，最高的5位为0，所以总是正数）
+ * 1.MM（7位）、SS（7位）：主版本、次版本
+ * 2.正式版标志（1位）：DD为00时是1，同一个MM.SS的正式版排在所有调试版之后
+ * 3.DD（7位）：调试版本号
+ * 4.编译日期：年（14位）、月（4位）、日（5位）
+ * 5.XX（7位）、YY（7位）：软件型号、软件ID，不参与版本先后的比较，只在最低的14位
+ *
+ * 二、比较
+ * 1.两个long直接比较大小就是升级的先后顺序，XX.YY只在版本完全相同时决定顺序
+ * 2.precedence()去掉了XX.YY，“比当前版本新”要用它来比较
+ * 3.排好序的long[]可以用upperBound()二分查找第一个比当前版本新的位置
+ *
+ * 三、解析
+ * 查询是升级服务最频繁的请求，所以直接从ByteBuffer中逐字节解析，不创建String，格式不对时返回INVALID，不抛异常
+ */
+public final class SwVersion {
+
+    /**
+     * "XX.YY.MM.SS.DD YYYY/MM/DD"的长度
+     */
+    public static final int LENGTH = 25;
+
+    /**
+     * 格式不对
+     */
+    public static final long INVALID = -1;
+
+    private static final int ID_BITS = 14;
+    private static final int DAY_SHIFT = 14;
+    private static final int MONTH_SHIFT = 19;
+    private static final int YEAR_SHIFT = 23;
+    private static final int DEBUG_SHIFT = 37;
+    private static final int RELEASE_SHIFT = 44;
+    private static final int MINOR_SHIFT = 45;
+    private static final int MAJOR_SHIFT = 52;
+
+    private SwVersion() {
+    }
+
+    /**
+     * 从position开始解析25个字节
+     *
+     * @return 打包后的版本；格式不对返回INVALID，此时position不变
+     */
+    public static long parse(ByteBuffer buffer) {
+        int p = buffer.position();
+        if (buffer.limit() - p < LENGTH) {
+            return INVALID;
+        }
+        //1.分隔符
+        if (buffer.get(p + 2) != '.' || buffer.get(p + 5) != '.' || buffer.get(p + 8) != '.'
+                || buffer.get(p + 11) != '.' || buffer.get(p + 14) != ' '
+                || buffer.get(p + 19) != '/' || buffer.get(p + 22) != '/') {
+            return INVALID;
+        }
+        //2.两位数字段，任何一个不是数字时结果为负数
+        int model = digits(buffer, p);
+        int id = digits(buffer, p + 3);
+        int major = digits(buffer, p + 6);
+        int minor = digits(buffer, p + 9);
+        int debug = digits(buffer, p + 12);
+        int century = digits(buffer, p + 15);
+        int year = digits(buffer, p + 17);
+        int month = digits(buffer, p + 20);
+        int day = digits(buffer, p + 23);
+        if ((model | id | major | minor | debug | century | year | month | day) < 0
+                || month < 1 || month > 12 || day < 1 || day > 31) {
+            return INVALID;
+        }
+        buffer.position(p + LENGTH);
+        return pack(model, id, major, minor, debug, century * 100 + year, month, day);
+    }
+
+    /**
+     * 解析字符串形式的版本号，用于发布镜像等不频繁的地方
+     *
+     * @throws IllegalArgumentException 格式不对
+     */
+    public static long parse(CharSequence version) {
+        if (version.length() == LENGTH) {
+            ByteBuffer buffer = ByteBuffer.allocate(LENGTH);
+            for (int i = 0; i < LENGTH; i++) {
+                char c = version.charAt(i);
+                buffer.put(c < 0x80 ? (byte) c : 0);
+            }
+            buffer.flip();
+            long packed = parse(buffer);
+            if (packed != INVALID) {
+                return packed;
+            }
+        }
+        throw new IllegalArgumentException("bad version: " + version);
+    }
+
+    private static long pack(int model, int id, int major, int minor, int debug, int year, int month, int day) {
+        return (long) major << MAJOR_SHIFT | (long) minor << MINOR_SHIFT
+                | (debug == 0 ? 1L << RELEASE_SHIFT : 0) | (long) debug << DEBUG_SHIFT
+                | (long) year << YEAR_SHIFT | (long) month << MONTH_SHIFT | (long) day << DAY_SHIFT
+                | (long) model << 7 | id;
+    }
+
+    /**
+     * 两位十进制数，不是数字时返回负数
+     */
+    private static int digits(ByteBuffer buffer, int index) {
+        int high = buffer.get(index) - '0';
+        int low = buffer.get(index + 1) - '0';
+        if (high < 0 || high > 9 || low < 0 || low > 9) {
+            return -1;
+        }
+        return high * 10 + low;
+    }
+
+    /**
+     * 按"XX.YY.MM.SS.DD YYYY/MM/DD"写入25个字节
+     */
+    public static void write(ByteBuffer buffer, long version) {
+        putDigits(buffer, swModel(version)).put((byte) '.');
+        putDigits(buffer, swId(version)).put((byte) '.');
+        putDigits(buffer, major(version)).put((byte) '.');
+        putDigits(buffer, minor(version)).put((byte) '.');
+        putDigits(buffer, debug(version)).put((byte) ' ');
+        int date = date(version);
+        putDigits(buffer, date / 1000000);
+        putDigits(buffer, date / 10000 % 100).put((byte) '/');
+        putDigits(buffer, date / 100 % 100).put((byte) '/');
+        putDigits(buffer, date % 100);
+    }
+
+    private static ByteBuffer putDigits(ByteBuffer buffer, int value) {
+        return buffer.put((byte) ('0' + value / 10)).put((byte) ('0' + value % 10));
+    }
+
+    public static String toString(long version) {
+        ByteBuffer buffer = ByteBuffer.allocate(LENGTH);
+        write(buffer, version);
+        return new String(buffer.array(), 0, LENGTH, StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * 软件型号XX
+     */
+    public static int swModel(long version) {
+        return (int) (version >>> 7) & 0x7F;
+    }
+
+    /**
+     * 软件ID YY
+     */
+    public static int swId(long version) {
+        return (int) version & 0x7F;
+    }
+
+    public static int major(long version) {
+        return (int) (version >>> MAJOR_SHIFT) & 0x7F;
+    }
+
+    public static int minor(long version) {
+        return (int) (version >>> MINOR_SHIFT) & 0x7F;
+    }
+
+    /**
+     * 调试版本号DD，正式版为0
+     */
+    public static int debug(long version) {
+        return (int) (version >>> DEBUG_SHIFT) & 0x7F;
+    }
+
+    public static boolean isRelease(long version) {
+        return (version & 1L << RELEASE_SHIFT) != 0;
+    }
+
+    /**
+     * 编译日期，yyyyMMdd
+     */
+    public static int date(long version) {
+        int year = (int) (version >>> YEAR_SHIFT) & 0x3FFF;
+        int month = (int) (version >>> MONTH_SHIFT) & 0xF;
+        int day = (int) (version >>> DAY_SHIFT) & 0x1F;
+        return (year * 100 + month) * 100 + day;
+    }
+
+    /**
+     * 去掉XX.YY之后的部分，只有它决定升级的先后
+     */
+    public static long precedence(long version) {
+        return version >>> ID_BITS;
+    }
+
+    /**
+     * a比b新时返回正数
+     */
+    public static int compare(long a, long b) {
+        return Long.compare(precedence(a), precedence(b));
+    }
+
+    /**
+     * 在升序排列的versions[from, to)中二分查找第一个比current新的位置
+     *
+     * @return 都不比current新时返回to
+     */
+    public static int upperBound(long[] versions, int from, int to, long current) {
+        //比current新等价于打包值 >= (precedence(current) + 1) << 14
+        long key = (precedence(current) + 1) << ID_BITS;
+        int low = from;
+        int high = to;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (versions[mid] < key) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+}
@@ -4,7 +4,6 @@ import org.junit.Test;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
-import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
@@ -44,17 +43,10 @@ public class TestBlockingNIO {
         SocketChannel socketChannel = SocketChannel.open(new InetSocketAddress("127.0.0.1", 9898));
         FileChannel fileChannel = FileChannel.open(Paths.get("1.jpg"), StandardOpenOption.READ);
 
-        //2.分配指定大小的缓冲区
-        ByteBuffer buffer = ByteBuffer.allocate(1024);
+        //2.发送到服务端（transferTo零拷贝，不经过用户空间的缓冲区）
+        FileTransfer.send(fileChannel, socketChannel);
 
-        //3.读取本地文件，并发送到服务端
-        while (fileChannel.read(buffer) != -1){
-            buffer.flip();
-            socketChannel.write(buffer);
-            buffer.clear();
-        }
-
-        //4.关闭通道
+        //3.关闭通道
         fileChannel.close();
         socketChannel.close();
     }
@@ -70,19 +62,66 @@ public class TestBlockingNIO {
         //3.获取客户端连接的通道
         SocketChannel socketChannel = serverSocketChannel.accept();
 
-        //4.分配指定大小的缓冲区
-        ByteBuffer buffer = ByteBuffer.allocate(1024);
-
-        //5.接收客户端的数据，并保存到本地
+        //4.接收客户端的数据，并保存到本地
+        long len = FileTransfer.receive(socketChannel, fileChannel, 0);
+        fileChannel.truncate(len);
 
-        while (socketChannel.read(buffer) != -1){
-            buffer.flip();
-            fileChannel.write(buffer);
-            buffer.clear();
-        }
-        //6.关闭通道
+        //5.关闭通道
         fileChannel.close();
         socketChannel.close();
         serverSocketChannel.close();
     }
+
+    /**
+     * OTA服务端：1.jpg作为固件镜像，规则见1.txt
+     * 1.厂商001、硬件型号0123、硬件版本6的机顶盒，软件型号01才能升级（硬件全匹配 + 软件型号匹配）
+     * 2.硬件版本为0的手机端软件，只匹配硬件平台号03
+     */
+    @Test
+    public void otaServer() throws IOException, InterruptedException {
+        OtaCatalog catalog = new OtaCatalog();
+        catalog.add(Paths.get("1.jpg"), 3, 1, 123, 6, "01.01.01.02.00 2018/03/01", OtaMatchMode.FULL);
+        catalog.add(Paths.get("1.jpg"), 3, 0, 0, 0, "02.01.02.00.00 2018/03/01", OtaMatchMode.HARDWARE);
+        OtaServer server = new OtaServer(new InetSocketAddress(9898), Runtime.getRuntime().availableProcessors(), catalog);
+        server.start();
+        server.join();
+        catalog.close();
+    }
+
+    /**
+     * OTA客户端：查询到新版本后下载到2.jpg
+     */
+    @Test
+    public void otaClient() throws IOException {
+        try (OtaClient client = new OtaClient(new InetSocketAddress("127.0.0.1", 9898));
+             FileChannel fileChannel = FileChannel.open(Paths.get("2.jpg"), StandardOpenOption.WRITE, StandardOpenOption.CREATE)) {
+            OtaClient.Update update = client.check(3, 1, 123, 6, "01.01.01.01.00 2017/12/31");
+            System.out.println(update);
+            if (update != null) {
+                System.out.println("下载完成：" + client.download(update.imageId(), fileChannel) + "字节");
+            }
+        }
+    }
+
+    /**
+     * OTA增量下载：2.jpg是上次下载的旧版本，只下载变化的块，拼成新版本3.jpg；
+     * 3.jpg下载中断后再次运行，先用resume()接着下载
+     */
+    @Test
+    public void otaDeltaClient() throws IOException {
+        try (OtaClient client = new OtaClient(new InetSocketAddress("127.0.0.1", 9898));
+             FileChannel local = FileChannel.open(Paths.get("2.jpg"), StandardOpenOption.READ);
+             FileChannel target = FileChannel.open(Paths.get("3.jpg"), StandardOpenOption.READ,
+                     StandardOpenOption.WRITE, StandardOpenOption.CREATE)) {
+            OtaClient.Update update = client.check(3, 1, 123, 6, "01.01.01.01.00 2017/12/31");
+            if (update == null) {
+                return;
+            }
+            if (target.size() > 0 && target.size() < update.size()) {
+                System.out.println("断点续传：" + client.resume(update.imageId(), target) + "字节");
+            } else {
+                System.out.println(client.downloadDelta(update.imageId(), local, target));
+            }
+        }
+    }
 }
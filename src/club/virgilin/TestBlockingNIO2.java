@@ -8,8 +8,11 @@ import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * TestBlockingNIO2
@@ -27,15 +30,10 @@ public class TestBlockingNIO2 {
         SocketChannel socketChannel = SocketChannel.open(new InetSocketAddress("127.0.0.1", 9898));
         FileChannel fileChannel = FileChannel.open(Paths.get("1.jpg"), StandardOpenOption.READ);
 
-        ByteBuffer buffer = ByteBuffer.allocate(1024);
-
-        while (fileChannel.read(buffer) != -1){
-            buffer.flip();
-            socketChannel.write(buffer);
-            buffer.clear();
-        }
+        FileTransfer.send(fileChannel, socketChannel);
         socketChannel.shutdownOutput();
         //接受反馈
+        ByteBuffer buffer = ByteBuffer.allocate(1024);
 
         int len = 0;
         while ((len = socketChannel.read(buffer))!=-1){
@@ -58,14 +56,11 @@ public class TestBlockingNIO2 {
         FileChannel fileChannel = FileChannel.open(Paths.get("2.jpg"), StandardOpenOption.WRITE, StandardOpenOption.READ, StandardOpenOption.CREATE);
 
         SocketChannel socketChannel = serverSocketChannel.accept();
-        ByteBuffer buffer = ByteBuffer.allocate(1024);
-        while (socketChannel.read(buffer) != -1){
-            buffer.flip();
-            fileChannel.write(buffer);
-            buffer.clear();
-        }
+        long len = FileTransfer.receive(socketChannel, fileChannel, 0);
+        fileChannel.truncate(len);
 
         //发送反馈给客户端
+        ByteBuffer buffer = ByteBuffer.allocate(1024);
         buffer.put("服务端接收数据成功".getBytes());
         buffer.flip();
         socketChannel.write(buffer);
@@ -73,4 +68,75 @@ public class TestBlockingNIO2 {
         fileChannel.close();
         serverSocketChannel.close();
     }
+
+    /**
+     * 服务端（每个连接一个虚拟线程）
+     * 写法与server()相同，但循环接受连接，每个上传保存为upload-n.jpg；最多同时处理10000个连接
+     */
+    @Test
+    public void threadPerConnectionServer() throws IOException, InterruptedException {
+        AtomicInteger uploads = new AtomicInteger();
+        ThreadPerConnectionServer server = new ThreadPerConnectionServer(new InetSocketAddress(9898), 10000, socketChannel -> {
+            Path path = Paths.get("upload-" + uploads.incrementAndGet() + ".jpg");
+            try (FileChannel fileChannel = FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.READ,
+                    StandardOpenOption.CREATE)) {
+                long len = FileTransfer.receive(socketChannel, fileChannel, 0);
+                fileChannel.truncate(len);
+            }
+
+            //发送反馈给客户端
+            ByteBuffer buffer = ByteBuffer.allocate(1024);
+            buffer.put("服务端接收数据成功".getBytes());
+            buffer.flip();
+            socketChannel.write(buffer);
+        });
+        System.out.println("virtual threads: " + ThreadPerConnectionServer.virtualThreadsSupported());
+        server.start();
+        server.join();
+    }
+
+    /**
+     * 客户端（分块并行上传）
+     * 4个连接并行发送1MB的分块，中断后再次运行只补传服务端没有确认的分块
+     */
+    @Test
+    public void chunkedClient() throws IOException, InterruptedException {
+        ChunkedTransferClient client = new ChunkedTransferClient(new InetSocketAddress("127.0.0.1", 9898), 4, 1024 * 1024);
+        client.upload(Paths.get("1.jpg"), "2.jpg");
+    }
+
+    /**
+     * 服务端（分块并行上传）
+     * 每块按偏移量写入2.jpg，完成情况记录在2.jpg.chunks中，全部完成后保留，同一版本再次上传时直接结束
+     */
+    @Test
+    public void chunkedServer() throws IOException, InterruptedException {
+        Path directory = Paths.get("").toAbsolutePath();
+        ChunkedTransferServer server = new ChunkedTransferServer(new InetSocketAddress(9898), directory, true);
+        server.start();
+        server.join();
+    }
+
+    /**
+     * 客户端（一个连接传输多个文件）
+     * 把assets目录下的所有文件发送给服务端，文件紧挨着发送，确认不逐个等待
+     */
+    @Test
+    public void sessionClient() throws IOException, InterruptedException {
+        SessionTransferClient client = new SessionTransferClient(new InetSocketAddress("127.0.0.1", 9898));
+        long start = System.nanoTime();
+        int files = client.syncDirectory(Paths.get("assets"));
+        System.out.println(files + "个文件，耗时" + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + "ms");
+    }
+
+    /**
+     * 服务端（一个连接传输多个文件）
+     * 收到的文件按相对路径保存在received目录下
+     */
+    @Test
+    public void sessionServer() throws IOException, InterruptedException {
+        SessionTransferServer server = new SessionTransferServer(new InetSocketAddress(9898), Paths.get("received"));
+        server.start();
+        server.join();
+    }
 }
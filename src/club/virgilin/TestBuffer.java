@@ -36,9 +36,38 @@ import java.nio.ByteBuffer;
  * 非直接缓冲区：通过allocate()方法分配缓冲区，将缓冲区建立在JVM的内存中
  * 直接缓冲区：通过allocateDirect()方法分配直接缓冲区，将缓冲区建立在物理内存中，可以提高效率。
  *
+ * 六，缓冲区池（BufferPool）
+ * 直接缓冲区分配和回收的代价较高，应当复用：acquire()获取，release()归还
+ *
  */
 public class TestBuffer {
 
+    @Test
+    public void test4(){
+        BufferPool pool = new BufferPool();
+        pool.setLeakDetection(true);
+        /**
+         * 1.容量向上取整到2的幂
+         */
+        ByteBuffer buffer = pool.acquire(1000);
+        System.out.println(buffer.isDirect() + " " + buffer.capacity());
+        pool.release(buffer);
+        /**
+         * 2.同一线程再次获取时命中线程本地缓存，不再分配
+         */
+        for (int i = 0; i < 100; i++) {
+            pool.release(pool.acquire(1024));
+        }
+        System.out.println(pool);
+        /**
+         * 3.未归还的缓冲区会被泄漏检测记录下来
+         */
+        pool.acquire(512);
+        for (Throwable leak : pool.leaks()) {
+            leak.printStackTrace();
+        }
+    }
+
     @Test
     public void test3(){
         ByteBuffer buffer = ByteBuffer.allocateDirect(1024);
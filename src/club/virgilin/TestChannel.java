@@ -14,6 +14,7 @@ import java.nio.charset.CharsetEncoder;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
 import java.util.Map;
 import java.util.Set;
 import java.util.SortedMap;
@@ -53,6 +54,7 @@ import java.util.SortedMap;
  * 五、分散（Scatter）与聚集（Gather）
  * 分散读取（Scattering Reads）：将通道中的数据分散到多个缓冲区中
  * 聚集写入（Gathering Writes）：将多个缓冲区中的数据聚集到通道中
+ * CompositeBuffer把多个缓冲区当作一个整体，nioBuffers()直接用于分散读取和聚集写入
  *
  * 六、字符集：Charset
  * 编码：字符串 -> 字节数组
@@ -60,6 +62,122 @@ import java.util.SortedMap;
  */
 public class TestChannel {
 
+    /**
+     * 11.CompositeBuffer：分散读入多个池化缓冲区，同一份数据切片后分别落盘和写日志，全程不拷贝
+     */
+    @Test
+    public void test11() throws IOException {
+        BufferPool pool = new BufferPool();
+        pool.setLeakDetection(true);
+        CompositeBuffer frame;
+        //1.分散读入3个4KB的段，只保留读到的部分
+        try (FileChannel inChannel = FileChannel.open(Paths.get("1.txt"), StandardOpenOption.READ)) {
+            CompositeBuffer data = CompositeBuffer.allocate(pool, 3 * 4096, 4096);
+            long n = data.readFrom(inChannel);
+            frame = data.slice(0, Math.max(n, 0));
+            data.release();
+        }
+        System.out.println(frame);
+        //2.落盘：聚集写入整帧
+        try (FileChannel outChannel = FileChannel.open(Paths.get("2.txt"), StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            frame.writeTo(outChannel);
+        }
+        //3.写日志：日志头和帧的前100个字节拼在一起，也是聚集写入
+        try (FileChannel logChannel = FileChannel.open(Paths.get("frames.log"), StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            CompositeBuffer head = frame.slice(0, Math.min(100, frame.length()));
+            CompositeBuffer header = CompositeBuffer.wrap(ByteBuffer.wrap(
+                    ("frame " + frame.length() + " bytes: ").getBytes(Charset.forName("UTF-8"))));
+            CompositeBuffer newline = CompositeBuffer.wrap(ByteBuffer.wrap(new byte[]{'\n'}));
+            CompositeBuffer line = CompositeBuffer.compose(header, head, newline);
+            header.release();
+            head.release();
+            newline.release();
+            line.writeTo(logChannel);
+            line.release();
+        }
+        //4.最后一个引用释放后，3个段都归还到缓冲区池
+        frame.release();
+        System.out.println(pool);
+    }
+
+    /**
+     * 10.校验test1/2/3复制出来的文件：多线程分块计算CRC32C和SHA-256，与原文件逐块比较
+     */
+    @Test
+    public void test10() throws IOException {
+        try (FileChannel source = FileChannel.open(Paths.get("1.jpg"), StandardOpenOption.READ)) {
+            ChunkChecksums expected = ParallelChecksum.compute(source);
+            System.out.println("1.jpg: " + expected);
+            for (String copy : new String[]{"2.jpg", "3.jpg", "4.jpg"}) {
+                try (FileChannel channel = FileChannel.open(Paths.get(copy), StandardOpenOption.READ)) {
+                    ChunkChecksums actual = ParallelChecksum.compute(channel);
+                    int[] bad = expected.mismatches(actual);
+                    System.out.println(copy + ": " + (bad.length == 0 && actual.length() == expected.length()
+                            ? "ok" : "损坏的块 " + Arrays.toString(bad)));
+                }
+            }
+        }
+    }
+
+    /**
+     * 9.流式字符集转换：通道到通道，缓冲区大小固定，与文件大小无关
+     */
+    @Test
+    public void test9() throws IOException {
+        Charset gbk = Charset.forName("GBK");
+        Charset utf8 = Charset.forName("UTF-8");
+        //1.UTF-8 -> GBK
+        try (FileChannel inChannel = FileChannel.open(Paths.get("1.txt"), StandardOpenOption.READ);
+             FileChannel outChannel = FileChannel.open(Paths.get("1.gbk.txt"), StandardOpenOption.WRITE,
+                     StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            System.out.println(new StreamingTranscoder(utf8, gbk).transcode(inChannel, outChannel));
+        }
+        //2.GBK -> UTF-8
+        try (FileChannel inChannel = FileChannel.open(Paths.get("1.gbk.txt"), StandardOpenOption.READ);
+             FileChannel outChannel = FileChannel.open(Paths.get("2.txt"), StandardOpenOption.WRITE,
+                     StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            System.out.println(new StreamingTranscoder(gbk, utf8).transcode(inChannel, outChannel));
+        }
+    }
+
+    /**
+     * 8.记录文件：聚集写入记录头和内容，分散读取，稀疏索引定位
+     */
+    @Test
+    public void test8() throws IOException {
+        RecordFile recordFile = RecordFile.open(Paths.get("records.dat"), 64);
+        //1.每条记录是固定的记录头 + 两个内容缓冲区
+        ByteBuffer device = ByteBuffer.allocate(16);
+        for (int i = 0; i < 10000; i++) {
+            device.clear();
+            device.put(("STB-" + (i % 100)).getBytes()).flip();
+            recordFile.append(ByteBuffer.wrap((" message " + i).getBytes()), device);
+        }
+        recordFile.flush();
+        System.out.println(recordFile.recordCount());
+
+        //2.定位到第5000条记录
+        RecordFile.Reader reader = recordFile.reader();
+        reader.seek(5000);
+        ByteBuffer buf = ByteBuffer.allocate(1024);
+        reader.next(buf);
+        System.out.println(new String(buf.array(), 0, buf.limit()) + " @ " + reader.timestamp());
+        reader.close();
+        recordFile.close();
+    }
+
+    /**
+     * 7.按窗口映射复制大文件（超过2GB也可以，不经过堆内存）
+     */
+    @Test
+    public void test7() throws IOException {
+        MappedFileCopier copier = new MappedFileCopier(64L * 1024 * 1024, false);
+        long size = copier.copy(Paths.get("1.jpg"), Paths.get("3.jpg"));
+        System.out.println(size);
+    }
+
     /**
      * 字符集
      */
@@ -2,13 +2,21 @@ package club.virgilin;
 
 import org.junit.Test;
 
+import javax.management.JMException;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
 import java.nio.channels.*;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.Date;
 import java.util.Iterator;
 import java.util.Scanner;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * TestNonBlockingNIO
@@ -41,24 +49,36 @@ public class TestNonBlockingNIO {
         //2.切换非阻塞模式
         socketChannel.configureBlocking(false);
 
-        //3.分配指定大小的缓冲区
-        ByteBuffer buffer = ByteBuffer.allocate(1024);
+        //3.注册到选择器上，发送队列没写完时才关注OP_WRITE
+        Selector selector = Selector.open();
+        SelectionKey selectionKey = socketChannel.register(selector, 0);
+        OutboundQueue outboundQueue = new OutboundQueue(socketChannel, selectionKey, BufferPool.DEFAULT,
+                Connection.HIGH_WATER_MARK, Connection.LOW_WATER_MARK, null);
 
         //4.发送数据给服务端
         System.out.println("请输入：");
         Scanner scanner = new Scanner(System.in);
         while (scanner.hasNext()){
             String str = scanner.nextLine();
-            buffer.put((new Date().toString() + "\n" + str).getBytes());
-            buffer.flip();
-            socketChannel.write(buffer);
-            buffer.clear();
+            outboundQueue.add(ByteBuffer.wrap((new Date().toString() + "\n" + str).getBytes()));
+            flush(selector, outboundQueue);
         }
 
 
         //5.关闭通道
+        selector.close();
         socketChannel.close();
     }
+
+    /**
+     * 写出发送队列中的全部数据：非阻塞通道一次write()可能只写出一部分，剩下的等OP_WRITE就绪后再写
+     */
+    private static void flush(Selector selector, OutboundQueue outboundQueue) throws IOException {
+        while (!outboundQueue.flush()){
+            selector.select();
+            selector.selectedKeys().clear();
+        }
+    }
     @Test
     public void scanner(){
         Scanner sc = new Scanner(System.in);
@@ -81,8 +101,11 @@ public class TestNonBlockingNIO {
         //2.切换非阻塞模式
         socketChannel.configureBlocking(false);
 
-        //3.分配指定大小的缓冲区
-        ByteBuffer buffer = ByteBuffer.allocate(1024);
+        //3.注册到选择器上，创建发送队列
+        Selector selector = Selector.open();
+        SelectionKey selectionKey = socketChannel.register(selector, 0);
+        OutboundQueue outboundQueue = new OutboundQueue(socketChannel, selectionKey, BufferPool.DEFAULT,
+                Connection.HIGH_WATER_MARK, Connection.LOW_WATER_MARK, null);
 
         //4.发送数据给服务端
 //        System.out.println("请输入：");
@@ -100,13 +123,12 @@ public class TestNonBlockingNIO {
             System.out.println(scanner.next());
         }
         System.out.println("发送完成");
-        buffer.put((new Date().toString()).getBytes());
-        buffer.flip();
-        socketChannel.write(buffer);
-        buffer.clear();
+        outboundQueue.add(ByteBuffer.wrap((new Date().toString()).getBytes()));
+        flush(selector, outboundQueue);
 
 
         //5.关闭通道
+        selector.close();
         socketChannel.close();
     }
 
@@ -132,9 +154,15 @@ public class TestNonBlockingNIO {
         //5.将通道注册到选择器上，并指定“监听接收时间”
         serverSocketChannel.register(selector,SelectionKey.OP_ACCEPT);
 
+        //5.1 时间轮：60秒没有读到数据的连接会被关闭，避免半开连接耗尽文件描述符
+        TimingWheel timingWheel = new TimingWheel(100, TimeUnit.MILLISECONDS, 1024, System.nanoTime());
+        long idleNanos = TimeUnit.SECONDS.toNanos(60);
 
-        //6.轮询式的获取选择器上已经“准备就绪”的事件
-        while (selector.select()>0){
+        //6.轮询式的获取选择器上已经“准备就绪”的事件，有定时器时最多阻塞到下一个tick
+        while (true){
+            selector.select(timingWheel.selectTimeoutMillis(System.nanoTime()));
+            long now = System.nanoTime();
+            timingWheel.expire(now);
             //7.获取当前选择器中所有注册的“选择键（已就绪的监听事件）”
             Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
             while (iterator.hasNext()){
@@ -146,18 +174,35 @@ public class TestNonBlockingNIO {
                     SocketChannel socketChannel = serverSocketChannel.accept();
                     //11.切换非阻塞模式
                     socketChannel.configureBlocking(false);
-                    //12.将该通道注册到选择器上
-                    socketChannel.register(selector,SelectionKey.OP_READ);
+                    //12.将该通道注册到选择器上，并安排空闲定时器
+                    SelectionKey key = socketChannel.register(selector,SelectionKey.OP_READ);
+                    IdleTimeout idleTimeout = new IdleTimeout(key, timingWheel, idleNanos);
+                    key.attach(idleTimeout);
+                    idleTimeout.lastRead = now;
+                    timingWheel.schedule(idleTimeout, now + idleNanos);
                 }else if (selectionKey.isReadable()){
                     //13.获取当前选择器上“读就绪”状态的通道
                     SocketChannel channel = (SocketChannel) selectionKey.channel();
-                    //14.读取数据
-                    ByteBuffer buffer = ByteBuffer.allocate(1024);
-                    int len = 0;
-                    while ((len = channel.read(buffer)) > 0){
-                        buffer.flip();
-                        System.out.println(new String(buffer.array(),0,len));
-                        buffer.clear();
+                    //14.读取数据（从缓冲区池中获取直接缓冲区，用完归还）
+                    ByteBuffer buffer = BufferPool.DEFAULT.acquire(1024);
+                    int len;
+                    try {
+                        while ((len = channel.read(buffer)) > 0){
+                            buffer.flip();
+                            System.out.println(Charset.defaultCharset().decode(buffer));
+                            buffer.clear();
+                        }
+                    } finally {
+                        BufferPool.DEFAULT.release(buffer);
+                    }
+                    //只记下读到数据的时间，定时器到期时再检查，不用每次读都移动定时器
+                    IdleTimeout idleTimeout = (IdleTimeout) selectionKey.attachment();
+                    idleTimeout.lastRead = now;
+                    if (len < 0) {
+                        //客户端已关闭连接
+                        timingWheel.cancel(idleTimeout);
+                        selectionKey.cancel();
+                        channel.close();
                     }
                 }
                 //15.取消选择键SelectionKey
@@ -166,4 +211,158 @@ public class TestNonBlockingNIO {
         }
 
     }
+
+    /**
+     * 连接的空闲定时器：到期时如果期间读到过数据，就从最后一次读的时间重新计时
+     */
+    private static final class IdleTimeout extends TimingWheel.Timeout {
+
+        private final SelectionKey selectionKey;
+        private final TimingWheel timingWheel;
+        private final long idleNanos;
+        private long lastRead;
+
+        IdleTimeout(SelectionKey selectionKey, TimingWheel timingWheel, long idleNanos) {
+            this.selectionKey = selectionKey;
+            this.timingWheel = timingWheel;
+            this.idleNanos = idleNanos;
+        }
+
+        @Override
+        protected void expire(long nowNanos) {
+            long idle = nowNanos - lastRead;
+            if (idle < idleNanos) {
+                timingWheel.schedule(this, nowNanos + idleNanos - idle);
+                return;
+            }
+            System.out.println("关闭空闲连接：" + selectionKey.channel());
+            selectionKey.cancel();
+            try {
+                selectionKey.channel().close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * 服务端（主从Reactor模式）
+     * boss线程只负责接收连接，读事件分散到每个CPU核一个的worker线程上
+     * 运行指标可以在jconsole中查看（club.virgilin:type=NioMetrics），每10秒也会输出一次
+     */
+    @Test
+    public void multiReactorServer() throws IOException, InterruptedException, JMException {
+        Charset charset = Charset.defaultCharset();
+        MultiReactorServer server = new MultiReactorServer(9898, (connection, buffer) ->
+                System.out.println(Thread.currentThread().getName() + ": " + charset.decode(buffer)));
+        NioMetrics.DEFAULT.registerMBean();
+        NioMetrics.DEFAULT.startDump(10, TimeUnit.SECONDS, System.out);
+        server.start();
+        server.join();
+    }
+
+    /**
+     * 客户端（长度前缀分帧）
+     * 一次写入多条消息，不等待服务端的响应
+     */
+    @Test
+    public void framingClient() throws IOException {
+        SocketChannel socketChannel = SocketChannel.open(new InetSocketAddress("127.0.0.1", 9898));
+        ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        for (int i = 0; i < 1000; i++) {
+            byte[] message = (new Date().toString() + " #" + i).getBytes();
+            if (buffer.remaining() < Varint.MAX_SIZE + message.length) {
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    socketChannel.write(buffer);
+                }
+                buffer.clear();
+            }
+            Varint.write(buffer, message.length);
+            buffer.put(message);
+        }
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            socketChannel.write(buffer);
+        }
+        socketChannel.close();
+    }
+
+    /**
+     * 服务端（长度前缀分帧）
+     * 每次回调都是一条完整的消息，不会被拆开或粘在一起
+     */
+    @Test
+    public void framingServer() throws IOException, InterruptedException {
+        Charset charset = Charset.defaultCharset();
+        MultiReactorServer server = new MultiReactorServer(9898, new FramingHandler((connection, frame) ->
+                System.out.println(charset.decode(frame))));
+        server.start();
+        server.join();
+    }
+
+    /**
+     * 服务端（异步写盘）：每个连接上传的内容保存为upload-序号.jpg，客户端用TestBlockingNIO.client()
+     * 打开、写入、关闭文件都在单独的线程池中完成，EventLoop线程只收数据，磁盘再慢也不影响其他连接
+     */
+    @Test
+    public void uploadServer() throws IOException, InterruptedException {
+        ExecutorService diskExecutor = Executors.newFixedThreadPool(2);
+        AtomicInteger uploads = new AtomicInteger();
+        MultiReactorServer server = new MultiReactorServer(new InetSocketAddress(9898),
+                Runtime.getRuntime().availableProcessors(), new ConnectionHandler() {
+            @Override
+            public void onOpen(Connection connection) {
+                //文件在磁盘线程池中打开，打开之前不读取
+                Path path = Paths.get("upload-" + uploads.incrementAndGet() + ".jpg");
+                UploadSink sink = UploadSink.open(connection, path, diskExecutor,
+                        UploadSink.DEFAULT_MAX_OUTSTANDING_WRITES);
+                sink.completion().whenComplete((bytes, e) -> System.out.println(path + ": "
+                        + (e == null ? bytes + "字节" : e)));
+                connection.attach(sink);
+            }
+
+            @Override
+            public void onRead(Connection connection, ByteBuffer buffer) {
+                //读缓冲区整个交给UploadSink，写完后由它归还
+                connection.retainReadBuffer();
+                ((UploadSink) connection.attachment()).write(buffer);
+            }
+
+            @Override
+            public void onClose(Connection connection) {
+                UploadSink sink = (UploadSink) connection.attachment();
+                if (sink != null) {
+                    sink.close();
+                }
+            }
+        });
+        server.start();
+        server.join();
+        diskExecutor.shutdown();
+    }
+
+    /**
+     * 服务端（回显）：读到什么写回什么，读缓冲区直接入发送队列，写完后归还，不拷贝
+     */
+    @Test
+    public void echoServer() throws IOException, InterruptedException {
+        MultiReactorServer server = new MultiReactorServer(9898, (connection, buffer) -> {
+            connection.retainReadBuffer();
+            connection.writePooled(buffer);
+            connection.flush();
+        });
+        server.start();
+        server.join();
+    }
+
+    /**
+     * 压测客户端：先启动echoServer()，1000个连接合计每秒20000条64字节的消息，预热5秒，测量30秒
+     */
+    @Test
+    public void loadGenerator() throws IOException, InterruptedException {
+        LoadGenerator generator = new LoadGenerator(new InetSocketAddress("127.0.0.1", 9898), LoadProtocol.TCP,
+                1000, 64, 20000, Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+        System.out.println(generator.run(5, 30, TimeUnit.SECONDS));
+    }
 }
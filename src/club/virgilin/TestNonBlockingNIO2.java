@@ -5,11 +5,17 @@ import org.junit.Test;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.net.SocketAddress;
 import java.nio.ByteBuffer;
 import java.nio.channels.*;
+import java.nio.charset.Charset;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.Date;
 import java.util.Iterator;
 import java.util.Scanner;
+import java.util.concurrent.TimeUnit;
 
 /**
  * TestNonBlockingNIO
@@ -35,19 +41,24 @@ import java.util.Scanner;
  */
 public class TestNonBlockingNIO2 {
 
+    private static final InetSocketAddress MULTICAST_GROUP = new InetSocketAddress("239.1.2.3", 9899);
+
     public static void main(String[] args) throws IOException {
-        DatagramChannel dc = DatagramChannel.open();
-        dc.configureBlocking(false);
+        //已连接的通道，不用每次send都解析地址；消息带varint长度，多条可以合并进一个数据报
+        DatagramSender sender = new DatagramSender();
+        DatagramSender.Endpoint endpoint = sender.endpoint(new InetSocketAddress("127.0.0.1",9898));
         ByteBuffer buffer = ByteBuffer.allocate(1024);
         Scanner scanner = new Scanner(System.in);
         while (scanner.hasNext()){
             String str = scanner.nextLine();
             buffer.put((new Date().toString() + ":\n" + str).getBytes());
             buffer.flip();
-            dc.send(buffer,new InetSocketAddress("127.0.0.1",9898));
+            endpoint.send(buffer);
+            sender.flush();
             buffer.clear();
         }
-        dc.close();
+        System.out.println(sender);
+        sender.close();
     }
 
 
@@ -62,16 +73,98 @@ public class TestNonBlockingNIO2 {
             Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
             while (iterator.hasNext()) {
                 SelectionKey selectionKey = iterator.next();
+                iterator.remove();
                 if (selectionKey.isReadable()){
-                    ByteBuffer buffer = ByteBuffer.allocate(1024);
-                    dc.receive(buffer);
-                    buffer.flip();
-                    System.out.println(new String(buffer.array(),0,buffer.limit()));
-                    buffer.clear();
+                    ByteBuffer buffer = BufferPool.DEFAULT.acquire(1024);
+                    try {
+                        //一次唤醒把已到达的数据报全部读完
+                        while (dc.receive(buffer) != null) {
+                            buffer.flip();
+                            printMessages(buffer);
+                            buffer.clear();
+                        }
+                    } finally {
+                        BufferPool.DEFAULT.release(buffer);
+                    }
                 }
             }
-            iterator.remove();
         }
         dc.close();
     }
+
+    /**
+     * 高速率接收：DatagramIngestEngine
+     * 多个接收线程通过SO_REUSEPORT共享9898端口，数据报批量交给一个消费者线程
+     */
+    @Test
+    public void ingest() throws IOException, InterruptedException {
+        int receivers = Runtime.getRuntime().availableProcessors() > 2 ? 2 : 1;
+        DatagramIngestEngine engine = new DatagramIngestEngine(new InetSocketAddress(9898), receivers,
+                1024, 1024, new DatagramHandler() {
+            @Override
+            public void onDatagram(ByteBuffer packet, SocketAddress sender) {
+                System.out.println(sender);
+                printMessages(packet);
+            }
+
+            @Override
+            public void onBatchComplete(int count) {
+                System.out.println("batch: " + count);
+            }
+        });
+        engine.start();
+        engine.join();
+    }
+
+    /**
+     * UDP压测：先启动ingest()，1000个通道合计每秒50000个256字节的数据报，预热5秒，测量30秒
+     * ingest()不回显，结果中只有发送量和sendLag有意义；接收情况看ingest()的输出
+     */
+    @Test
+    public void loadGenerator() throws IOException, InterruptedException {
+        LoadGenerator generator = new LoadGenerator(new InetSocketAddress("127.0.0.1", 9898), LoadProtocol.UDP,
+                1000, 256, 50000, 1);
+        System.out.println(generator.run(5, 30, TimeUnit.SECONDS));
+    }
+
+    /**
+     * 组播推送1.jpg：先启动若干个multicastReceiver()，再启动这里；测试时走回环网卡
+     */
+    @Test
+    public void multicastSender() throws IOException {
+        try (MulticastSender sender = new MulticastSender(MULTICAST_GROUP, NetworkInterface.getByName("lo"),
+                DatagramSender.DEFAULT_MTU, 10 * 1024 * 1024);
+             FileChannel image = FileChannel.open(Paths.get("1.jpg"), StandardOpenOption.READ)) {
+            int done = sender.send(1, image, 0, 2, TimeUnit.SECONDS);
+            System.out.println("收全的接收方：" + done + "，首次发送：" + sender.dataPackets()
+                    + "个包，补发：" + sender.repairPackets() + "个包，NACK：" + sender.nacksReceived());
+        }
+    }
+
+    @Test
+    public void multicastReceiver() throws IOException {
+        try (MulticastReceiver receiver = new MulticastReceiver(MULTICAST_GROUP, NetworkInterface.getByName("lo"));
+             FileChannel target = FileChannel.open(Paths.get("5.jpg"), StandardOpenOption.WRITE,
+                     StandardOpenOption.CREATE)) {
+            boolean complete = receiver.receive(1, target, 60, TimeUnit.SECONDS);
+            System.out.println("收全：" + complete + "，收到：" + receiver.packetsReceived()
+                    + "个包，重复：" + receiver.duplicates() + "，NACK：" + receiver.nacksSent());
+        }
+    }
+
+    /**
+     * 一个数据报里可能合并了多条消息，每条前面是varint长度（见DatagramSender）
+     */
+    private static void printMessages(ByteBuffer packet) {
+        int limit = packet.limit();
+        while (packet.hasRemaining()) {
+            int length = Varint.read(packet);
+            if (length < 0 || length > packet.remaining()) {
+                break;
+            }
+            packet.limit(packet.position() + length);
+            System.out.println(Charset.defaultCharset().decode(packet));
+            packet.limit(limit);
+        }
+    }
 }
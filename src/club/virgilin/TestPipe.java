@@ -1,14 +1,26 @@
 package club.virgilin;
 
+import org.junit.Test;
+
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.channels.Pipe;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 
 /**
  * TestPipe
  *
  * @author virgilin
  * @date 2019/2/15
+ *
+ * 一、管道（Pipe）是两个线程之间的单向数据连接，数据写入sink通道，从source通道读取
+ *
+ * 二、流水线（Pipeline）：解码 → 计算 → 持久化，每一级一个线程，级与级之间可以是
+ * 1.PipeTransport：管道，source通道注册到选择器上
+ * 2.RingTransport：无锁环形缓冲区，批量发布
  */
 public class TestPipe {
 
@@ -32,4 +44,81 @@ public class TestPipe {
         sourceChannel.close();
         sinkChannel.close();
     }
+
+    /**
+     * 订单文本"id,qty,price" → 解码为二进制 → 计算金额 → 写入文件
+     */
+    @Test
+    public void pipeline() throws IOException {
+        StageTransport.Factory[] factories = {PipeTransport::new, RingTransport::new};
+        String[] names = {"PipeTransport", "RingTransport"};
+        for (int f = 0; f < factories.length; f++) {
+            try (FileChannel outChannel = FileChannel.open(Paths.get("pipeline.out"), StandardOpenOption.WRITE,
+                    StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                //每一级只在自己的线程中使用自己的缓冲区，处理消息时不创建对象
+                ByteBuffer order = ByteBuffer.allocate(20);
+                ByteBuffer result = ByteBuffer.allocate(16);
+                ByteBuffer records = ByteBuffer.allocateDirect(64 * 1024);
+                Pipeline pipeline = new Pipeline(factories[f],
+                        //1.解码：文本 → id(8) + qty(4) + price(8)
+                        (message, next) -> {
+                            order.clear();
+                            order.putLong(parseLong(message)).putInt((int) parseLong(message)).putLong(parseLong(message));
+                            order.flip();
+                            next.send(order);
+                        },
+                        //2.计算：id(8) + amount(8)
+                        (message, next) -> {
+                            long id = message.getLong();
+                            long amount = message.getInt() * message.getLong();
+                            result.clear();
+                            result.putLong(id).putLong(amount);
+                            result.flip();
+                            next.send(result);
+                        },
+                        //3.持久化：攒满缓冲区再写文件
+                        (message, next) -> {
+                            if (records.remaining() < message.remaining()) {
+                                records.flip();
+                                while (records.hasRemaining()) {
+                                    outChannel.write(records);
+                                }
+                                records.clear();
+                            }
+                            records.put(message);
+                        });
+                long start = System.currentTimeMillis();
+                pipeline.start();
+                ByteBuffer line = ByteBuffer.allocate(64);
+                for (int i = 0; i < 1000000; i++) {
+                    line.clear();
+                    line.put((i + "," + (i % 10 + 1) + "," + (i % 1000) * 100).getBytes(StandardCharsets.US_ASCII));
+                    line.flip();
+                    pipeline.submit(line);
+                }
+                pipeline.close();
+                records.flip();
+                while (records.hasRemaining()) {
+                    outChannel.write(records);
+                }
+                System.out.println(names[f] + ": " + outChannel.size() + " bytes, "
+                        + (System.currentTimeMillis() - start) + "ms");
+            }
+        }
+    }
+
+    /**
+     * 从position开始解析一个非负整数，跳过其后的一个逗号
+     */
+    private static long parseLong(ByteBuffer buffer) {
+        long value = 0;
+        while (buffer.hasRemaining()) {
+            byte b = buffer.get();
+            if (b == ',') {
+                break;
+            }
+            value = value * 10 + (b - '0');
+        }
+        return value;
+    }
 }
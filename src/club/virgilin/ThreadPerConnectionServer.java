@@ -0,0 +1,151 @@
+package club.virgilin;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * ThreadPerConnectionServer
+ *
+ * @author virgilin
+ * @date 2026/10/18
+ *
+ * 每个连接一个线程的阻塞式服务端：保持TestBlockingNIO中阻塞代码的写法，但能同时处理大量连接
+ *
+ * 一、虚拟线程
+ * 1.Java 21上每个连接一个虚拟线程，阻塞的read()/write()只挂起虚拟线程，不占用载体线程
+ * 2.更早的JDK退化为每个连接一个平台线程（Executors.newCachedThreadPool），连接数多时内存和调度开销都很大
+ *
+ * 二、避免占住载体线程（pinning）
+ * 1.虚拟线程在synchronized块中阻塞会占住载体线程，连接处理代码中需要互斥时用ReentrantLock
+ * 2.FileChannel的读写在Java 21上仍会占住载体线程，JDK会临时增加载体线程来补偿；
+ *   FileTransfer对套接字来源用直接缓冲区 + 定位写，每次写一大块，补偿的次数很少
+ * 3.BufferPool对虚拟线程不使用线程本地缓存，共享区用ReentrantLock
+ *
+ * 三、并发连接上限
+ * 接受连接前先取得一个许可，达到上限时不再accept()，新连接在内核的backlog中排队
+ */
+public class ThreadPerConnectionServer implements Closeable {
+
+    private final InetSocketAddress address;
+    private final BlockingHandler handler;
+    private final int maxConnections;
+    private final Semaphore permits;
+    private final LongAdder accepted = new LongAdder();
+    private ExecutorService executor;
+    private ServerSocketChannel serverSocketChannel;
+    private Thread acceptThread;
+    private volatile boolean running;
+
+    /**
+     * @param maxConnections 同时处理的最大连接数
+     */
+    public ThreadPerConnectionServer(InetSocketAddress address, int maxConnections, BlockingHandler handler) {
+        if (maxConnections <= 0) {
+            throw new IllegalArgumentException("maxConnections: " + maxConnections);
+        }
+        this.address = address;
+        this.handler = handler;
+        this.maxConnections = maxConnections;
+        this.permits = new Semaphore(maxConnections);
+    }
+
+    public void start() throws IOException {
+        serverSocketChannel = ServerSocketChannel.open();
+        serverSocketChannel.bind(address, 1024);
+        executor = VirtualThreads.newThreadPerTaskExecutor();
+        running = true;
+        acceptThread = new Thread(this::acceptLoop, "thread-per-connection-accept");
+        acceptThread.start();
+    }
+
+    public int port() throws IOException {
+        return ((InetSocketAddress) serverSocketChannel.getLocalAddress()).getPort();
+    }
+
+    /**
+     * 是否运行在虚拟线程上
+     */
+    public static boolean virtualThreadsSupported() {
+        return VirtualThreads.isSupported();
+    }
+
+    private void acceptLoop() {
+        try {
+            while (running) {
+                permits.acquire();
+                SocketChannel socketChannel;
+                try {
+                    socketChannel = serverSocketChannel.accept();
+                } catch (IOException e) {
+                    permits.release();
+                    throw e;
+                }
+                accepted.increment();
+                executor.execute(() -> handle(socketChannel));
+            }
+        } catch (ClosedChannelException | InterruptedException e) {
+            //close()
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void handle(SocketChannel socketChannel) {
+        try (SocketChannel channel = socketChannel) {
+            handler.handle(channel);
+        } catch (IOException e) {
+            if (running) {
+                e.printStackTrace();
+            }
+        } finally {
+            permits.release();
+        }
+    }
+
+    public long accepted() {
+        return accepted.sum();
+    }
+
+    /**
+     * 正在处理的连接数
+     */
+    public int activeConnections() {
+        return maxConnections - permits.availablePermits();
+    }
+
+    /**
+     * 停止接受新连接，已接受的连接继续处理到结束
+     */
+    @Override
+    public void close() throws IOException {
+        running = false;
+        if (acceptThread != null) {
+            acceptThread.interrupt();
+        }
+        if (serverSocketChannel != null) {
+            serverSocketChannel.close();
+        }
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+
+    public void join() throws InterruptedException {
+        if (acceptThread != null) {
+            acceptThread.join();
+        }
+        if (executor != null) {
+            while (!executor.awaitTermination(1, TimeUnit.SECONDS)) {
+                //等待已接受的连接处理完
+            }
+        }
+    }
+}
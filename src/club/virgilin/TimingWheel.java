@@ -0,0 +1,193 @@
+package club.virgilin;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * TimingWheel
+ *
+ * @author virgilin
+ * @date 2026/10/18
+ *
+ * 哈希时间轮：由选择器线程驱动的大量定时器
+ *
+ * 一、结构
+ * 1.轮子有wheelSize个槽，每个槽代表一个tick（例如100ms），到期时间落在第n个tick的定时器挂在第n % wheelSize个槽上
+ * 2.每个槽是一个双向链表，定时器对象自身就是链表节点（侵入式），添加、移动、取消都是O(1)，不分配对象
+ * 3.到期时间超过一圈的定时器同样挂在对应的槽上，轮到时发现还没到期就留在原处等下一圈
+ *
+ * 二、驱动
+ * 1.selectTimeoutMillis()：有定时器时select()最多阻塞到下一个tick，没有时一直阻塞
+ * 2.select()返回后调用expire()，依次处理从上次到现在经过的每个tick的槽
+ * 3.精度是一个tick：定时器可能晚最多一个tick触发，但不会提前
+ *
+ * 三、不是线程安全的，只能在驱动它的线程中使用
+ */
+public class TimingWheel {
+
+    private final long tickNanos;
+    private final Timeout[] buckets;
+    private final int mask;
+    private final long startNanos;
+    private long currentTick;
+    private int size;
+
+    /**
+     * @param tickDuration 一个tick的时长，即定时精度
+     * @param wheelSize    槽数，必须是2的幂；定时器数量很大时应增大，使每个槽上的链表不致过长
+     * @param startNanos   System.nanoTime()的当前值
+     */
+    public TimingWheel(long tickDuration, TimeUnit unit, int wheelSize, long startNanos) {
+        if (tickDuration <= 0) {
+            throw new IllegalArgumentException("tickDuration: " + tickDuration);
+        }
+        if (wheelSize <= 0 || (wheelSize & (wheelSize - 1)) != 0) {
+            throw new IllegalArgumentException("wheelSize must be a power of 2: " + wheelSize);
+        }
+        this.tickNanos = unit.toNanos(tickDuration);
+        this.buckets = new Timeout[wheelSize];
+        this.mask = wheelSize - 1;
+        this.startNanos = startNanos;
+    }
+
+    /**
+     * 安排定时器在deadlineNanos（System.nanoTime()的值）之后触发；已经安排过的定时器会被移动到新的位置
+     */
+    public void schedule(Timeout timeout, long deadlineNanos) {
+        if (timeout.wheel != null) {
+            if (timeout.wheel != this) {
+                throw new IllegalArgumentException("timeout is scheduled on another wheel");
+            }
+            unlink(timeout);
+        }
+        timeout.deadline = deadlineNanos;
+        //向上取整到tick，保证不会提前触发；已经过期的放到下一个tick
+        long tick = Math.max(ceilTick(deadlineNanos), currentTick + 1);
+        int index = (int) tick & mask;
+        Timeout head = buckets[index];
+        timeout.next = head;
+        timeout.prev = null;
+        if (head != null) {
+            head.prev = timeout;
+        }
+        buckets[index] = timeout;
+        timeout.wheel = this;
+        timeout.bucket = index;
+        size++;
+    }
+
+    /**
+     * 取消定时器，没有安排过也可以调用
+     */
+    public void cancel(Timeout timeout) {
+        if (timeout.wheel == this) {
+            unlink(timeout);
+        }
+    }
+
+    private void unlink(Timeout timeout) {
+        if (timeout.prev != null) {
+            timeout.prev.next = timeout.next;
+        } else {
+            buckets[timeout.bucket] = timeout.next;
+        }
+        if (timeout.next != null) {
+            timeout.next.prev = timeout.prev;
+        }
+        timeout.prev = null;
+        timeout.next = null;
+        timeout.wheel = null;
+        size--;
+    }
+
+    private long ceilTick(long nanos) {
+        long elapsed = nanos - startNanos;
+        return elapsed <= 0 ? 0 : (elapsed + tickNanos - 1) / tickNanos;
+    }
+
+    /**
+     * 已安排的定时器数
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * select(timeout)应使用的超时：没有定时器时返回0（一直阻塞），否则是到下一个tick的毫秒数，至少为1
+     */
+    public long selectTimeoutMillis(long nowNanos) {
+        if (size == 0) {
+            return 0;
+        }
+        long nextTickNanos = startNanos + (currentTick + 1) * tickNanos;
+        long millis = TimeUnit.NANOSECONDS.toMillis(nextTickNanos - nowNanos + 999_999);
+        return Math.max(1, millis);
+    }
+
+    /**
+     * 触发所有到期的定时器
+     *
+     * @return 触发的定时器数
+     */
+    public int expire(long nowNanos) {
+        long nowTick = (nowNanos - startNanos) / tickNanos;
+        if (nowTick <= currentTick) {
+            return 0;
+        }
+        //间隔超过一圈时每个槽只需要处理一次
+        long from = Math.max(currentTick + 1, nowTick - mask);
+        int expired = 0;
+        for (long tick = from; tick <= nowTick; tick++) {
+            currentTick = tick;
+            expired += expireBucket((int) tick & mask, nowNanos);
+        }
+        return expired;
+    }
+
+    private int expireBucket(int index, long nowNanos) {
+        int expired = 0;
+        Timeout timeout = buckets[index];
+        while (timeout != null) {
+            Timeout next = timeout.next;
+            if (timeout.deadline <= nowNanos) {
+                unlink(timeout);
+                expired++;
+                try {
+                    timeout.expire(nowNanos);
+                } catch (RuntimeException e) {
+                    e.printStackTrace();
+                }
+                //回调中可能取消了下一个定时器，这时从头再扫一遍
+                if (next != null && (next.wheel != this || next.bucket != index)) {
+                    next = buckets[index];
+                }
+            }
+            timeout = next;
+        }
+        return expired;
+    }
+
+    /**
+     * 定时器，同时也是时间轮中的链表节点；可以反复安排，每次安排不分配对象
+     */
+    public abstract static class Timeout {
+
+        private TimingWheel wheel;
+        private int bucket;
+        private Timeout prev;
+        private Timeout next;
+        private long deadline;
+
+        public boolean isScheduled() {
+            return wheel != null;
+        }
+
+        public long deadline() {
+            return deadline;
+        }
+
+        /**
+         * 到期回调，在驱动时间轮的线程中执行，可以在这里重新安排自己
+         */
+        protected abstract void expire(long nowNanos);
+    }
+}
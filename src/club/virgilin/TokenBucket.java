@@ -0,0 +1,94 @@
+package club.virgilin;
+
+/**
+ * TokenBucket
+ *
+ * @author virgilin
+ * @date 2026/10/18
+ *
+ * 令牌桶限速
+ *
+ * 一、原理
+ * 1.令牌按rate个/秒的速度匀速加入桶中，桶最多存burst个令牌
+ * 2.发送n个字节前先取n个令牌，令牌不够就等
+ * 3.burst决定了允许的突发量：空闲一段时间后最多可以一口气发送burst个字节
+ *
+ * 二、实现
+ * 不用定时器补充令牌，每次取令牌时按距上次补充经过的时间一次性补上。
+ * 不是线程安全的，由发送线程独占使用。
+ */
+public class TokenBucket {
+
+    private static final long NANOS_PER_SECOND = 1_000_000_000L;
+
+    private final long rate;
+    private final long burst;
+    private long tokens;
+    private long lastRefill;
+
+    /**
+     * @param rate  每秒产生的令牌数
+     * @param burst 桶的容量，不能小于一次要取的令牌数
+     */
+    public TokenBucket(long rate, long burst) {
+        if (rate <= 0 || burst <= 0) {
+            throw new IllegalArgumentException("rate: " + rate + ", burst: " + burst);
+        }
+        this.rate = rate;
+        this.burst = burst;
+        this.tokens = burst;
+        this.lastRefill = System.nanoTime();
+    }
+
+    public long rate() {
+        return rate;
+    }
+
+    public long burst() {
+        return burst;
+    }
+
+    /**
+     * 尝试取n个令牌，不够时不取并返回false
+     */
+    public boolean tryAcquire(long n) {
+        refill(System.nanoTime());
+        if (tokens < n) {
+            return false;
+        }
+        tokens -= n;
+        return true;
+    }
+
+    /**
+     * 还要等多少纳秒才有n个令牌，已经够了返回0
+     */
+    public long nanosUntil(long n) {
+        refill(System.nanoTime());
+        long missing = n - tokens;
+        if (missing <= 0) {
+            return 0;
+        }
+        //向上取整，避免醒来后仍差一点
+        return (missing * NANOS_PER_SECOND + rate - 1) / rate;
+    }
+
+    private void refill(long now) {
+        long elapsed = now - lastRefill;
+        if (elapsed <= 0 || tokens >= burst) {
+            lastRefill = now;
+            return;
+        }
+        //经过的时间足够填满桶时直接填满；否则按时间补充，不满一个令牌的时间留到下次
+        if (elapsed >= (burst - tokens) * NANOS_PER_SECOND / rate) {
+            tokens = burst;
+            lastRefill = now;
+            return;
+        }
+        long added = elapsed * rate / NANOS_PER_SECOND;
+        if (added > 0) {
+            tokens += added;
+            lastRefill += added * NANOS_PER_SECOND / rate;
+        }
+    }
+}
@@ -0,0 +1,283 @@
+package club.virgilin;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.EnumSet;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * UploadSink
+ *
+ * @author virgilin
+ * @date 2026/10/18
+ *
+ * 把一个连接上传的数据异步写入文件，EventLoop线程不做任何磁盘I/O，打开和关闭文件也不做
+ *
+ * 一、问题
+ * TestBlockingNIO.server()那样在收到数据的线程里FileChannel.write()，放到EventLoop中就是阻塞操作：
+ * 磁盘慢的时候，同一个选择器上的所有连接都要等它写完。
+ *
+ * 二、做法
+ * 1.onRead()中调用connection.retainReadBuffer()取走读缓冲区，整个交给write()，不复制
+ * 2.按收到的顺序分配文件位置，用AsynchronousFileChannel的定位写提交给磁盘线程池，完成的先后无所谓
+ * 3.写完后回到EventLoop线程归还缓冲区、更新计数，缓冲区池和计数都只在EventLoop线程中访问
+ *
+ * 三、背压
+ * 1.同时在写的缓冲区达到maxOutstandingWrites个时suspendRead()，数据留在内核接收缓冲区，TCP让客户端放慢
+ * 2.回落到一半以下时resumeRead()
+ * 所以每个连接最多占用maxOutstandingWrites个读缓冲区，磁盘再慢也不会把内存耗尽
+ *
+ * 四、打开
+ * 创建、清空文件要改元数据，和写一样可能很慢，所以open()只是把打开提交给磁盘线程池，立即返回：
+ * 1.打开期间暂停读取，之前收到的数据先按顺序存着，打开后再依次提交
+ * 2.打开后回到EventLoop线程恢复读取；打开失败按写失败处理
+ *
+ * 五、结束
+ * close()之后不再接收新的数据，等所有写完成再在磁盘线程池中关闭文件，回到EventLoop线程完成completion()；
+ * 任何一次写失败都会关闭连接，completion()以这个异常结束
+ */
+public class UploadSink implements Closeable {
+
+    public static final int DEFAULT_MAX_OUTSTANDING_WRITES = 16;
+
+    private final Connection connection;
+    private final ExecutorService diskExecutor;
+    private final BufferPool bufferPool;
+    private final int maxOutstandingWrites;
+    private final CompletableFuture<Long> completion = new CompletableFuture<>();
+    /**
+     * 文件打开之前收到的数据
+     */
+    private final Queue<ByteBuffer> pending = new ArrayDeque<>();
+
+    /**
+     * 打开之前为null
+     */
+    private AsynchronousFileChannel file;
+    private boolean opening = true;
+    private long position;
+    private long bytesWritten;
+    private int outstandingWrites;
+    private boolean closing;
+    private boolean fileClosing;
+    private Throwable failure;
+
+    private UploadSink(Connection connection, ExecutorService diskExecutor, int maxOutstandingWrites) {
+        this.connection = connection;
+        this.diskExecutor = diskExecutor;
+        this.bufferPool = connection.eventLoop().bufferPool();
+        this.maxOutstandingWrites = maxOutstandingWrites;
+    }
+
+    /**
+     * 在磁盘线程池中创建（或清空）文件，立即返回，打开完成前暂停读取；只能在EventLoop线程中调用，一般在onOpen()中
+     *
+     * @param diskExecutor         打开、写入、关闭文件的磁盘线程池
+     * @param maxOutstandingWrites 同时在写的缓冲区个数上限
+     */
+    public static UploadSink open(Connection connection, Path path, ExecutorService diskExecutor,
+                                  int maxOutstandingWrites) {
+        if (maxOutstandingWrites <= 0) {
+            throw new IllegalArgumentException("maxOutstandingWrites: " + maxOutstandingWrites);
+        }
+        UploadSink sink = new UploadSink(connection, diskExecutor, maxOutstandingWrites);
+        connection.suspendRead();
+        diskExecutor.execute(() -> {
+            AsynchronousFileChannel file = null;
+            IOException exception = null;
+            try {
+                file = AsynchronousFileChannel.open(path, EnumSet.of(StandardOpenOption.WRITE,
+                        StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING), diskExecutor);
+            } catch (IOException e) {
+                exception = e;
+            }
+            AsynchronousFileChannel opened = file;
+            IOException failure = exception;
+            connection.eventLoop().execute(() -> sink.onOpened(opened, failure));
+        });
+        return sink;
+    }
+
+    /**
+     * 文件打开完成，回到EventLoop线程中执行
+     */
+    private void onOpened(AsynchronousFileChannel file, IOException exception) {
+        opening = false;
+        if (exception != null) {
+            failure = exception;
+            closing = true;
+            connection.close();
+            ByteBuffer buffer;
+            while ((buffer = pending.poll()) != null) {
+                bufferPool.release(buffer);
+            }
+            closeFile();
+            return;
+        }
+        this.file = file;
+        //1.打开期间收到的数据按顺序提交，close()之前收到的都要写完
+        ByteBuffer buffer;
+        while ((buffer = pending.poll()) != null) {
+            submit(buffer);
+        }
+        //2.恢复读取，或者所有写都已完成时直接关闭
+        if (!closing && outstandingWrites < maxOutstandingWrites) {
+            connection.resumeRead();
+        }
+        if (closing && outstandingWrites == 0) {
+            closeFile();
+        }
+    }
+
+    /**
+     * 追加写入buffer的[position, limit)，只能在EventLoop线程中调用
+     *
+     * @param buffer 来自EventLoop的缓冲区池，所有权交给UploadSink，写完后归还
+     */
+    public void write(ByteBuffer buffer) {
+        if (closing || failure != null || !buffer.hasRemaining()) {
+            bufferPool.release(buffer);
+            return;
+        }
+        if (opening) {
+            pending.offer(buffer);
+            return;
+        }
+        submit(buffer);
+    }
+
+    private void submit(ByteBuffer buffer) {
+        Write write = new Write(buffer, position);
+        position += buffer.remaining();
+        if (++outstandingWrites >= maxOutstandingWrites) {
+            connection.suspendRead();
+        }
+        file.write(buffer, write.position, null, write);
+    }
+
+    /**
+     * 一次写完成，回到EventLoop线程中执行
+     */
+    private void onWriteComplete(ByteBuffer buffer, int bytes, Throwable exception) {
+        bufferPool.release(buffer);
+        outstandingWrites--;
+        bytesWritten += bytes;
+        if (exception != null && failure == null) {
+            failure = exception;
+            closing = true;
+            connection.close();
+        }
+        if (!closing && outstandingWrites <= maxOutstandingWrites / 2) {
+            connection.resumeRead();
+        }
+        if (closing && outstandingWrites == 0) {
+            closeFile();
+        }
+    }
+
+    /**
+     * 不再接收新的数据，已提交的写完成后关闭文件；只能在EventLoop线程中调用，一般在onClose()中
+     */
+    @Override
+    public void close() {
+        if (closing) {
+            return;
+        }
+        closing = true;
+        //还在打开时由onOpened()写完打开期间的数据后关闭
+        if (!opening && outstandingWrites == 0) {
+            closeFile();
+        }
+    }
+
+    /**
+     * 在磁盘线程池中关闭文件，再回到EventLoop线程完成completion()
+     */
+    private void closeFile() {
+        if (fileClosing) {
+            return;
+        }
+        fileClosing = true;
+        if (file == null) {
+            //打开失败
+            onFileClosed(null);
+            return;
+        }
+        AsynchronousFileChannel file = this.file;
+        diskExecutor.execute(() -> {
+            IOException exception = null;
+            try {
+                file.close();
+            } catch (IOException e) {
+                exception = e;
+            }
+            IOException failure = exception;
+            connection.eventLoop().execute(() -> onFileClosed(failure));
+        });
+    }
+
+    private void onFileClosed(IOException exception) {
+        if (exception != null && failure == null) {
+            failure = exception;
+        }
+        if (failure != null) {
+            completion.completeExceptionally(failure);
+        } else {
+            completion.complete(bytesWritten);
+        }
+    }
+
+    /**
+     * 文件关闭后完成，结果是写入的字节数
+     */
+    public CompletableFuture<Long> completion() {
+        return completion;
+    }
+
+    public long bytesWritten() {
+        return bytesWritten;
+    }
+
+    public int outstandingWrites() {
+        return outstandingWrites;
+    }
+
+    /**
+     * 一个缓冲区的写入，没写完时在磁盘线程中接着写剩下的部分
+     */
+    private final class Write implements CompletionHandler<Integer, Void> {
+
+        private final ByteBuffer buffer;
+        private final int length;
+        private long position;
+
+        Write(ByteBuffer buffer, long position) {
+            this.buffer = buffer;
+            this.length = buffer.remaining();
+            this.position = position;
+        }
+
+        @Override
+        public void completed(Integer result, Void attachment) {
+            if (buffer.hasRemaining()) {
+                position += result;
+                file.write(buffer, position, null, this);
+                return;
+            }
+            connection.eventLoop().execute(() -> onWriteComplete(buffer, length, null));
+        }
+
+        @Override
+        public void failed(Throwable exception, Void attachment) {
+            connection.eventLoop().execute(() -> onWriteComplete(buffer, 0, exception));
+        }
+    }
+}
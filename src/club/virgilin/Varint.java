@@ -0,0 +1,71 @@
+package club.virgilin;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Varint
+ *
+ * @author virgilin
+ * @date 2026/10/18
+ *
+ * 无符号变长整数编码（与protobuf的varint相同）：
+ * 每个字节低7位存数据，最高位为1表示后面还有字节，小端序，int最多5个字节。
+ * 小于128的长度只占1个字节，适合做大量小消息的长度前缀。
+ */
+public final class Varint {
+
+    public static final int MAX_SIZE = 5;
+
+    private Varint() {
+    }
+
+    /**
+     * 编码后的字节数
+     */
+    public static int size(int value) {
+        if ((value & 0xFFFFFF80) == 0) {
+            return 1;
+        }
+        if ((value & 0xFFFFC000) == 0) {
+            return 2;
+        }
+        if ((value & 0xFFE00000) == 0) {
+            return 3;
+        }
+        if ((value & 0xF0000000) == 0) {
+            return 4;
+        }
+        return 5;
+    }
+
+    public static void write(ByteBuffer buffer, int value) {
+        while ((value & 0xFFFFFF80) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    /**
+     * 从position开始读取一个完整的varint
+     *
+     * @return 解码后的值；字节不够时返回-1，且position不变
+     * @throws IllegalArgumentException 超过5个字节仍未结束
+     */
+    public static int read(ByteBuffer buffer) {
+        int position = buffer.position();
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            if (!buffer.hasRemaining()) {
+                buffer.position(position);
+                return -1;
+            }
+            byte b = buffer.get();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("malformed varint");
+    }
+}
@@ -0,0 +1,69 @@
+package club.virgilin;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * VirtualThreads
+ *
+ * @author virgilin
+ * @date 2026/10/18
+ *
+ * 虚拟线程（Java 21）的反射调用，源码不依赖Java 21，在项目要求的Java 9及以上都能编译运行
+ */
+final class VirtualThreads {
+
+    private static final Method IS_VIRTUAL = isVirtualMethod();
+
+    private VirtualThreads() {
+    }
+
+    private static Method isVirtualMethod() {
+        try {
+            return Thread.class.getMethod("isVirtual");
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 当前JDK是否支持虚拟线程
+     */
+    static boolean isSupported() {
+        ExecutorService executor = newExecutorOrNull();
+        if (executor == null) {
+            return false;
+        }
+        executor.shutdown();
+        return true;
+    }
+
+    /**
+     * 每个任务一个虚拟线程；不支持虚拟线程时退化为每个任务一个平台线程
+     */
+    static ExecutorService newThreadPerTaskExecutor() {
+        ExecutorService executor = newExecutorOrNull();
+        return executor != null ? executor : Executors.newCachedThreadPool();
+    }
+
+    private static ExecutorService newExecutorOrNull() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            //Java 21以前没有这个方法；Java 19、20没有开启预览特性时抛出UnsupportedOperationException
+            return null;
+        }
+    }
+
+    static boolean isVirtual(Thread thread) {
+        if (IS_VIRTUAL == null) {
+            return false;
+        }
+        try {
+            return (Boolean) IS_VIRTUAL.invoke(thread);
+        } catch (ReflectiveOperationException e) {
+            return false;
+        }
+    }
+}